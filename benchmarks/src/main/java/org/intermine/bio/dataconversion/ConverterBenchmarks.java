@@ -0,0 +1,94 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, takes the usual JMH arguments. Besides the JMH
+ * results (-rff, JSON), writes the throughput and allocation per row of the converter
+ * benchmarks (those with a rows parameter) to [results]-rows.json, to compare versions.
+ *
+ * @author
+ */
+public class ConverterBenchmarks
+{
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        String results = cmd.getResult().orElse("jmh-result.json");
+        Options options = new OptionsBuilder().parent(cmd)
+                .resultFormat(ResultFormatType.JSON)
+                .result(results)
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> runs = new Runner(options).run();
+        File rowsFile = new File(results.replaceFirst("(\\.json)?$", "-rows.json"));
+        Files.write(rowsFile.toPath(), perRow(runs).getBytes(StandardCharsets.UTF_8));
+        System.out.println("Per row results written to " + rowsFile);
+    }
+
+    /**
+     * the rows per second and bytes allocated per row, for the runs in operations per second
+     */
+    private static String perRow(Collection<RunResult> runs) {
+        StringBuilder sb = new StringBuilder("[");
+        String separator = "\n";
+        for (RunResult run : runs) {
+            String rows = run.getParams().getParam("rows");
+            Result primary = run.getPrimaryResult();
+            if (rows == null || !"ops/s".equals(primary.getScoreUnit())) {
+                continue;
+            }
+            int count = Integer.parseInt(rows);
+            double allocated = Double.NaN;
+            for (Map.Entry<String, Result> entry : run.getSecondaryResults().entrySet()) {
+                if (entry.getKey().endsWith(ALLOCATION)) {
+                    allocated = entry.getValue().getScore();
+                }
+            }
+            sb.append(separator);
+            separator = ",\n";
+            sb.append("  {\"benchmark\": \"").append(run.getParams().getBenchmark()).append('"');
+            sb.append(", \"params\": {");
+            String paramSeparator = "";
+            for (String key : run.getParams().getParamsKeys()) {
+                sb.append(paramSeparator).append('"').append(key).append("\": \"")
+                        .append(run.getParams().getParam(key)).append('"');
+                paramSeparator = ", ";
+            }
+            sb.append("}");
+            sb.append(", \"rowsPerSecond\": ").append(format(primary.getScore() * count));
+            sb.append(", \"bytesPerRow\": ").append(Double.isNaN(allocated) ? "null" : format(allocated / count));
+            sb.append("}");
+        }
+        return sb.append("\n]\n").toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
@@ -0,0 +1,72 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.ReferenceList;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An ItemWriter only counting the items, so that the benchmarks measure the converters and not
+ * the storing (or keeping, as MockItemWriter does) of the items.
+ *
+ * @author
+ */
+public class CountingItemWriter implements ItemWriter
+{
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @return the number of items stored
+     */
+    public int getCount() {
+        return count.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer store(Item item) {
+        return count.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void storeAll(Collection<Item> items) {
+        count.addAndGet(items.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(ReferenceList refList, Integer itemId) {
+        // nothing to count
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Attribute att, Integer itemId) {
+        // nothing to count
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        // nothing to close
+    }
+}
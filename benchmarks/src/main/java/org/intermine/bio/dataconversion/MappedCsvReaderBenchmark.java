@@ -0,0 +1,102 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MappedCsvReader over a wide, sparse file (like the Warrington extracts: a few columns used,
+ * many empty ones after them), reading all the columns or only the ones used. The score is in
+ * files per second, ConverterBenchmarks gives it per row.
+ *
+ * @author
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MappedCsvReaderBenchmark
+{
+    private static final int[] USED = {0, 1, 2, 3, 4, 5, 6, 7};
+
+    @Param({"200000"})
+    public int rows;
+
+    @Param({"200"})
+    public int columns;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("csv-benchmark", ".csv");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < rows; i++) {
+                writer.write(i + ",2015/16," + (i % 18) + ",1,Discharged treatment completed,N/A,N/A,\"a, b\"");
+                for (int c = USED.length; c < columns; c++) {
+                    writer.write(c % 50 == 0 ? ",0" : ",");
+                }
+                writer.write("\r\n");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void all(Blackhole bh) throws IOException {
+        read(new MappedCsvReader(file), bh);
+    }
+
+    @Benchmark
+    public void projected(Blackhole bh) throws IOException {
+        MappedCsvReader reader = new MappedCsvReader(file);
+        reader.setColumns(USED);
+        read(reader, bh);
+    }
+
+    private static void read(MappedCsvReader reader, Blackhole bh) throws IOException {
+        try {
+            while (reader.hasNext()) {
+                String[] line = reader.next();
+                for (int c : USED) {
+                    bh.consume(line[c]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The patient fields of a POR row read through the ColumnMapping of a site layout, as in
+ * PorConverter.processPatient. The score is per row of all the fields. handWritten reads them
+ * through the if/else on the data set name the mappings replaced, ColumnMappingTest checks
+ * that both give the same columns.
+ *
+ * @author
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PorColumnMappingBenchmark
+{
+    private static final int LINES = 1000;
+    private static final PorField[] FIELDS = {PorField.PATIENT_ID, PorField.REFERRAL_ID, PorField.AGE,
+        PorField.LOCALITY, PorField.ETHNICITY, PorField.GENDER, PorField.DIAGNOSIS, PorField.URGENCY,
+        PorField.SOURCE, PorField.OUTCOME, PorField.REFERRAL_DATE, PorField.TRIAGE_DATE,
+        PorField.ASSESSMENT_DATE, PorField.FIRST_TREATMENT_DATE, PorField.DISCHARGE_DATE,
+        PorField.DISCHARGE_REASON, PorField.CUMULATIVE_CAMHS};
+
+    /** the layouts of por_columns.properties, "default" for the sites without one of their own */
+    @Param({"Waltham", "Worcester", "Portsmouth", "Nene", "Sunderland", "default"})
+    public String site;
+
+    private Properties props;
+    private Map<String, ColumnMapping.Cleaner> cleaners;
+    private ColumnMapping mapping;
+    private String dataSet;
+    private String[][] lines;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        props = new Properties();
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("por_columns.properties")) {
+            props.load(is);
+        }
+        cleaners = new HashMap<>();
+        cleaners.put("identifier", FieldCleaner::cleanIdentifier);
+        cleaners.put("date", FieldCleaner::cleanDate);
+        cleaners.put("value", FieldCleaner::cleanValue);
+        mapping = ColumnMapping.compile(props, site, "patient", cleaners);
+        dataSet = site.equals("default") ? "Southampton" : site;
+        lines = new String[LINES][];
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = new String[] {"RT10" + i, i + "MHRef1", "12", "Locality", "A", "F", "NULL",
+                "Routine", "GP", "Accepted", "03/11/15 11:24", "04/11/15 10:00", "", "NULL",
+                "06/06/16 11:51", "Discharged", "1", "Malvern", "Completed", "", "", "", "", ""};
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void mapped(Blackhole bh) {
+        for (String[] line : lines) {
+            for (PorField field : FIELDS) {
+                bh.consume(mapping.get(line, field));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void handWritten(Blackhole bh) {
+        for (String[] line : lines) {
+            handWritten(dataSet, line, bh);
+        }
+    }
+
+    @Benchmark
+    public ColumnMapping compile() {
+        return ColumnMapping.compile(props, site, "patient", cleaners);
+    }
+
+    // the column resolution of processPatient before por_columns.properties, in the order of FIELDS
+    private static void handWritten(String dataSet, String[] line, Blackhole bh) {
+        if (dataSet.contains("Waltham") || dataSet.contains("Stockport")) {
+            consume(bh, line[0], line[1], FieldCleaner.cleanIdentifier(line[2]), line[3], line[4], line[5],
+                    FieldCleaner.cleanIdentifier(line[6]), line[7], line[8], line[9], line[10],
+                    FieldCleaner.cleanDate(line[11]), FieldCleaner.cleanDate(line[12]),
+                    FieldCleaner.cleanDate(line[13]), FieldCleaner.cleanDate(line[14]), line[15],
+                    FieldCleaner.cleanIdentifier(line[16]));
+        } else if (dataSet.contains("Worcester")) {
+            consume(bh, line[1], line[0], line[4], line[17], line[3], line[2], null, line[7], line[6], null,
+                    line[5], null, null, line[8], line[15], line[18], null);
+        } else if (dataSet.contains("Portsmouth")) {
+            consume(bh, line[0], line[1], FieldCleaner.cleanIdentifier(line[2]), line[3], line[4], line[5],
+                    line[6], line[7], line[8], line[9], FieldCleaner.cleanDate(line[10]),
+                    FieldCleaner.cleanDate(line[11]), FieldCleaner.cleanDate(line[12]),
+                    FieldCleaner.cleanDate(line[13]), FieldCleaner.cleanDate(line[14]), line[15], line[16]);
+        } else if (dataSet.contains("Nene")) {
+            consume(bh, line[0], line[1], FieldCleaner.cleanIdentifier(line[2]), line[3], line[4], line[5],
+                    line[6], line[7], line[8], line[9], FieldCleaner.cleanDate(line[11]),
+                    FieldCleaner.cleanDate(line[12]), line[12], FieldCleaner.cleanDate(line[13]),
+                    FieldCleaner.cleanDate(line[15]), null, null);
+        } else if (dataSet.contains("Sunderland")) {
+            consume(bh, line[0], line[1], FieldCleaner.cleanIdentifier(line[2]), line[3], line[4], line[5],
+                    line[6], line[7], line[8], line[9], null, null, line[12], FieldCleaner.cleanDate(line[13]),
+                    line[13], line[14], line[15]);
+        } else {
+            consume(bh, line[0], line[1], FieldCleaner.cleanIdentifier(line[2]), line[3], line[4], line[5],
+                    line[6], line[7], line[8], line[9], FieldCleaner.cleanDate(line[10]), line[11], line[12],
+                    FieldCleaner.cleanDate(line[13]), FieldCleaner.cleanDate(line[14]), line[15], line[16]);
+        }
+    }
+
+    // the fields one by one, as processPatient assigned them
+    private static void consume(Blackhole bh, String patientId, String referralId, String age, String locality,
+            String ethnicity, String gender, String diagnosis, String urgency, String source, String outcome,
+            String referralDate, String triageDate, String assessmentDate, String firstTreatmentDate,
+            String dischargeDate, String dischargeReason, String cumulativeCAMHS) {
+        bh.consume(patientId);
+        bh.consume(referralId);
+        bh.consume(age);
+        bh.consume(locality);
+        bh.consume(ethnicity);
+        bh.consume(gender);
+        bh.consume(diagnosis);
+        bh.consume(urgency);
+        bh.consume(source);
+        bh.consume(outcome);
+        bh.consume(referralDate);
+        bh.consume(triageDate);
+        bh.consume(assessmentDate);
+        bh.consume(firstTreatmentDate);
+        bh.consume(dischargeDate);
+        bh.consume(dischargeReason);
+        bh.consume(cumulativeCAMHS);
+    }
+}
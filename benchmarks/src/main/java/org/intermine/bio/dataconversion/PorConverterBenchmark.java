@@ -0,0 +1,98 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.metadata.Model;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PorConverter.process of a synthetic site file, from the file to the ItemWriter. The score is
+ * in files per second, ConverterBenchmarks gives it per row.
+ *
+ * @author
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class PorConverterBenchmark
+{
+    @Param({"Stoke", "Norfolk"})
+    public String site;
+
+    @Param({"20000"})
+    public int rows;
+
+    /** the mean referrals of a patient */
+    @Param({"1.4"})
+    public double referrals;
+
+    /** the mean contacts of a referral */
+    @Param({"6"})
+    public double contacts;
+
+    @Param({"1"})
+    public String fileThreads;
+
+    private Model model;
+    private File dir;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("genomic");
+        dir = Files.createTempDirectory("por-benchmark").toFile();
+        file = new File(dir, site + ".csv");
+        SyntheticExtracts extracts = new SyntheticExtracts(rows);
+        extracts.setReferrals(referrals);
+        extracts.setContacts(contacts);
+        if ("Stoke".equals(site)) {
+            extracts.writeStoke(file, rows);
+        } else {
+            extracts.writeNorfolk(file, rows);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public int process() throws Exception {
+        CountingItemWriter writer = new CountingItemWriter();
+        PorConverter converter = new PorConverter(writer, model);
+        converter.setFileThreads(fileThreads);
+        converter.setCurrentFile(file);
+        converter.process(null);
+        converter.close();
+        return writer.getCount();
+    }
+}
@@ -0,0 +1,141 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The methods cleaning the fields of the POR rows, each over a mix of the values found in the
+ * site files. The score is per value. cleanIdentifier and cleanDate run with the String methods
+ * of PorConverter before FieldCleaner too (baselineCleanIdentifier, baselineCleanDate), for
+ * their time and, with -prof gc, their allocation.
+ *
+ * @author
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PorFieldBenchmark
+{
+    private static final int VALUES = 8;
+
+    // stockport, worcester, waltham (patient, referral), camden, stoke
+    private final String[] identifiers = {"RT2550527", "1150471DA", "1022464RiO", "1022464MHRef1",
+        "3_155204910", "650000217082", "NULL", "RMY095954"};
+    private final String[] dates = {"03/11/15 11:24", "17/12/18", "NULL", "", "06/06/16 11:51", "2016-06-06",
+        "27/02/13", "10/02/11 00:00"};
+    // luton patients, norfolk localities
+    private final String[] sites = {"LT1234567", "TH7654321", "Suffolk", "NHS NORWICH CCG",
+        "NHS GREAT YARMOUTH AND WAVENEY CCG", "Norfolk", "Cambridgeshire", "Ipstones"};
+    private final String[][] ages = {{"", "", "4.2"}, {"", "", "12"}, {"", "", "13.75"}, {"", "", ""},
+        {"", "", "17"}, {"", "", "9.5"}, {"", "", "6"}, {"", "", "15.0"}};
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void cleanIdentifier(Blackhole bh) {
+        for (String s : identifiers) {
+            bh.consume(FieldCleaner.cleanIdentifier(s));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void cleanDate(Blackhole bh) {
+        for (String s : dates) {
+            bh.consume(FieldCleaner.cleanDate(s));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void baselineCleanIdentifier(Blackhole bh) {
+        for (String s : identifiers) {
+            bh.consume(oldCleanIdentifier(s));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void baselineCleanDate(Blackhole bh) {
+        for (String s : dates) {
+            bh.consume(oldCleanDate(s));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void getSite(Blackhole bh) {
+        for (String s : sites) {
+            bh.consume(PorConverter.getSite(s));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void roundAge(Blackhole bh) {
+        for (String[] line : ages) {
+            bh.consume(PorConverter.roundAge(line));
+        }
+    }
+
+    // PorConverter.cleanIdentifier before FieldCleaner
+    private static String oldCleanIdentifier(String identifier) {
+        if (identifier.contains("NULL")) {
+            return null;
+        }
+        if (identifier.startsWith("RT")) {
+            return identifier.replace("RT", "");
+        }
+        if (identifier.endsWith("DA")) {
+            return identifier.replace("DA", "");
+        }
+        if (identifier.endsWith("CA")) {
+            return identifier.replace("CA", "");
+        }
+        if (identifier.endsWith("GA")) {
+            return identifier.replace("GA", "");
+        }
+        if (identifier.endsWith("RiO")) {
+            return identifier.replace("RiO", "");
+        }
+        if (identifier.contains("MH")) {
+            return identifier.substring(0, identifier.indexOf('M'));
+        }
+        return identifier;
+    }
+
+    // PorConverter.cleanDate before FieldCleaner
+    private static String oldCleanDate(String s) {
+        if (s.contains(" ")) {
+            String[] tokens = s.split(" ");
+            return tokens[0];
+        }
+        if (s.contains("NULL")) {
+            return null;
+        }
+        return s;
+    }
+}
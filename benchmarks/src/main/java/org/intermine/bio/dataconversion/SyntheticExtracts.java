@@ -0,0 +1,1426 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes fake site files in the layouts read by the converters, for the benchmarks and to test
+ * the converters at 10 or 100 times the volume of the real extracts, which can't leave the
+ * sites. The same seed gives the same files, and each site its own files whatever the other
+ * sites written.
+ *
+ * The values follow the real ones: NHS ethnic categories in about the proportions of the
+ * children in England, a few teams per site with most contacts in the first ones, referrals
+ * over the 4 years of the study and contacts every few weeks after the assessment. The numbers
+ * of referrals of a patient and of contacts of a referral are skewed, most have a few, some many.
+ *
+ * Run main to write the files of the sites:
+ *   java -cp [benchmarks classpath] org.intermine.bio.dataconversion.SyntheticExtracts dir [scale [seed [site...]]]
+ *
+ * @author
+ */
+public class SyntheticExtracts
+{
+    /** the sites written by write(), by the tag of their file names */
+    public static final List<String> SITES = Arrays.asList("Waltham", "Worcester", "Portsmouth", "NeCor",
+            "Camden", "Stoke", "Bexley", "Norfolk", "Manchester", "Hertfordshire", "Bradford", "Lewisham", "Luton",
+            "Sunderland", "Warrington", "Stockport", "Southampton", "NHS");
+
+    // the rows of the main file of each site at scale 1, about the size of the extracts received
+    private static final Map<String, Integer> ROWS = new LinkedHashMap<>();
+    static {
+        ROWS.put("Waltham", 30000);       // contacts
+        ROWS.put("Worcester", 8000);      // referrals
+        ROWS.put("Portsmouth", 10000);    // referrals
+        ROWS.put("NeCor", 6000);          // referrals
+        ROWS.put("Camden", 5000);         // referrals
+        ROWS.put("Stoke", 10000);         // referrals
+        ROWS.put("Bexley", 4000);         // referrals
+        ROWS.put("Norfolk", 60000);       // contacts
+        ROWS.put("Manchester", 8000);     // referrals
+        ROWS.put("Hertfordshire", 12000); // referrals
+        ROWS.put("Bradford", 6000);       // referrals
+        ROWS.put("Lewisham", 5000);       // contacts
+        ROWS.put("Luton", 8000);          // contacts
+        ROWS.put("Sunderland", 4000);     // referrals
+        ROWS.put("Warrington", 5000);     // referrals
+        ROWS.put("Stockport", 6000);      // referrals
+        ROWS.put("Southampton", 6000);    // referrals
+        ROWS.put("NHS", 40000);           // rows of the three files
+    }
+
+    private static final LocalDate START = LocalDate.of(2015, 4, 1);   // the period of the study
+    private static final int DAYS = 4 * 365;
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("dd/MM/yy", Locale.ROOT);
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("dd/MM/yy HH:mm", Locale.ROOT);
+    private static final DateTimeFormatter LONG_DATE = DateTimeFormatter.ofPattern("dd/MM/yyyy", Locale.ROOT);
+
+    // NHS ethnic categories (see lookup_synonyms.properties), per 1000 children
+    private static final String[] ETHNICITY_CODES = {"A", "B", "C", "D", "E", "F", "G", "H", "J", "K", "L",
+        "M", "N", "P", "R", "S", "Z", "99"};
+    private static final String[] ETHNICITY_NAMES = {"White - British", "White - Irish",
+        "White - Any other White background", "Mixed - White and Black Caribbean",
+        "Mixed - White and Black African", "Mixed - White and Asian", "Mixed - Any other mixed background",
+        "Asian or Asian British - Indian", "Asian or Asian British - Pakistani",
+        "Asian or Asian British - Bangladeshi", "Asian or Asian British - Any other Asian background",
+        "Black or Black British - Caribbean", "Black or Black British - African",
+        "Black or Black British - Any other Black background", "Other Ethnic Groups - Chinese",
+        "Other Ethnic Groups - Any other ethnic group", "Not stated", "Not known"};
+    private static final Distribution ETHNICITY = new Distribution(indexes(ETHNICITY_CODES.length),
+            680, 5, 50, 15, 7, 12, 15, 25, 35, 15, 15, 10, 30, 6, 3, 17, 40, 20);
+
+    private static final Distribution URGENCY = new Distribution(new String[] {"Routine", "Urgent", "Emergency"},
+            80, 17, 3);
+    private static final Distribution SOURCE = new Distribution(new String[] {"General Medical Practitioner",
+        "Education Service", "Local Authority Social Services", "A&E Department", "Self", "Carer",
+        "Paediatrics", "Other clinical specialty"}, 45, 15, 10, 8, 6, 6, 5, 5);
+    private static final Distribution OUTCOME = new Distribution(new String[] {"Accepted", "Rejected",
+        "Signposted"}, 75, 15, 10);
+    private static final Distribution DISCHARGE_REASON = new Distribution(new String[] {"Treatment completed",
+        "Did not attend", "Moved out of area", "Transferred to adult services", "Patient request",
+        "Inappropriate Referral"}, 55, 15, 5, 8, 7, 10);
+    private static final Distribution ATTENDANCE = new Distribution(new String[] {"Attended", "DNA",
+        "Patient cancelled", "Service cancelled", "Carer Attended"}, 75, 10, 8, 4, 3);
+    private static final Distribution CONTACT_TYPE = new Distribution(new String[] {"F2F", "NonF2F",
+        "Telephone"}, 70, 10, 20);
+    private static final Distribution DIAGNOSIS = new Distribution(new String[] {"F32", "F41", "F93", "F90",
+        "F84", "F43", "F50", "F91", "F42", "F20"}, 20, 20, 12, 12, 10, 8, 6, 6, 4, 2);
+    private static final Map<String, String> DIAGNOSES = new LinkedHashMap<>();
+    static {
+        DIAGNOSES.put("F32", "Depressive episode");
+        DIAGNOSES.put("F41", "Other anxiety disorders");
+        DIAGNOSES.put("F93", "Emotional disorders with onset specific to childhood");
+        DIAGNOSES.put("F90", "Hyperkinetic disorders");
+        DIAGNOSES.put("F84", "Pervasive developmental disorders");
+        DIAGNOSES.put("F43", "Reaction to severe stress, and adjustment disorders");
+        DIAGNOSES.put("F50", "Eating disorders");
+        DIAGNOSES.put("F91", "Conduct disorders");
+        DIAGNOSES.put("F42", "Obsessive-compulsive disorder");
+        DIAGNOSES.put("F20", "Schizophrenia");
+    }
+    private static final String[] TEAMS = {"Tier 3 CAMHS", "Primary Mental Health", "Neurodevelopmental",
+        "Eating Disorders", "Crisis Team", "Looked After Children", "Learning Disability", "Early Help",
+        "Youth Offending", "Paediatric Liaison", "Adolescent Outreach", "Under 5s"};
+    private static final String[] NORFOLK_TEAMS = {"***Central, CAMHS", "***Northern, CAMHS",
+        "***Yarmouth & Waveney, CAMHS", "***Western, CAMHS", "Eating Disorders", "Crisis Resolution",
+        "Youth Team", "Tier 4 Outreach"};
+    private static final String[] CAMDEN_TEAMS = {"NORTH Service", "SOUTH Service", "Adolescent Service",
+        "Under 5s Service", "Schools Service", "Looked After Children", "Neurodevelopmental Service",
+        "Family Service"};
+
+    private static final int STOKE_CONTACTS = 50;
+    private static final int CAMDEN_CONTACTS = 615;
+    private static final int DIAGNOSTICS = 51;
+
+    private final long seed;
+    private final Random random;
+    private double scale = 1;
+    private double referrals = 1.4;
+    private double contacts = 6;
+
+    /**
+     * @param seed the seed of the random values
+     */
+    public SyntheticExtracts(long seed) {
+        this.seed = seed;
+        random = new Random(seed);
+    }
+
+    /**
+     * @param scale the rows of the files written by write(), as a multiple of the real extracts
+     */
+    public void setScale(double scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * @param referrals the mean number of referrals of a patient
+     */
+    public void setReferrals(double referrals) {
+        this.referrals = referrals;
+    }
+
+    /**
+     * @param contacts the mean number of contacts of an accepted referral
+     */
+    public void setContacts(double contacts) {
+        this.contacts = contacts;
+    }
+
+    /**
+     * Write the files of a site, with the scaled number of rows.
+     * @param site a site of SITES
+     * @param dir the directory to write the files to
+     * @throws IOException if a file can't be written
+     */
+    public void write(String site, File dir) throws IOException {
+        Integer rows = ROWS.get(site);
+        if (rows == null) {
+            throw new IllegalArgumentException("Unknown site " + site + ", expected one of " + SITES);
+        }
+        random.setSeed(seed + site.hashCode());
+        int scaled = (int) Math.max(1, Math.round(rows * scale));
+        switch (site) {
+            case "Waltham":
+                writeWaltham(dir, scaled);
+                break;
+            case "Worcester":
+                writeWorcester(dir, scaled);
+                break;
+            case "Portsmouth":
+                writePortsmouth(new File(dir, "Portsmouth_1_Patient.csv"), scaled);
+                break;
+            case "NeCor":
+                writeNeneCorby(dir, scaled);
+                break;
+            case "Camden":
+                writeCamden(new File(dir, "Camden.csv"), scaled);
+                break;
+            case "Stoke":
+                writeStoke(new File(dir, "Stoke.csv"), scaled);
+                break;
+            case "Bexley":
+                writeBexley(new File(dir, "Bexley.csv"), scaled);
+                break;
+            case "Norfolk":
+                writeNorfolk(new File(dir, "Norfolk.csv"), scaled);
+                break;
+            case "Manchester":
+                writeManchester(dir, scaled);
+                break;
+            case "Hertfordshire":
+                writeHerts(dir, scaled);
+                break;
+            case "Bradford":
+                writeBradford(dir, scaled);
+                break;
+            case "Lewisham":
+                writeLewisham(dir, scaled);
+                break;
+            case "Luton":
+                writeLuton(new File(dir, "Luton.csv"), scaled);
+                break;
+            case "Sunderland":
+                writeSunderland(dir, scaled);
+                break;
+            case "Warrington":
+                writeWarrington(dir, scaled);
+                break;
+            case "Stockport":
+                writeStockport(dir, scaled);
+                break;
+            case "Southampton":
+                writeSouthampton(dir, scaled);
+                break;
+            default:
+                writeNhs(dir, scaled);
+        }
+    }
+
+    /**
+     * Waltham Forest: Waltham_1_Patient.csv with a row per contact (the referral repeated on each)
+     * and Waltham_2_Outcome.csv with the scores of some of the referrals, where the identifiers
+     * have the RiO and MHRef suffixes.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the patient file
+     * @throws IOException if a file can't be written
+     */
+    public void writeWaltham(File dir, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 10);
+        try (Writer out = open(new File(dir, "Waltham_1_Patient.csv"));
+             Writer outcomes = open(new File(dir, "Waltham_2_Outcome.csv"))) {
+            write(out, "Patient ID", "Referral ID", "Age at referral", "Locality", "Ethnicity", "Gender",
+                    "Diagnosis", "Referral routine / urgent", "Referral source", "Referral accepted / rejected",
+                    "Referral date", "Triage date", "Assessment date", "Date of first treatment contact",
+                    "Discharge date", "Reason for discharge", "Lifetime referrals to CAMHS", "Date of contact",
+                    "Appointment routine / urgent", "Contact type", "Attendance", "Team", "Tier of team",
+                    "Contact number");
+            write(outcomes, "Financialyr", "LocalPatientID", "Age", "ReferralID", "RefTeamDescription", "Locality",
+                    "initial cgasScore", "last cgasScore", "initial honosca", "last honosca");
+            int row = 0;
+            long number = 1000000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String patientId = String.valueOf(patient.number);
+                String locality = pick("NHS WALTHAM FOREST CCG", "NHS WALTHAM FOREST CCG", "NHS REDBRIDGE CCG",
+                        "NHS NEWHAM CCG");
+                for (int r = 1; r <= patient.referrals && row < rows; r++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String referralId = String.valueOf(patient.number * 10 + r);
+                    for (int c = 0; c < Math.max(1, referral.contacts.length) && row < rows; c++, row++) {
+                        boolean contact = c < referral.contacts.length;
+                        write(out, patientId, referralId, referral.age(), locality, patient.ethnicityName(),
+                                patient.female ? "Female" : "Male", orNull(referral.diagnosis, "NULL"),
+                                referral.urgency, referral.source, referral.outcome, date(referral.date),
+                                dateTime(referral.triage, "NULL"), dateTime(referral.assessment, "NULL"),
+                                dateTime(referral.treatment, "NULL"), dateTime(referral.discharge, "NULL"),
+                                orNull(referral.dischargeReason, "NULL"), String.valueOf(r),
+                                contact ? date(referral.contacts[c]) : "NULL",
+                                contact ? URGENCY.pick(random) : "NULL", contact ? CONTACT_TYPE.pick(random) : "NULL",
+                                contact ? ATTENDANCE.pick(random) : "NULL", referral.team, "Tier 3",
+                                String.valueOf(c + 1));
+                    }
+                    if (referral.assessment != null && random.nextInt(10) < 6) {
+                        int cgas = 30 + random.nextInt(40);
+                        int honosca = 5 + random.nextInt(25);
+                        write(outcomes, fiscalYear(referral.date), patientId + "RiO", referral.age(),
+                                referralId + "MHRef" + r, referral.team, locality, String.valueOf(cgas),
+                                String.valueOf(Math.min(100, cgas + random.nextInt(20))), String.valueOf(honosca),
+                                String.valueOf(Math.max(0, honosca - random.nextInt(10))));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Worcester: Worcester_1_Referral.csv with a row per referral and Worcester_2_Contact.csv with a
+     * row per contact, without the patient.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the referral file
+     * @throws IOException if a file can't be written
+     */
+    public void writeWorcester(File dir, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 8);
+        try (Writer out = open(new File(dir, "Worcester_1_Referral.csv"));
+             Writer contactsOut = open(new File(dir, "Worcester_2_Contact.csv"))) {
+            write(out, "ReferralID", "PatientID", "Gender", "Ethnicity", "AgeAtReferral", "ReferralDate",
+                    "ReferralSource", "ReferralPriority", "FirstTreatmentDate", "Team", "Tier", "TriageDate",
+                    "AssessmentDate", "ReferralOutcome", "Diagnosis", "DischargeDate", "LifetimeReferrals",
+                    "Locality", "DischargeReason");
+            write(contactsOut, "ReferralID", "Service", "ContactID", "ContactDate", "ContactNumber", "ContactType",
+                    "Attendance", "Team");
+            int row = 0;
+            long number = 300000;
+            long contactId = 5000000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String locality = pick("Worcester", "Wyre Forest", "Malvern Hills", "Bromsgrove", "Redditch",
+                        "Wychavon");
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String referralId = String.valueOf(patient.number * 10 + r);
+                    write(out, referralId, String.valueOf(patient.number), patient.female ? "F" : "M",
+                            patient.ethnicityName(), String.valueOf(referral.age), date(referral.date),
+                            referral.source, referral.urgency, date(referral.treatment, ""), referral.team, "3",
+                            date(referral.triage, ""), date(referral.assessment, ""), referral.outcome,
+                            orNull(referral.diagnosis, ""), date(referral.discharge, ""), String.valueOf(r),
+                            locality, orNull(referral.dischargeReason, ""));
+                    for (int c = 0; c < referral.contacts.length; c++) {
+                        write(contactsOut, referralId, "CAMHS", (contactId += 1 + random.nextInt(5)) + "DA",
+                                date(referral.contacts[c]), String.valueOf(c + 1), pick("f2f", "nF2f", "f2f"),
+                                ATTENDANCE.pick(random), referral.team);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Portsmouth: one row per referral, the dates with a time.
+     * @param file the file to write
+     * @param rows the number of rows
+     * @throws IOException if the file can't be written
+     */
+    public void writePortsmouth(File file, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 6);
+        try (Writer out = open(file)) {
+            write(out, "Patient ID", "Referral ID", "Age at referral", "Locality", "Ethnicity", "Gender",
+                    "Diagnosis", "Referral routine / urgent", "Referral source", "Referral accepted / rejected",
+                    "Referral date", "Triage date", "Assessment date", "Date of first treatment contact",
+                    "Discharge date", "Reason for discharge", "Lifetime referrals to CAMHS");
+            int row = 0;
+            long number = 100000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String locality = pick("Portsmouth North", "Portsmouth Central", "Portsmouth South");
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    write(out, String.valueOf(patient.number), String.valueOf(patient.number * 100 + r),
+                            referral.age(), locality, patient.ethnicityCode(), patient.female ? "F" : "M",
+                            orNull(referral.diagnosis, "NULL"), referral.urgency, referral.source,
+                            referral.outcome, dateTime(referral.date, "NULL"), dateTime(referral.triage, "NULL"),
+                            dateTime(referral.assessment, "NULL"), dateTime(referral.treatment, "NULL"),
+                            dateTime(referral.discharge, "NULL"), orNull(referral.dischargeReason, "NULL"),
+                            String.valueOf(r));
+                }
+            }
+        }
+    }
+
+    /**
+     * Nene and Corby: NeCor_1_Patient.csv with a row per referral and NeCor_2_Contact.csv with a
+     * row per contact.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the patient file
+     * @throws IOException if a file can't be written
+     */
+    public void writeNeneCorby(File dir, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 7);
+        try (Writer out = open(new File(dir, "NeCor_1_Patient.csv"));
+             Writer contactsOut = open(new File(dir, "NeCor_2_Contact.csv"))) {
+            write(out, "Patient ID", "Referral ID", "Age at referral", "Locality", "Ethnicity", "Gender",
+                    "Diagnosis", "Referral routine / urgent", "Referral source", "Referral accepted / rejected",
+                    "Referral received", "Referral date", "Triage date", "Date of first treatment contact",
+                    "Weeks to treatment", "Discharge date");
+            write(contactsOut, "Patient ID", "Referral ID", "Contact ID", "Date of contact", "Contact type", "Team");
+            int row = 0;
+            long number = 700000;
+            long contactId = 90000000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String locality = pick("Nene", "Nene", "Nene", "Corby");
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String patientId = String.valueOf(patient.number);
+                    String referralId = String.valueOf(patient.number * 10 + r);
+                    String weeks = (referral.treatment == null) ? ""
+                            : String.valueOf((referral.treatment.toEpochDay() - referral.date.toEpochDay()) / 7);
+                    write(out, patientId, referralId, referral.age(), locality, patient.ethnicityCode(),
+                            patient.female ? "Female" : "Male", orNull(referral.diagnosis, ""), referral.urgency,
+                            referral.source, referral.outcome, date(referral.date), dateTime(referral.date, ""),
+                            dateTime(referral.triage, ""), dateTime(referral.treatment, ""), weeks,
+                            dateTime(referral.discharge, ""));
+                    for (LocalDate contact : referral.contacts) {
+                        write(contactsOut, patientId, referralId, String.valueOf(contactId += 1 + random.nextInt(5)),
+                                dateTime(contact, ""), pick("f2f", "F2F", "nF2f"), referral.team);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Camden: one row per referral, with up to 615 appointments (4 columns each), empty after the
+     * last.
+     * @param file the file to write
+     * @param rows the number of rows
+     * @throws IOException if the file can't be written
+     */
+    public void writeCamden(File file, int rows) throws IOException {
+        Distribution teams = teams(CAMDEN_TEAMS, CAMDEN_TEAMS.length);
+        try (Writer out = open(file)) {
+            List<String> header = new ArrayList<>(Arrays.asList("ReferralActivityID", "PatientID",
+                    "AgeAtReferral", "Ethnicity", "Gender", "PrimaryDiagnosisList", "ReferralPriority",
+                    "ReferralSource", "AcceptedOrRejected", "ReferralDate", "ReferralReceivedDate", "TriageDate",
+                    "SecondAttendedAppointment", "AssessmentStart", "AssessmentEnd",
+                    "FirstAttendedAssessmentAppointment", "ThirdAttendedAppointment", "TreatmentStart",
+                    "TreatmentEnd", "FirstAttendedTreatmentAppointment", "DischargeDate", "DischargeReason",
+                    "ReferralActivityByPatient", "LifetimeReferralsToCAMHS"));
+            for (int i = 1; i <= CAMDEN_CONTACTS; i++) {
+                header.add("Appointment" + i + "Date");
+                header.add("Appointment" + i + "Team");
+                header.add("Appointment" + i + "ContactType");
+                header.add("Appointment" + i + "Attendance");
+            }
+            write(out, header.toArray(new String[header.size()]));
+            int row = 0;
+            long number = 6000;
+            long referralId = 60;
+            String[] line = new String[24 + 4 * CAMDEN_CONTACTS];
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, CAMDEN_CONTACTS, teams);
+                    LocalDate[] contacts = referral.contacts;
+                    Arrays.fill(line, "");
+                    line[0] = String.valueOf(referralId += 1 + random.nextInt(10));
+                    line[1] = String.valueOf(patient.number);
+                    line[2] = String.format(Locale.ROOT, "%.1f", referral.exactAge);
+                    line[3] = patient.ethnicityName();
+                    line[4] = patient.female ? "Female" : "Male";
+                    line[5] = orNull(referral.diagnosis, "");
+                    line[6] = referral.urgency.equals("Routine") ? "Non Urgent" : "Urgent";
+                    line[7] = referral.source;
+                    line[8] = referral.outcome.equals("Rejected") ? "Rejected" : "Accepted";
+                    line[9] = date(referral.date);
+                    line[10] = date(referral.date);
+                    line[11] = date(referral.triage, "NA");
+                    line[12] = (contacts.length > 1) ? date(contacts[1]) : "";
+                    line[13] = date(referral.assessment, "");
+                    line[14] = date(referral.assessment, "");
+                    line[15] = (contacts.length > 0) ? date(contacts[0]) : "";
+                    line[16] = (contacts.length > 2) ? date(contacts[2]) : "";
+                    line[17] = date(referral.treatment, "");
+                    line[18] = date(referral.discharge, "");
+                    line[19] = date(referral.treatment, "");
+                    line[20] = date(referral.discharge, "");
+                    line[21] = orNull(referral.dischargeReason, "");
+                    line[22] = String.valueOf(contacts.length);
+                    line[23] = String.valueOf(r);
+                    for (int c = 0; c < contacts.length; c++) {
+                        int at = 24 + 4 * c;
+                        line[at] = date(contacts[c]);
+                        line[at + 1] = referral.team;
+                        line[at + 2] = CONTACT_TYPE.pick(random);
+                        line[at + 3] = ATTENDANCE.pick(random);
+                    }
+                    write(out, line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stoke: one row per referral, with up to 50 contacts (6 columns each), NULL after the last.
+     * @param file the file to write
+     * @param rows the number of rows
+     * @throws IOException if the file can't be written
+     */
+    public void writeStoke(File file, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 6);
+        try (Writer out = open(file)) {
+            StringBuilder header = new StringBuilder("PatientID,ReferralID,AgeAtReferral,Locality,Ethnicity,"
+                    + "Gender,Diagnosis,PriorityType,SourceOfReferral,ReferralAccepted/Rejected,ReferralDate,"
+                    + "TriageDate,AssessmentDate,FirstTreatmentContact,DischargeDate,ReasonForDischarge,"
+                    + "LifetimeReferrals");
+            for (int i = 1; i <= STOKE_CONTACTS; i++) {
+                header.append(",DateOfContact").append(i).append(",AppointmentRoutineUrgent").append(i)
+                        .append(",ContactType").append(i).append(",Attendance").append(i)
+                        .append(",TeamAtAppointment").append(i).append(",TierOfTeam").append(i);
+            }
+            out.write(header.append('\n').toString());
+            long number = 650000200000L;
+            int row = 0;
+            String[] line = new String[17 + 6 * STOKE_CONTACTS];
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String locality = pick("Hanley", "Longton", "Burslem", "Tunstall", "Stoke", "Fenton", "Ipstones");
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, STOKE_CONTACTS, teams);
+                    Arrays.fill(line, "NULL");
+                    line[0] = String.valueOf(patient.number);
+                    line[1] = String.valueOf(patient.number + 1000000 + r);
+                    line[2] = referral.age();
+                    line[3] = locality;
+                    line[4] = patient.ethnicityCode();
+                    line[5] = patient.female ? "F" : "M";
+                    line[6] = orNull(referral.diagnosis, "NotAvailable");
+                    line[7] = referral.urgency;
+                    line[8] = referral.source;
+                    line[9] = referral.outcome;
+                    line[10] = date(referral.date);
+                    line[11] = date(referral.triage, "NotAvailable");
+                    line[12] = date(referral.assessment, "");
+                    line[13] = date(referral.treatment, "");
+                    line[14] = date(referral.discharge, "");
+                    line[15] = orNull(referral.dischargeReason, "");
+                    line[16] = String.valueOf(r);
+                    for (int c = 0; c < referral.contacts.length; c++) {
+                        int at = 17 + 6 * c;
+                        line[at] = date(referral.contacts[c]);
+                        line[at + 1] = URGENCY.pick(random);
+                        line[at + 2] = CONTACT_TYPE.pick(random);
+                        line[at + 3] = ATTENDANCE.pick(random);
+                        line[at + 4] = referral.team;
+                        line[at + 5] = "3";
+                    }
+                    write(out, line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bexley: one row per referral, with the counts of its contacts and its diagnoses.
+     * @param file the file to write
+     * @param rows the number of rows
+     * @throws IOException if the file can't be written
+     */
+    public void writeBexley(File file, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 8);
+        try (Writer out = open(file)) {
+            write(out, "PASID", "ReferralNumber", "Ethnicity", "Gender", "ReferralUrgencyCode",
+                    "ReferralUrgencyDescription", "ReferralID", "TeamReferredTo", "TeamReferredToDescription",
+                    "DaysReferralToDischarge", "ReferralReceivedDate", "ReferralDischargedDate", "FirstApptToRef",
+                    "RefToFirstApptWeeks", "Borough", "face2faceappt", "Nonface2faceappt", "DNA",
+                    "ProviderCancellations", "ICD10CodingScheme", "ICD10DiagnosisCode", "ICD10DiagnosisDescription",
+                    "ICD10DiagnosisStartDate", "ICD10DiagnosisEndDate", "NCDSCodingScheme", "NCDSDiagnosisCode",
+                    "NCDSDiagnosisDescription", "NCDSDiagnosisStartDate", "NCDSDiagnosisEndDate",
+                    "PreviousReferralNumber", "PreviousTeamReferredTo", "PreviousTeamReferredToDescription",
+                    "PreviousReferralReceivedDate", "PreviousReferralDischargedDate");
+            int row = 0;
+            long number = 1020000;
+            long referralId = 450000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                Referral previous = null;
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String urgency = referral.urgency.equals("Routine") ? "NU" : "U";
+                    String team = referral.team;
+                    String teamCode = "BE" + team.replaceAll("[^A-Z]", "");
+                    LocalDate first = (referral.contacts.length > 0) ? referral.contacts[0] : null;
+                    int dna = 0;
+                    int f2f = 0;
+                    for (int c = 0; c < referral.contacts.length; c++) {
+                        if (random.nextInt(10) == 0) {
+                            dna++;
+                        } else {
+                            f2f++;
+                        }
+                    }
+                    String diagnosis = referral.diagnosis;
+                    write(out, String.valueOf(patient.number), String.valueOf(r), patient.ethnicityName(),
+                            patient.female ? "Female" : "Male", urgency, urgency.equals("NU") ? "Non Urgent" : "Urgent",
+                            String.valueOf(referralId += 1 + random.nextInt(10)), teamCode, "Bexley " + team,
+                            days(referral.date, referral.discharge), date(referral.date), date(referral.discharge, "NULL"),
+                            date(first, "NULL"), (first == null) ? "NULL" : String.valueOf(days(referral.date, first, 0) / 7),
+                            "Bexley", String.valueOf(f2f), String.valueOf(random.nextInt(3)), String.valueOf(dna),
+                            String.valueOf(random.nextInt(2)), "ICD10", orNull(diagnosis, "NULL"),
+                            (diagnosis == null) ? "NULL" : DIAGNOSES.get(diagnosis), date(referral.assessment, "NULL"),
+                            "NULL", "NCDS", String.valueOf(1 + random.nextInt(9)),
+                            pick("Emotional Disorders, includes OCD, PTSD", "Neurodevelopmental Disorders",
+                                    "Conduct Disorders", "Eating Disorders"), date(referral.assessment, "NULL"), "NULL",
+                            (previous == null) ? "NULL" : String.valueOf(r - 1),
+                            (previous == null) ? "NULL" : "BE" + previous.team.replaceAll("[^A-Z]", ""),
+                            (previous == null) ? "NULL" : "Bexley " + previous.team,
+                            (previous == null) ? "NULL" : date(previous.date),
+                            (previous == null) ? "NULL" : date(previous.discharge, "NULL"));
+                    previous = referral;
+                }
+            }
+        }
+    }
+
+    /**
+     * Norfolk: one row per contact, the patient and referral repeated on each.
+     * @param file the file to write
+     * @param rows the number of rows
+     * @throws IOException if the file can't be written
+     */
+    public void writeNorfolk(File file, int rows) throws IOException {
+        Distribution teams = teams(NORFOLK_TEAMS, NORFOLK_TEAMS.length);
+        Distribution localities = new Distribution(new String[] {"Norfolk", "Suffolk", "NHS NORWICH CCG",
+            "NHS GREAT YARMOUTH AND WAVENEY CCG", "NHS NORTH NORFOLK CCG", "Cambridgeshire", "Lincolnshire"},
+                30, 25, 20, 10, 10, 3, 2);
+        try (Writer out = open(file)) {
+            write(out, "PatientID", "ReferralID", "Ethnicity", "Gender", "Diagnosis", "ClinicalOutcomeMeasure",
+                    "AgeAtReferral", "Locality", "ReferralDate", "TriageDate", "AssessmentDate", "DateOfFirstTreatment",
+                    "DischargeDate", "ReferralSource", "ReferralUrgent/Routine", "TeamAtContact", "Tier",
+                    "ReasonForDischarge", "CAMHSReferralOutcome", "LifetimeReferralsToCAMHS", "DateOfEachAppointment",
+                    "AttendanceAtEachAppointment", "ContactTypeForEachAppointment", "Urgent/routineForEachAppointment");
+            long number = 90000;
+            int row = 0;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String locality = localities.pick(random);
+                for (int r = 1; r <= patient.referrals && row < rows; r++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String referralId = String.valueOf(patient.number * 10 + r);
+                    for (int c = 0; c < Math.max(1, referral.contacts.length) && row < rows; c++, row++) {
+                        boolean contact = c < referral.contacts.length;
+                        write(out, "RMY" + patient.number, referralId, patient.ethnicityName(),
+                                patient.female ? "Female" : "Male", orNull(referral.diagnosis, ""), "",
+                                referral.age(), locality, date(referral.date), date(referral.triage, ""),
+                                date(referral.assessment, ""), date(referral.treatment, ""),
+                                date(referral.discharge, ""), referral.source, referral.urgency, referral.team,
+                                "3", orNull(referral.dischargeReason, ""), referral.outcome, String.valueOf(r),
+                                contact ? date(referral.contacts[c]) : "", contact ? ATTENDANCE.pick(random) : "",
+                                contact ? CONTACT_TYPE.pick(random) : "", contact ? URGENCY.pick(random) : "");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Manchester and Salford: Manchester_1_Patient.csv with a row per patient,
+     * Manchester_2_Referral.csv with a row per referral (episode) and Manchester_3_Contact.csv with
+     * a row per contact.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the referral file
+     * @throws IOException if a file can't be written
+     */
+    public void writeManchester(File dir, int rows) throws IOException {
+        Distribution services = teams(new String[] {"Central", "North", "South", "Salford"}, 4);
+        try (Writer patients = open(new File(dir, "Manchester_1_Patient.csv"));
+             Writer out = open(new File(dir, "Manchester_2_Referral.csv"));
+             Writer contactsOut = open(new File(dir, "Manchester_3_Contact.csv"))) {
+            write(patients, "Location", "PatientId", "Age", "Gender", "Ethnicity");
+            write(out, "Service", "PatientId", "Location", "EpisodeID", "Date Referral Open",
+                    "First Attended Diary Date", "Second Attended Contact Date", "ReasonForDischarge",
+                    "Date Of Discharge", "ClinicalPriority", "Outcome", "ReferringProfessional",
+                    "Difficulties / Diagnosis", "", "");
+            write(contactsOut, "Service", "Diary Date", "Attendance", "ContactMedium", "Urgent / routine for each appt",
+                    "PatientId", "EpisodeID");
+            int row = 0;
+            long number = 0;
+            long episode = 40000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(5));
+                String location = pick("Manchester", "Manchester", "Salford");
+                write(patients, location, String.valueOf(patient.number),
+                        String.format(Locale.ROOT, "%.1f", Math.floor(patient.age)), patient.female ? "Female" : "Male",
+                        patient.ethnicityName());
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, services);
+                    String episodeId = String.valueOf(episode += 1 + random.nextInt(10));
+                    LocalDate[] contacts = referral.contacts;
+                    write(out, referral.team, String.valueOf(patient.number), location, episodeId,
+                            date(referral.date), (contacts.length > 0) ? date(contacts[0]) : "",
+                            (contacts.length > 1) ? date(contacts[1]) : "", orNull(referral.dischargeReason, "Not known"),
+                            date(referral.discharge, ""), referral.urgency.equals("Routine") ? "Routine (4 - 12 weeks)"
+                                    : "Urgent (within 1 week)", referral.outcome,
+                            referral.source.equals("General Medical Practitioner") ? "GP" : referral.source,
+                            orNull(referral.diagnosis, ""), "", "");
+                    for (LocalDate contact : contacts) {
+                        write(contactsOut, referral.team, date(contact), ATTENDANCE.pick(random),
+                                pick("Face-to-face", "Face-to-face", "Telephone", "Video"),
+                                URGENCY.pick(random), String.valueOf(patient.number), episodeId);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Hertfordshire: Hertfordshire_1_Referral.csv with a row per referral,
+     * Hertfordshire_2_Contact.csv with a row per contact, Hertfordshire_3_Diagnosis.csv and
+     * Hertfordshire_4_Outcome.csv with the diagnoses and scores of some of the referrals.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the referral file
+     * @throws IOException if a file can't be written
+     */
+    public void writeHerts(File dir, int rows) throws IOException {
+        String[] names = new String[TEAMS.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "CAMHS " + TEAMS[i].toUpperCase(Locale.ROOT);
+        }
+        Distribution teams = teams(names, 10);
+        try (Writer out = open(new File(dir, "Hertfordshire_1_Referral.csv"));
+             Writer contactsOut = open(new File(dir, "Hertfordshire_2_Contact.csv"));
+             Writer diagnoses = open(new File(dir, "Hertfordshire_3_Diagnosis.csv"));
+             Writer outcomes = open(new File(dir, "Hertfordshire_4_Outcome.csv"))) {
+            write(out, "PatientID", "ReferralID", "AgeAtReferral", "Locality", "Ethnicity", "Gender",
+                    "ReferralPriority", "ReferralSource", "ReferralStatus", "ReferralDate", "TriageDate",
+                    "AssessmentDate", "TreatmentStartDate", "DischargeDate", "ReasonForDischarge",
+                    "LifeTimeCAMHSReferrals");
+            write(contactsOut, "ReferralID", "DateOfContact", "RoutineUrgentAppointment", "ContactType",
+                    "AttendanceType", "TeamName", "TierOfAppointmentTeam");
+            write(diagnoses, "ClientId", "ReferralId", "DateOfDiagnosis", "Diagnosis", "DiagnosisDescription",
+                    "CodingSignificance");
+            write(outcomes, "PatientID", "ReferralID", "ActualDate", "RAWScore", "AssName", "SNOMED", "Scale",
+                    "AgeAtAssessment", "Grade", "Gender", "Score", "Notes", "FiscalYear", "FirstOrLastAssInPeriod");
+            int row = 0;
+            long number = 0;
+            long referralId = 130000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(5));
+                String locality = pick("East & South East", "North", "West", "Central", "South West");
+                String gender = patient.female ? "2" : "1";
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String patientId = String.valueOf(patient.number);
+                    String id = String.valueOf(referralId += 1 + random.nextInt(100));
+                    write(out, patientId, id, referral.age(), locality, patient.ethnicityCode(), gender,
+                            referral.urgency, pick("TEAM", "GP", "SCHOOL", "SOCIAL CARE"), referral.outcome,
+                            date(referral.date), date(referral.triage, "NULL"), date(referral.assessment, "NULL"),
+                            date(referral.treatment, "NULL"), date(referral.discharge, "NULL"),
+                            orNull(referral.dischargeReason, ""), String.valueOf(r));
+                    if (referral.contacts.length == 0) {
+                        write(contactsOut, id, "NULL", "NULL", "NULL", "NULL", "NULL", "NULL");
+                    }
+                    for (LocalDate contact : referral.contacts) {
+                        write(contactsOut, id, date(contact), random.nextInt(10) == 0 ? "URGENT" : "",
+                                pick("FACE TO FACE", "FACE TO FACE", "TELEPHONE"),
+                                ATTENDANCE.pick(random).toUpperCase(Locale.ROOT), referral.team, "Tier3");
+                    }
+                    if (referral.diagnosis != null) {
+                        write(diagnoses, patientId, id, date(referral.assessment, date(referral.date)),
+                                referral.diagnosis, referral.diagnosis + " - "
+                                        + DIAGNOSES.get(referral.diagnosis).toUpperCase(Locale.ROOT), "");
+                    }
+                    int scores = (referral.assessment == null) ? 0 : random.nextInt(3);
+                    for (int i = 0; i < scores; i++) {
+                        int score = random.nextInt(10);
+                        LocalDate rated = referral.assessment.plusDays(90L * i);
+                        write(outcomes, patientId, id, date(rated), String.valueOf(score), "SDQ-S11-17",
+                                "718477007", "11-17yrs Self Rated Impact", referral.age(), "N/A", gender,
+                                String.valueOf(score), "", fiscalYear(rated).substring(5),
+                                (i == 0) ? "FirstAssessmentinFY" : "LastAssessmentinFY");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bradford: Bradford_1_Patient.csv with a row per referral, and the contacts in
+     * Bradford_2_Contact.csv (up to the 2016/17 financial year) and Bradford_3_Contact.csv (after),
+     * each row with the referral again: both contact files update the referrals of the patient file.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the patient file
+     * @throws IOException if a file can't be written
+     */
+    public void writeBradford(File dir, int rows) throws IOException {
+        Distribution teams = teams(new String[] {"CA (Core) West", "CA (Core) East", "CA Eating Disorders",
+            "CA Learning Disability", "CA Crisis"}, 5);
+        LocalDate split = LocalDate.of(2017, 4, 1);
+        try (Writer out = open(new File(dir, "Bradford_1_Patient.csv"));
+             Writer early = open(new File(dir, "Bradford_2_Contact.csv"));
+             Writer late = open(new File(dir, "Bradford_3_Contact.csv"))) {
+            write(out, "Anon PT ID", "REF ID", "Gender Code", "Age at referral", "Ethnicity", "CCG");
+            for (Writer contactsOut : new Writer[] {early, late}) {
+                write(contactsOut, "Anon PT ID", "REF ID", "Referal Date", "Assessment Date (1st Successful Appointment)",
+                        "Date of first treatment (2nd Successful Appointment)", "Discharge Date", "Referral Source",
+                        "Referral urgent / routine", "Team at each contact and tier of team", "Reason for discharge",
+                        "Referral In Outcome", "Lifetime referrals to CAMHS", "Appointment Start Date",
+                        "Appointment Status Group", "Appointment Contact Method");
+            }
+            int row = 0;
+            long number = 10000;
+            long referralId = 208000000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String ccg = pick("NHS Bradford City CCG", "NHS Bradford Districts CCG",
+                        "NHS Airedale, Wharfedale and Craven CCG");
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String patientId = String.valueOf(patient.number);
+                    String id = String.valueOf(referralId += 1 + random.nextInt(1000));
+                    write(out, patientId, id, patient.female ? "2" : "1", referral.age(), patient.ethnicityName(), ccg);
+                    for (LocalDate contact : referral.contacts) {
+                        write(contact.isBefore(split) ? early : late, patientId, id, longDate(referral.date, ""),
+                                longDate(referral.assessment, ""), longDate(referral.treatment, ""),
+                                longDate(referral.discharge, ""), referral.source,
+                                referral.urgency.equals("Routine") ? "Non Urgent" : "Urgent", referral.team,
+                                orNull(referral.dischargeReason, ""), referral.outcome, String.valueOf(r),
+                                longDate(contact, ""), pick("Successful Contact", "Successful Contact", "DNA",
+                                        "Cancelled"), pick("Face to Face", "Face to Face", "Telephone"));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lewisham: Lewisham_1_Patient.csv with a row per contact (the referral repeated on each, one row
+     * for a referral without contacts, a few rows cut short) and Lewisham_2_Outcome.csv with the
+     * CGAS scores of some of the referrals.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the patient file
+     * @throws IOException if a file can't be written
+     */
+    public void writeLewisham(File dir, int rows) throws IOException {
+        Distribution teams = teams(new String[] {"Lewisham CAMHS Generic Team (Horizon)", "Lewisham CAMHS Neurodevelopmental",
+            "Lewisham CAMHS Adolescent", "Lewisham CAMHS Early Years"}, 4);
+        try (Writer out = open(new File(dir, "Lewisham_1_Patient.csv"));
+             Writer outcomes = open(new File(dir, "Lewisham_2_Outcome.csv"))) {
+            write(out, "PatientID", "referralid", "EthnicityExternalCode", "GenderExternalCode",
+                    "LatestPrimaryDiagnosis", "AgeAtEpisodeReferral", "REFRECDATE", "EpisodeAcceptedDate",
+                    "EpisodeFirstF2FDate", "EpisodeSecondF2FDate", "dischargedate", "ReferralsourceDesc",
+                    "ReferralPriorityDesc", "LocationName", "DischargeMethodSpellDesc", "ReferralStatusDesc",
+                    "ReferralRejectionReasonDesc", "Spell_Number", "Count of contacts", "EventDate",
+                    "AttendenceType (groups)", "EventContactType", "MovementTypeDesc");
+            write(outcomes, "PatientID", "referralid", "EpisodeId", "ratingdate", "cgasscore", "RatingPeriodCovered");
+            int row = 0;
+            long number = 140000;
+            long referralId = 630000;
+            long episode = 1100000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String patientId = String.valueOf(patient.number);
+                for (int r = 1; r <= patient.referrals && row < rows; r++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String id = String.valueOf(referralId += 1 + random.nextInt(100));
+                    LocalDate[] contacts = referral.contacts;
+                    String[] line = {patientId, id, patient.ethnicityCode(), patient.female ? "2" : "1",
+                        orNull(referral.diagnosis, ""), referral.age(), dateTime(referral.date, ""),
+                        dateTime(referral.assessment, ""), (contacts.length > 0) ? dateTime(contacts[0], "") : "",
+                        (contacts.length > 1) ? dateTime(contacts[1], "") : "", dateTime(referral.discharge, ""),
+                        referral.source, referral.urgency.equals("Routine") ? "Normal" : referral.urgency,
+                        referral.team, orNull(referral.dischargeReason, ""), referral.outcome,
+                        referral.outcome.equals("Rejected") ? "Patient Rejected" : "", String.valueOf(r),
+                        String.valueOf(contacts.length), "", "", "", ""};
+                    for (int c = 0; c < Math.max(1, contacts.length) && row < rows; c++, row++) {
+                        boolean contact = c < contacts.length;
+                        line[19] = contact ? dateTime(contacts[c], "") : "";
+                        line[20] = contact ? pick("Attended", "Attended", "DNA by Patient", "Cancelled by Patient") : "";
+                        line[21] = contact ? pick("Face to Face", "Face to Face", "Phone") : "";
+                        line[22] = (c == 0) ? "Initial Referral" : "Follow Up";
+                        // the extract cut some rows after the referral
+                        write(out, (random.nextInt(40) == 0) ? Arrays.copyOf(line, 12) : line);
+                    }
+                    if (referral.assessment != null && random.nextInt(10) < 5) {
+                        write(outcomes, patientId, id, String.valueOf(episode += 1 + random.nextInt(10)),
+                                dateTime(referral.assessment, ""), String.valueOf(30 + random.nextInt(50)),
+                                "Initial Assessment");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Luton and Tower Hamlets: one row per contact (one for a referral without contacts), the
+     * patient identifiers prefixed by LT or TH for the two sites.
+     * @param file the file to write
+     * @param rows the number of rows
+     * @throws IOException if the file can't be written
+     */
+    public void writeLuton(File file, int rows) throws IOException {
+        Distribution teams = teams(new String[] {"TH CAMHS LBTH", "LT CAMHS Luton", "TH CAMHS Crisis",
+            "LT CAMHS Eating Disorders"}, 4);
+        try (Writer out = open(file)) {
+            write(out, "ID", "Referral_id", "Ethnicity", "Gender", "Diagnosis", "ReferralUrgency", "Referral Source",
+                    "Referral accepted/rejected", "Referral Date", "Assessment Date", "Date of first treatment contact",
+                    "Discharge Date", "DischargeReason", "Lifetime referrals to CAMHS", "Date of contact/appointment",
+                    "contact type", "Attendance", "Team at appointment", "Service");
+            int row = 0;
+            long number = 1000000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String service = pick("LT", "TH");
+                String patientId = service + patient.number;
+                for (int r = 1; r <= patient.referrals && row < rows; r++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    LocalDate[] contacts = referral.contacts;
+                    for (int c = 0; c < Math.max(1, contacts.length) && row < rows; c++, row++) {
+                        boolean contact = c < contacts.length;
+                        write(out, patientId, String.valueOf(r), patient.ethnicityName(),
+                                patient.female ? "f" : "m", orNull(referral.diagnosis, ""), referral.urgency,
+                                referral.source, referral.outcome, date(referral.date),
+                                dateTime(referral.assessment, "NULL"), dateTime(referral.treatment, "NULL"),
+                                date(referral.discharge, "NULL"), orNull(referral.dischargeReason, "NULL"),
+                                String.valueOf(r), contact ? dateTime(contacts[c], "NULL") : "NULL",
+                                contact ? pick("f2f", "f2f", "Telephone") : "NULL",
+                                contact ? ATTENDANCE.pick(random) : "NULL", referral.team, service);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sunderland: Sunderland_1_Data.csv with a row per referral and Sunderland_2_Outcome.csv with up
+     * to five dated scores of a measure per row, empty after the last.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the data file
+     * @throws IOException if a file can't be written
+     */
+    public void writeSunderland(File dir, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 5);
+        try (Writer out = open(new File(dir, "Sunderland_1_Data.csv"));
+             Writer outcomes = open(new File(dir, "Sunderland_2_Outcome.csv"))) {
+            write(out, "PatientID", "ReferralID", "AgeAtReferral", "Locality", "Ethnicity", "Gender", "Diagnosis",
+                    "Urgency", "ReferralSource", "ReferralOutcome", "ReferralDate", "TriageDate", "AssessmentDate",
+                    "DischargeDate", "DischargeReason", "LifetimeReferrals");
+            write(outcomes, "PatientID", "ReferralID", "EpisodeID", "Team", "Measure", "MeasureType",
+                    "Score1Date", "Score1", "Score2Date", "Score2", "Score3Date", "Score3", "Score4Date", "Score4",
+                    "Score5Date", "Score5");
+            int row = 0;
+            long number = 500000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String locality = pick("Sunderland North", "Sunderland East", "Sunderland West", "Washington",
+                        "Coalfields");
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String patientId = String.valueOf(patient.number);
+                    String referralId = String.valueOf(patient.number * 10 + r);
+                    write(out, patientId, referralId, referral.age(), locality, patient.ethnicityName(),
+                            patient.female ? "Female" : "Male", orNull(referral.diagnosis, ""), referral.urgency,
+                            referral.source, referral.outcome, date(referral.date), date(referral.triage, ""),
+                            date(referral.assessment, ""), date(referral.discharge, ""),
+                            orNull(referral.dischargeReason, ""), String.valueOf(r));
+                    if (referral.assessment != null && random.nextInt(10) < 6) {
+                        String[] line = new String[16];
+                        Arrays.fill(line, "");
+                        line[0] = patientId;
+                        line[1] = referralId;
+                        line[2] = referralId + "01";
+                        line[3] = referral.team;
+                        boolean rcads = random.nextBoolean();
+                        line[4] = rcads ? "RCADS" : "SDQ";
+                        line[5] = rcads ? "Total Anxiety and Depression" : "Total Difficulties";
+                        int scores = 1 + random.nextInt(5);
+                        for (int i = 0; i < scores; i++) {
+                            line[6 + 2 * i] = date(referral.assessment.plusDays(60L * i));
+                            line[7 + 2 * i] = String.valueOf(random.nextInt(40));
+                        }
+                        write(outcomes, line);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Warrington: Warrington_1_Patient.csv with a row per patient and Warrington_2_Contact.csv with
+     * a row per referral and its contact counts, both with many empty columns after the ones used.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the contact file
+     * @throws IOException if a file can't be written
+     */
+    public void writeWarrington(File dir, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 4);
+        try (Writer patients = open(new File(dir, "Warrington_1_Patient.csv"));
+             Writer out = open(new File(dir, "Warrington_2_Contact.csv"))) {
+            write(patients, padded(40, "FinYear", "Patient_Identif", "Ethnicity", "Gender", "Patient_DisabilityFlag",
+                    "DiagnosisCode_Primary", "Length of treatment from assessment to discharge",
+                    "Was this patient signposted after discharge?"));
+            write(out, padded(60, "FinYear2", "Patient_Identif", "Age", "rerefs", "CAMHS referral outcome",
+                    "Routine waiting times for first appt", "Emergency waiting times for first appt",
+                    "Urgent waiting times for first appt", "Was this patient seen for assessment?", "F2FAttends",
+                    "NonF2FAttends", "DNAs", "service/NHSCacellation", "PatientCacellation",
+                    "Was the patient discharged?"));
+            int row = 0;
+            long number = 0;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(5));
+                String patientId = String.valueOf(patient.number);
+                Referral first = null;
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    first = (first == null) ? referral : first;
+                    String wait = (referral.assessment == null) ? "N/A"
+                            : days(referral.date, referral.assessment);
+                    int attended = 0;
+                    int dna = 0;
+                    for (int c = 0; c < referral.contacts.length; c++) {
+                        if (random.nextInt(10) == 0) {
+                            dna++;
+                        } else {
+                            attended++;
+                        }
+                    }
+                    write(out, padded(60, fiscalYear(referral.date).replace("/20", "/"), patientId, referral.age(),
+                            String.valueOf(r), referral.outcome.equals("Accepted")
+                                    ? "Discharged " + orNull(referral.dischargeReason, "open").toLowerCase(Locale.ROOT)
+                                    : referral.outcome,
+                            referral.urgency.equals("Routine") ? wait : "N/A",
+                            referral.urgency.equals("Emergency") ? wait : "N/A",
+                            referral.urgency.equals("Urgent") ? wait : "N/A",
+                            referral.assessment == null ? "N" : "Y", String.valueOf(attended * 4 / 5),
+                            String.valueOf(attended - attended * 4 / 5), String.valueOf(dna), "0", "0",
+                            referral.discharge == null ? "N" : "Y"));
+                }
+                write(patients, padded(40, fiscalYear(first.date).replace("/20", "/"), patientId,
+                        patient.ethnicityCode(), patient.female ? "F" : "M", pick("No", "No", "No", "Yes"),
+                        orNull(first.diagnosis, "N/A"), days(first.date, first.discharge),
+                        pick("N", "N", "Y")));
+            }
+        }
+    }
+
+    /**
+     * Stockport: Stockport_1_Patient.csv with a row per referral and Stockport_2_Activity.csv with a
+     * row per contact.
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the patient file
+     * @throws IOException if a file can't be written
+     */
+    public void writeStockport(File dir, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 6);
+        try (Writer out = open(new File(dir, "Stockport_1_Patient.csv"));
+             Writer contactsOut = open(new File(dir, "Stockport_2_Activity.csv"))) {
+            write(out, "Patient ID", "Referral ID", "Age at referral", "Locality", "Ethnicity", "Gender",
+                    "Diagnosis", "Referral routine / urgent", "Referral source", "Referral accepted / rejected",
+                    "Referral date", "Triage date", "Assessment date", "Date of first treatment contact",
+                    "Discharge date", "Reason for discharge", "Lifetime referrals to CAMHS");
+            write(contactsOut, "Patient ID", "Referral ID", "Activity ID", "Activity date", "Priority", "Attendance",
+                    "Activity type", "Team");
+            int row = 0;
+            long number = 2500000;
+            long contactId = 7000000;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String patientId = "RT" + patient.number;
+                String locality = pick("Stockport", "Stockport", "Marple", "Cheadle", "Bramhall");
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String referralId = String.valueOf(patient.number * 10 + r);
+                    write(out, patientId, referralId, referral.age(), locality, patient.ethnicityCode(),
+                            patient.female ? "F" : "M", orNull(referral.diagnosis, "NULL"), referral.urgency,
+                            referral.source, referral.outcome, date(referral.date), dateTime(referral.triage, "NULL"),
+                            dateTime(referral.assessment, "NULL"), dateTime(referral.treatment, "NULL"),
+                            dateTime(referral.discharge, "NULL"), orNull(referral.dischargeReason, "NULL"),
+                            String.valueOf(r));
+                    for (LocalDate contact : referral.contacts) {
+                        write(contactsOut, "RT" + patient.number, referralId,
+                                "RT" + (contactId += 1 + random.nextInt(5)), date(contact), URGENCY.pick(random),
+                                ATTENDANCE.pick(random), pick("f2f", "F2F", "nF2f", "NULL"), referral.team);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Southampton, in the default layouts: Southampton_1_Patient.csv with a row per referral and
+     * Southampton_2_Contact.csv with a row per contact, some without the tier (shorter rows).
+     * @param dir the directory to write the files to
+     * @param rows the number of rows of the patient file
+     * @throws IOException if a file can't be written
+     */
+    public void writeSouthampton(File dir, int rows) throws IOException {
+        Distribution teams = teams(TEAMS, 8);
+        try (Writer out = open(new File(dir, "Southampton_1_Patient.csv"));
+             Writer contactsOut = open(new File(dir, "Southampton_2_Contact.csv"))) {
+            write(out, "Patient ID", "Referral ID", "Age at referral", "Locality", "Ethnicity", "Gender",
+                    "Diagnosis", "Referral routine / urgent", "Referral source", "Referral accepted / rejected",
+                    "Referral date", "Triage date", "Assessment date", "Date of first treatment contact",
+                    "Discharge date", "Reason for discharge", "Lifetime referrals to CAMHS");
+            write(contactsOut, "Patient ID", "Referral ID", "Appointment ID", "Contact Number", "Date of contact",
+                    "Appointment routine / urgent", "Appointment contact type", "Attendance", "Team", "Tier of team");
+            int row = 0;
+            long number = 800000;
+            long contactId = 2066000000L;
+            while (row < rows) {
+                Patient patient = new Patient(number += 1 + random.nextInt(20));
+                String locality = pick("Southampton City", "Southampton West", "Southampton East");
+                for (int r = 1; r <= patient.referrals && row < rows; r++, row++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String patientId = String.valueOf(patient.number);
+                    String referralId = String.valueOf(patient.number * 100 + r);
+                    write(out, patientId, referralId, referral.age(), locality, patient.ethnicityCode(),
+                            patient.female ? "F" : "M", orNull(referral.diagnosis, ""), referral.urgency,
+                            referral.source, referral.outcome, dateTime(referral.date, ""),
+                            date(referral.triage, ""), date(referral.assessment, ""), dateTime(referral.treatment, ""),
+                            dateTime(referral.discharge, ""), orNull(referral.dischargeReason, ""), String.valueOf(r));
+                    for (int c = 0; c < referral.contacts.length; c++) {
+                        String[] line = {patientId, referralId, String.valueOf(contactId += 1 + random.nextInt(5)),
+                            String.valueOf(c + 1), dateTime(referral.contacts[c], ""), URGENCY.pick(random),
+                            pick("f2f", "nF2f", "f2f"), ATTENDANCE.pick(random), referral.team, "3"};
+                        // the tier is missing from the rows of some of the sheets
+                        write(contactsOut, (random.nextInt(20) == 0) ? Arrays.copyOf(line, 9) : line);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The NHS (Cambridge and Peterborough) files: campet.csv with a row per referral,
+     * campetPatLevCon.csv with a row per contact and campetPatLevDia.csv with a row per referral.
+     * @param dir the directory to write the files to
+     * @param target the number of rows of the three files, reached with the last referral
+     * @throws IOException if a file can't be written
+     */
+    public void writeNhs(File dir, int target) throws IOException {
+        Distribution teams = teams(new String[] {"CASUS", "CAMH Cambridge", "CAMH Peterborough", "CAMH Fenland",
+            "CAMH Huntingdon", "Eating Disorders", "Learning Disability"}, 7);
+        try (Writer demographic = open(new File(dir, "campet.csv"));
+             Writer contact = open(new File(dir, "campetPatLevCon.csv"));
+             Writer diagnosis = open(new File(dir, "campetPatLevDia.csv"))) {
+            write(demographic, "Period", "Patient ID", "Referral ID", "Age", "Eth", "Gender");
+            write(contact, "Period", "Patient ID", "Referral ID", "Urgency", "Source", "Outcome", "Discharge Reason",
+                    "Referral Date", "Assessment Date", "First Treatment Date", "Discharge Date", "Reason",
+                    "Lifetime Referrals", "Contact Date", "Contact Type", "Contact Outcome", "Team");
+            String[] header = new String[8 + DIAGNOSTICS];
+            System.arraycopy(new String[] {"Period", "Patient ID", "Referral ID", "Team", "Start Date", "End Date",
+                "ICD10", "Assessment Date"}, 0, header, 0, 8);
+            for (int i = 0; i < DIAGNOSTICS; i++) {
+                header[8 + i] = "Obs" + i;
+            }
+            write(diagnosis, header);
+            String period = "2015-04-01-2019-03-31";
+            long number = 0;
+            int rows = 0;
+            String[] line = new String[8 + DIAGNOSTICS];
+            while (rows < target) {
+                Patient patient = new Patient(number += 1 + random.nextInt(3));
+                String patientId = String.valueOf(patient.number);
+                for (int r = 1; r <= patient.referrals && rows < target; r++) {
+                    Referral referral = new Referral(patient, r, Integer.MAX_VALUE, teams);
+                    String referralId = String.valueOf(r);
+                    write(demographic, period, patientId, referralId, referral.age(), patient.ethnicityName(),
+                            patient.female ? "F" : "M");
+                    for (LocalDate date : referral.contacts) {
+                        write(contact, period, patientId, referralId, referral.urgency, referral.source,
+                                referral.outcome, orNull(referral.dischargeReason, ""), date(referral.date),
+                                date(referral.assessment, ""), date(referral.treatment, ""),
+                                date(referral.discharge, ""), orNull(referral.dischargeReason, ""),
+                                String.valueOf(r), date(date), CONTACT_TYPE.pick(random), ATTENDANCE.pick(random),
+                                referral.team);
+                    }
+                    line[0] = period;
+                    line[1] = patientId;
+                    line[2] = referralId;
+                    line[3] = referral.team;
+                    line[4] = date(referral.assessment, "");
+                    line[5] = date(referral.discharge, "");
+                    line[6] = orNull(referral.diagnosis, "");
+                    line[7] = date(referral.assessment, "");
+                    // most questions are not answered, a few often say yes
+                    for (int i = 0; i < DIAGNOSTICS; i++) {
+                        int answer = random.nextInt(100);
+                        line[8 + i] = (answer < 100 - 20 - i % 7 * 5) ? "" : (answer % 3 == 0) ? "no" : "yes";
+                    }
+                    write(diagnosis, line);
+                    rows += 2 + referral.contacts.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the files of sites to a directory.
+     * @param args the directory, then the scale (1), the seed (1) and the sites (all)
+     * @throws IOException if a file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticExtracts dir [scale [seed [site...]]], sites: " + SITES);
+            System.exit(1);
+        }
+        File dir = new File(args[0]);
+        double scale = (args.length > 1) ? Double.parseDouble(args[1]) : 1;
+        long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+        List<String> sites = (args.length > 3) ? Arrays.asList(args).subList(3, args.length) : SITES;
+        dir.mkdirs();
+        SyntheticExtracts extracts = new SyntheticExtracts(seed);
+        extracts.setScale(scale);
+        for (String site : sites) {
+            long start = System.currentTimeMillis();
+            extracts.write(site, dir);
+            System.out.println(site + " written in " + (System.currentTimeMillis() - start) + " ms.");
+        }
+    }
+
+    /**
+     * a patient, with what its referrals share
+     */
+    private final class Patient
+    {
+        final long number;
+        final int ethnicity;
+        final boolean female;
+        final double age;       // at the first referral
+        final int referrals;
+
+        Patient(long number) {
+            this.number = number;
+            ethnicity = Integer.parseInt(ETHNICITY.pick(random));
+            female = random.nextInt(100) < 52;
+            // more teenagers than young children
+            age = 4 + 14 * Math.sqrt(random.nextDouble());
+            referrals = skewed(SyntheticExtracts.this.referrals, 10);
+        }
+
+        String ethnicityCode() {
+            return ETHNICITY_CODES[ethnicity];
+        }
+
+        String ethnicityName() {
+            return ETHNICITY_NAMES[ethnicity];
+        }
+    }
+
+    /**
+     * a referral and the dates of its contacts. the dates not reached (e.g. the discharge of a
+     * referral still open) are null
+     */
+    private final class Referral
+    {
+        final double exactAge;
+        final int age;
+        final LocalDate date;
+        final LocalDate triage;
+        final LocalDate assessment;
+        final LocalDate treatment;
+        final LocalDate discharge;
+        final String urgency;
+        final String source;
+        final String outcome;
+        final String dischargeReason;
+        final String diagnosis;
+        final String team;
+        final LocalDate[] contacts;
+
+        Referral(Patient patient, int ordinal, int maxContacts, Distribution teams) {
+            date = START.plusDays(random.nextInt(DAYS));
+            exactAge = Math.min(18.9, patient.age + (ordinal - 1) * 0.8);
+            age = (int) exactAge;
+            urgency = URGENCY.pick(random);
+            source = SOURCE.pick(random);
+            outcome = OUTCOME.pick(random);
+            team = teams.pick(random);
+            triage = (random.nextInt(10) < 7) ? date.plusDays(random.nextInt(15)) : null;
+            boolean accepted = outcome.equals("Accepted");
+            assessment = accepted ? date.plusDays(7 + random.nextInt(54)) : null;
+            treatment = (accepted && random.nextInt(10) < 8) ? assessment.plusDays(7 + random.nextInt(84)) : null;
+            diagnosis = (accepted && random.nextInt(10) < 6) ? DIAGNOSIS.pick(random) : null;
+            int count = accepted ? Math.min(maxContacts, skewed(SyntheticExtracts.this.contacts, 1000)) : 0;
+            contacts = new LocalDate[count];
+            LocalDate contact = accepted ? assessment : date;
+            for (int i = 0; i < count; i++) {
+                contacts[i] = contact;
+                contact = contact.plusDays(7 + random.nextInt(22));
+            }
+            if (!accepted) {
+                discharge = date.plusDays(1 + random.nextInt(14));
+                dischargeReason = outcome.equals("Rejected") ? "Inappropriate Referral" : "Signposted";
+            } else if (random.nextInt(100) < 15) {
+                discharge = null;
+                dischargeReason = null;
+            } else {
+                LocalDate last = (treatment != null && treatment.isAfter(contact)) ? treatment : contact;
+                discharge = last.plusDays(random.nextInt(60));
+                dischargeReason = DISCHARGE_REASON.pick(random);
+            }
+        }
+
+        String age() {
+            return String.valueOf(age);
+        }
+    }
+
+    /**
+     * values picked with weights
+     */
+    private static final class Distribution
+    {
+        private final String[] values;
+        private final double[] cumulative;
+
+        Distribution(String[] values, double... weights) {
+            this.values = values;
+            cumulative = new double[weights.length];
+            double total = 0;
+            for (double weight : weights) {
+                total += weight;
+            }
+            double sum = 0;
+            for (int i = 0; i < weights.length; i++) {
+                sum += weights[i];
+                cumulative[i] = sum / total;
+            }
+        }
+
+        String pick(Random random) {
+            double u = random.nextDouble();
+            for (int i = 0; i < cumulative.length - 1; i++) {
+                if (u < cumulative[i]) {
+                    return values[i];
+                }
+            }
+            return values[values.length - 1];
+        }
+    }
+
+    /**
+     * the first count teams, the first ones busier (1/rank)
+     */
+    private static Distribution teams(String[] names, int count) {
+        double[] weights = new double[count];
+        for (int i = 0; i < count; i++) {
+            weights[i] = 1.0 / (i + 1);
+        }
+        return new Distribution(Arrays.copyOf(names, count), weights);
+    }
+
+    private static String[] indexes(int n) {
+        String[] indexes = new String[n];
+        for (int i = 0; i < n; i++) {
+            indexes[i] = String.valueOf(i);
+        }
+        return indexes;
+    }
+
+    /**
+     * at least 1, geometric with the given mean, at most max
+     */
+    private int skewed(double mean, int max) {
+        if (mean <= 1) {
+            return 1;
+        }
+        double u = random.nextDouble();
+        int n = 1 + (int) (Math.log(1 - u) / Math.log(1 - 1 / mean));
+        return Math.min(max, n);
+    }
+
+    private String pick(String... values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private String dateTime(LocalDate date, String missing) {
+        if (date == null) {
+            return missing;
+        }
+        return date.atTime(8 + random.nextInt(10), random.nextInt(12) * 5).format(DATE_TIME);
+    }
+
+    private static String date(LocalDate date) {
+        return date.format(DATE);
+    }
+
+    private static String date(LocalDate date, String missing) {
+        return (date == null) ? missing : date.format(DATE);
+    }
+
+    private static String longDate(LocalDate date, String missing) {
+        return (date == null) ? missing : date.format(LONG_DATE);
+    }
+
+    /**
+     * the values, then empty columns up to width
+     */
+    private static String[] padded(int width, String... values) {
+        String[] line = Arrays.copyOf(values, width);
+        Arrays.fill(line, values.length, width, "");
+        return line;
+    }
+
+    private static String days(LocalDate from, LocalDate to) {
+        return (to == null) ? "NULL" : String.valueOf(to.toEpochDay() - from.toEpochDay());
+    }
+
+    private static long days(LocalDate from, LocalDate to, long missing) {
+        return (to == null) ? missing : to.toEpochDay() - from.toEpochDay();
+    }
+
+    private static String fiscalYear(LocalDate date) {
+        int year = (date.getMonthValue() < 4) ? date.getYear() - 1 : date.getYear();
+        return year + "/" + (year + 1);
+    }
+
+    private static String orNull(String value, String missing) {
+        return (value == null) ? missing : value;
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static void write(Writer out, String... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String value = values[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(value);
+            }
+        }
+        out.write('\n');
+    }
+}
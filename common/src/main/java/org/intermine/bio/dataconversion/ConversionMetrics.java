@@ -0,0 +1,182 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The SiteMetrics of a converter run. Each site is registered as an MBean when first used
+ * (org.intermine.bio.dataconversion:type=SiteMetrics,source=...,site=...), to follow the
+ * conversion with jconsole, and unregistered by close(). The metrics of all the sites are given
+ * as a JSON summary by toJson().
+ *
+ * @author
+ */
+public class ConversionMetrics
+{
+    private static final Logger LOG = Logger.getLogger(ConversionMetrics.class);
+    private static final String DOMAIN = "org.intermine.bio.dataconversion";
+
+    private final String source;
+    private final long start = System.currentTimeMillis();
+    private final Map<String, SiteMetrics> sites = new LinkedHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    /**
+     * @param source the name of the source, e.g. POR
+     */
+    public ConversionMetrics(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @param site the name of a site
+     * @return its metrics, registered as an MBean the first time
+     */
+    public synchronized SiteMetrics getSite(String site) {
+        SiteMetrics metrics = sites.get(site);
+        if (metrics == null) {
+            metrics = new SiteMetrics(site);
+            sites.put(site, metrics);
+            register(metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Unregister the MBeans. The metrics can still be read.
+     */
+    public synchronized void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOG.debug("Can't unregister " + name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * @param file the file to write the JSON summary to
+     * @throws IOException if the file can't be written
+     */
+    public void write(File file) throws IOException {
+        Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the metrics of the sites, as JSON
+     */
+    public synchronized String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"source\": ").append(quote(source)).append(",\n");
+        sb.append("  \"millis\": ").append(System.currentTimeMillis() - start).append(",\n");
+        sb.append("  \"sites\": [");
+        String separator = "\n";
+        for (SiteMetrics site : sites.values()) {
+            sb.append(separator);
+            separator = ",\n";
+            sb.append("    {\n");
+            sb.append("      \"site\": ").append(quote(site.getSite())).append(",\n");
+            sb.append("      \"rows\": ").append(site.getRows()).append(",\n");
+            sb.append("      \"skippedRows\": ").append(site.getSkippedRows()).append(",\n");
+            sb.append("      \"orphanRows\": ").append(site.getOrphanRows()).append(",\n");
+            sb.append("      \"millis\": ").append(site.getMillis()).append(",\n");
+            sb.append("      \"rowsPerSecond\": ").append(format(site.getRowsPerSecond())).append(",\n");
+            sb.append("      \"itemsStored\": ").append(site.getItemsStored()).append(",\n");
+            sb.append("      \"itemsCreated\": ").append(toJson(site.getItemsCreated())).append(",\n");
+            sb.append("      \"storeLatencyMicros\": ").append(toJson(site.getStoreLatencyMicros())).append(",\n");
+            sb.append("      \"peakCacheSizes\": ").append(toJson(site.getPeakCacheSizes())).append(",\n");
+            sb.append("      \"peakHeapBytes\": ").append(site.getPeakHeapBytes()).append(",\n");
+            sb.append("      \"files\": [");
+            String fileSeparator = "\n";
+            for (SiteMetrics.FileMetrics file : site.getFileMetrics()) {
+                sb.append(fileSeparator);
+                fileSeparator = ",\n";
+                long millis = file.getMillis();
+                sb.append("        {\"name\": ").append(quote(file.getName()));
+                sb.append(", \"rows\": ").append(file.getRows());
+                sb.append(", \"skippedRows\": ").append(file.getSkipped());
+                sb.append(", \"orphanRows\": ").append(file.getOrphans());
+                sb.append(", \"millis\": ").append(millis);
+                sb.append(", \"rowsPerSecond\": ").append(format(millis == 0 ? 0 : file.getRows() * 1000.0 / millis));
+                sb.append("}");
+            }
+            sb.append("\n      ]\n");
+            sb.append("    }");
+        }
+        sb.append("\n  ]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private void register(SiteMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=SiteMetrics,source=" + ObjectName.quote(source)
+                    + ",site=" + ObjectName.quote(metrics.getSite()));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                // left by a previous run in the same JVM
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+            registered.add(name);
+        } catch (JMException e) {
+            LOG.warn("Can't register the metrics of " + metrics.getSite() + ": " + e.getMessage());
+        }
+    }
+
+    private static String toJson(Map<String, Long> map) {
+        StringBuilder sb = new StringBuilder("{");
+        String separator = "";
+        for (Map.Entry<String, Long> entry : map.entrySet()) {
+            sb.append(separator).append(quote(entry.getKey())).append(": ").append(entry.getValue());
+            separator = ", ";
+        }
+        return sb.append("}").toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,128 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the problems found in the rows of a file (e.g. a contact for an unknown patient)
+ * instead of logging each of them: they are counted by kind, with a few of the identifiers
+ * concerned, and logged as one line per kind by report(), at the end of the file. A bad extract
+ * then gives a few lines, not one per row.
+ *
+ * Not thread safe: each converter (or site converter) has its own.
+ *
+ * @author
+ */
+public class DataQualityLog
+{
+    private static final int DEFAULT_SAMPLES = 10;
+
+    private final Logger log;
+    private final int samples;
+    private final Map<String, Problem> problems = new LinkedHashMap<>(); // kind, since the last report
+    private final Map<String, Long> totals = new LinkedHashMap<>();      // kind, since the start
+
+    private static class Problem
+    {
+        final Level level;
+        long count = 0;
+        final Set<String> ids = new LinkedHashSet<>();
+
+        Problem(Level level) {
+            this.level = level;
+        }
+    }
+
+    /**
+     * @param log the Logger the reports are written to
+     */
+    public DataQualityLog(Logger log) {
+        this(log, DEFAULT_SAMPLES);
+    }
+
+    /**
+     * @param log the Logger the reports are written to
+     * @param samples the number of distinct identifiers kept for each kind of problem
+     */
+    public DataQualityLog(Logger log, int samples) {
+        this.log = log;
+        this.samples = samples;
+    }
+
+    /**
+     * Count a problem, reported as a warning.
+     * @param kind what is wrong, e.g. "contacts for an unknown patient"
+     * @param id the row concerned, e.g. the patient identifier
+     */
+    public void warn(String kind, String id) {
+        add(Level.WARN, kind, id);
+    }
+
+    /**
+     * Count a row worth noting, reported as information.
+     * @param kind what is noted, e.g. "patient rows"
+     * @param id the row concerned
+     */
+    public void info(String kind, String id) {
+        add(Level.INFO, kind, id);
+    }
+
+    /**
+     * Log what was counted since the last report, one line per kind, and start again.
+     * @param context where the problems were found, e.g. the site and file
+     */
+    public void report(String context) {
+        for (Map.Entry<String, Problem> entry : problems.entrySet()) {
+            Problem problem = entry.getValue();
+            if (!log.isEnabledFor(problem.level)) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append(context).append(": ").append(problem.count).append(' ').append(entry.getKey());
+            if (!problem.ids.isEmpty()) {
+                sb.append(problem.count > problem.ids.size() ? ", e.g. " : ": ");
+                sb.append(String.join(", ", problem.ids));
+            }
+            log.log(problem.level, sb.toString());
+        }
+        problems.clear();
+    }
+
+    /**
+     * @param kind a kind of problem
+     * @return the number of problems of this kind since the start
+     */
+    public long getCount(String kind) {
+        Long total = totals.get(kind);
+        return (total == null) ? 0 : total;
+    }
+
+    private void add(Level level, String kind, String id) {
+        Problem problem = problems.get(kind);
+        if (problem == null) {
+            problem = new Problem(level);
+            problems.put(kind, problem);
+        }
+        problem.count++;
+        if (id != null && problem.ids.size() < samples) {
+            problem.ids.add(id);
+        }
+        Long total = totals.get(kind);
+        totals.put(kind, (total == null) ? 1 : total + 1);
+    }
+}
@@ -0,0 +1,165 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parses the dates of the site files into days since the epoch, and into the value of a
+ * java.util.Date attribute (milliseconds since the epoch, UTC midnight).
+ *
+ * Formats recognised (a time after the date is ignored):
+ *   03/11/15 11:24, 26/09/14, 06/08/2015 (day first, two digit years are 20xx up to 49)
+ *   2015-04-01, 2015-04-01 00:00:00 (year first)
+ *
+ * The same dates appear in a lot of rows, so the parsed values are kept in a cache shared by
+ * all the converters.
+ *
+ * @author
+ */
+public final class DateParser
+{
+    /** returned by toEpochDay for values that are not dates */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int MAX_CACHED = 100000;
+    private static final DateParser INSTANCE = new DateParser();
+
+    private final ConcurrentMap<String, Parsed> cache = new ConcurrentHashMap<>();
+
+    private DateParser() {
+        // use getInstance()
+    }
+
+    /**
+     * @return the shared parser
+     */
+    public static DateParser getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param s a date as found in the files
+     * @return the day since the epoch, NO_DATE if s is not a date
+     */
+    public int toEpochDay(String s) {
+        return get(s).day;
+    }
+
+    /**
+     * @param s a date as found in the files
+     * @return the value for a java.util.Date attribute, null if s is not a date
+     */
+    public String toAttribute(String s) {
+        return get(s).millis;
+    }
+
+    /**
+     * @return the number of distinct values parsed (and cached) so far
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    private Parsed get(String s) {
+        if (s == null || s.isEmpty()) {
+            return Parsed.NONE;
+        }
+        Parsed parsed = cache.get(s);
+        if (parsed == null) {
+            int day = parse(s);
+            parsed = (day == NO_DATE) ? Parsed.NONE : new Parsed(day);
+            if (cache.size() < MAX_CACHED) {
+                cache.putIfAbsent(s, parsed);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @param s the value
+     * @return the day since the epoch, or NO_DATE
+     */
+    static int parse(String s) {
+        int len = s.length();
+        int i = 0;
+        while (i < len && s.charAt(i) == ' ') {
+            i++;
+        }
+        int[] fields = new int[3];
+        int[] digits = new int[3];
+        int field = 0;
+        for (; i < len && field < 3; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                fields[field] = fields[field] * 10 + (c - '0');
+                digits[field]++;
+                if (digits[field] > 4) {
+                    return NO_DATE;
+                }
+            } else if ((c == '/' || c == '-' || c == '.') && field < 2 && digits[field] > 0) {
+                field++;
+            } else if ((c == ' ' || c == 'T') && field == 2) {
+                break; // the time
+            } else {
+                return NO_DATE;
+            }
+        }
+        if (field != 2 || digits[2] == 0) {
+            return NO_DATE;
+        }
+        int year, month, day;
+        if (digits[0] == 4) {
+            year = fields[0];
+            month = fields[1];
+            day = fields[2];
+        } else if (digits[2] == 4 || digits[2] == 2) {
+            day = fields[0];
+            month = fields[1];
+            year = fields[2];
+            if (digits[2] == 2) {
+                year += (year < 50) ? 2000 : 1900;
+            }
+        } else {
+            return NO_DATE;
+        }
+        try {
+            return (int) LocalDate.of(year, month, day).toEpochDay();
+        } catch (DateTimeException e) {
+            return NO_DATE;
+        }
+    }
+
+    /**
+     * a parsed value
+     */
+    private static final class Parsed
+    {
+        static final Parsed NONE = new Parsed();
+
+        final int day;
+        final String millis;
+
+        Parsed(int day) {
+            this.day = day;
+            this.millis = String.valueOf(day * MILLIS_PER_DAY);
+        }
+
+        private Parsed() {
+            this.day = NO_DATE;
+            this.millis = null;
+        }
+    }
+}
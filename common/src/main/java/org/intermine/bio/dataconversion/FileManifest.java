@@ -0,0 +1,298 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The content hashes of the source files converted in the last builds, with the number of items
+ * they gave and an ItemCache of these items. A group of files (e.g. the files of a site) that
+ * hasn't changed since it was recorded can be replayed from its cache instead of converted.
+ *
+ * The manifest also holds a version of the conversion (see version()): when it changes, all
+ * the entries are dropped. Kept in manifest.properties in the manifest directory, with the
+ * caches; the directory must not be the one of the source files.
+ *
+ * @author
+ */
+public class FileManifest
+{
+    private static final Logger LOG = Logger.getLogger(FileManifest.class);
+
+    private static final String MANIFEST_FILE = "manifest.properties";
+    private static final String VERSION = "version";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File dir;
+    private final Properties entries = new Properties();
+    private final Map<File, String> hashes = new ConcurrentHashMap<>(); // computed in this build
+
+    /**
+     * @param dir the directory of the manifest and of the caches, created if needed
+     * @param version the version of the conversion
+     * @throws IOException if the manifest can't be read
+     */
+    public FileManifest(File dir, String version) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir.toPath());
+        File file = new File(dir, MANIFEST_FILE);
+        if (file.exists()) {
+            InputStream is = new FileInputStream(file);
+            try {
+                entries.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        if (!version.equals(entries.getProperty(VERSION))) {
+            if (!entries.isEmpty()) {
+                LOG.info("The conversion has changed since " + file + " was written, converting all the files.");
+            }
+            entries.clear();
+            entries.setProperty(VERSION, version);
+        }
+    }
+
+    /**
+     * @param name a group of files
+     * @param files the files of the group in this build
+     * @return true if the group has the same files, with the same content, as when recorded
+     * and its cache is there
+     * @throws IOException if a file can't be read
+     */
+    public boolean isUnchanged(String name, List<File> files) throws IOException {
+        String recorded = entries.getProperty(name + ".files");
+        if (recorded == null || !recorded.equals(fileNames(files)) || !getCache(name).exists()) {
+            return false;
+        }
+        for (File file : files) {
+            if (!hash(file).equals(entries.getProperty(name + ".sha256." + file.getName()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param name a group of files
+     * @return the number of items recorded for the group, -1 if none
+     */
+    public int getItems(String name) {
+        return Integer.parseInt(entries.getProperty(name + ".items", "-1"));
+    }
+
+    /**
+     * @param name a group of files
+     * @return the ItemCache file of the group
+     */
+    public File getCache(String name) {
+        return new File(dir, name.replaceAll("\\W+", "_") + ".items.gz");
+    }
+
+    /**
+     * Record a group of files, once its cache is written, and save the manifest.
+     * @param name the group
+     * @param files its files
+     * @param items the number of items in the cache
+     * @throws IOException if the manifest can't be written
+     */
+    public synchronized void update(String name, List<File> files, int items) throws IOException {
+        for (String key : entries.stringPropertyNames()) {
+            if (key.startsWith(name + ".")) {
+                entries.remove(key);
+            }
+        }
+        entries.setProperty(name + ".files", fileNames(files));
+        for (File file : files) {
+            entries.setProperty(name + ".sha256." + file.getName(), hash(file));
+        }
+        entries.setProperty(name + ".items", String.valueOf(items));
+
+        File file = new File(dir, MANIFEST_FILE);
+        File tmp = new File(dir, MANIFEST_FILE + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            entries.store(out, "source files converted, with their item caches");
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String hash(File file) throws IOException {
+        String hash = hashes.get(file);
+        if (hash == null) {
+            InputStream is = new FileInputStream(file);
+            try {
+                hash = hash(is);
+            } finally {
+                is.close();
+            }
+            hashes.put(file, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * The version of a conversion: a hash of the configuration (and class files) it depends on.
+     * Its code is better versioned by codeVersion().
+     * @param loader the class loader of the converter
+     * @param resources the class files and configuration files of the conversion
+     * @return the version
+     * @throws IOException if a resource can't be read
+     */
+    public static String version(ClassLoader loader, String... resources) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String resource : resources) {
+            InputStream is = loader.getResourceAsStream(resource);
+            if (is == null) {
+                sb.append(resource).append(":none ");
+                continue;
+            }
+            try {
+                sb.append(hash(is)).append(' ');
+            } finally {
+                is.close();
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * The version of the code of a conversion: a hash of the jars (or class directories) the
+     * classes are loaded from, so that a change to any class they hold, e.g. a reader or a
+     * cache used by the converter, changes it.
+     * @param classes a class of each jar, e.g. the converter and a class of ithrive-common
+     * @return the version
+     * @throws IOException if a jar or class file can't be read
+     */
+    public static String codeVersion(Class<?>... classes) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Set<File> sources = new HashSet<>();
+        for (Class<?> cls : classes) {
+            CodeSource source = cls.getProtectionDomain().getCodeSource();
+            if (source == null) {
+                // a class of the JRE
+                sb.append(cls.getName()).append(":none ");
+                continue;
+            }
+            File file;
+            try {
+                file = new File(source.getLocation().toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Can't read the code of " + cls.getName(), e);
+            }
+            if (sources.add(file)) {
+                sb.append(hashTree(file)).append(' ');
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * @return the hash of a file, or of the paths and contents of the files under a directory
+     */
+    static String hashTree(File file) throws IOException {
+        if (!file.isDirectory()) {
+            InputStream is = new FileInputStream(file);
+            try {
+                return hash(is);
+            } finally {
+                is.close();
+            }
+        }
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> tree = Files.walk(file.toPath())) {
+            tree.filter(Files::isRegularFile).forEach(paths::add);
+        }
+        Collections.sort(paths);
+        MessageDigest digest = sha256();
+        for (Path path : paths) {
+            digest.update(file.toPath().relativize(path).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            try (InputStream is = Files.newInputStream(path)) {
+                update(digest, is);
+            }
+        }
+        return hex(digest);
+    }
+
+    /**
+     * @param cls a class
+     * @return the name of its class file, for version()
+     */
+    public static String classFile(Class<?> cls) {
+        return cls.getName().replace('.', '/') + ".class";
+    }
+
+    private static String hash(InputStream is) throws IOException {
+        MessageDigest digest = sha256();
+        update(digest, is);
+        return hex(digest);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, InputStream is) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = is.read(buffer)) > 0) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    private static String hex(MessageDigest digest) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static String fileNames(List<File> files) {
+        List<String> names = new ArrayList<>();
+        for (File file : files) {
+            names.add(file.getName());
+        }
+        return String.join(",", names);
+    }
+}
@@ -0,0 +1,142 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ItemWriter for a converter running in its own thread: items are buffered locally and
+ * handed to the shared ItemWriter in blocks, holding its lock only for the hand-off.
+ * Closing flushes the buffer, the shared ItemWriter is left open.
+ *
+ * As the items are stored later, store() can't return their ObjectStore ids. An item to be
+ * changed by id is stored with storeNow(), which hands over the buffer and then the item,
+ * and gives its id; store(ReferenceList, id) and store(Attribute, id) hand over the buffer
+ * before changing the item.
+ *
+ * @author
+ */
+public class HandOffItemWriter implements ItemWriter
+{
+    private final ItemWriter target;
+    private final int size;
+    private final List<Item> buffer;
+    private int count = 0;
+
+    /**
+     * @param target the shared ItemWriter
+     * @param size the number of items handed over at a time
+     */
+    public HandOffItemWriter(ItemWriter target, int size) {
+        this.target = target;
+        this.size = size;
+        this.buffer = new ArrayList<>(size);
+    }
+
+    /**
+     * Buffer an item, stored with the next hand-off.
+     * @param item the item
+     * @return null, the item has no ObjectStore id yet
+     * @throws ObjectStoreException if the buffer is handed over and the items can't be stored
+     */
+    public Integer store(Item item) throws ObjectStoreException {
+        buffer.add(item);
+        count++;
+        if (buffer.size() >= size) {
+            flush();
+        }
+        return null;
+    }
+
+    /**
+     * Store an item now, after the buffered items, for its ObjectStore id.
+     * @param item the item
+     * @return the ObjectStore id of the item
+     * @throws ObjectStoreException if the items can't be stored
+     */
+    public Integer storeNow(Item item) throws ObjectStoreException {
+        count++;
+        flush();
+        synchronized (target) {
+            return target.store(item);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void storeAll(java.util.Collection<Item> items) throws ObjectStoreException {
+        for (Item item : items) {
+            store(item);
+        }
+    }
+
+    /**
+     * Store a collection of an item stored by storeNow(), after the buffered items.
+     * @param refList the collection
+     * @param itemId the ObjectStore id of the item
+     * @throws ObjectStoreException if the items can't be stored
+     */
+    public void store(ReferenceList refList, Integer itemId) throws ObjectStoreException {
+        flush();
+        synchronized (target) {
+            target.store(refList, itemId);
+        }
+    }
+
+    /**
+     * Store an attribute of an item stored by storeNow(), after the buffered items.
+     * @param att the attribute
+     * @param itemId the ObjectStore id of the item
+     * @throws ObjectStoreException if the items can't be stored
+     */
+    public void store(Attribute att, Integer itemId) throws ObjectStoreException {
+        flush();
+        synchronized (target) {
+            target.store(att, itemId);
+        }
+    }
+
+    /**
+     * Hand the buffered items to the shared ItemWriter.
+     * @throws ObjectStoreException if the items can't be stored
+     */
+    public void flush() throws ObjectStoreException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        synchronized (target) {
+            target.storeAll(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws ObjectStoreException {
+        flush();
+    }
+
+    /**
+     * @return the number of items stored through this writer
+     */
+    public int getCount() {
+        return count;
+    }
+}
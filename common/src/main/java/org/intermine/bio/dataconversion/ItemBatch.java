@@ -0,0 +1,93 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects items and hands them to the ItemWriter in batches, instead of one store per item.
+ * Remember to flush at the end of the file. Only for items that are complete when added: a
+ * batched item can't be changed any more.
+ *
+ * @author
+ */
+public class ItemBatch
+{
+    private final ItemWriter writer;
+    private int size;
+    private final List<org.intermine.model.fulldata.Item> items;
+    private int stored = 0;
+
+    /**
+     * @param writer the ItemWriter used by the converter
+     * @param size the number of items in a batch
+     */
+    public ItemBatch(ItemWriter writer, int size) {
+        this.writer = writer;
+        this.size = size;
+        this.items = new ArrayList<>(size);
+    }
+
+    /**
+     * @param size the number of items in a batch, from the next batch on
+     */
+    public void setSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1, was " + size);
+        }
+        this.size = size;
+    }
+
+    /**
+     * @return the number of items in a batch
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Add an item, writing the batch if full.
+     * @param item the item to store
+     * @throws ObjectStoreException if the batch can't be written
+     */
+    public void add(Item item) throws ObjectStoreException {
+        items.add(ItemHelper.convert(item));
+        if (items.size() >= size) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the items collected so far.
+     * @throws ObjectStoreException if the batch can't be written
+     */
+    public void flush() throws ObjectStoreException {
+        if (items.isEmpty()) {
+            return;
+        }
+        writer.storeAll(items);
+        stored += items.size();
+        items.clear();
+    }
+
+    /**
+     * @return the number of items written so far
+     */
+    public int getStored() {
+        return stored;
+    }
+}
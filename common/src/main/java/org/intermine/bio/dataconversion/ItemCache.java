@@ -0,0 +1,369 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.log4j.Logger;
+import org.intermine.dataconversion.DataConverter;
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An ItemWriter that can also write the items stored to a file, to store them again in a later
+ * build without converting the source files (see FileManifest). Items are passed on to the
+ * target ItemWriter as they come, recording only starts with record().
+ *
+ * The identifiers of the recorded items are only valid in the build that made them: replay
+ * gives every item a new one from the converter, and references are mapped to the new
+ * identifiers. The items recorded together must only reference each other, and only whole
+ * items can be recorded (not the attributes or collections stored by ObjectStore id).
+ *
+ * Items stored once for all the caches (e.g. the LookupDictionary items) can be referenced
+ * with setSharedItems: the references to them are recorded by key, and given the identifier
+ * of the item with that key in the build replaying the file.
+ *
+ * @author
+ */
+public class ItemCache implements ItemWriter
+{
+    private static final Logger LOG = Logger.getLogger(ItemCache.class);
+
+    private static final int ITEM = 1;
+    private static final int END = 0;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String SHARED = "@";
+
+    private final ItemWriter target;
+    private DataOutputStream out = null;
+    private File file = null;
+    private File tmp = null;
+    private int count = 0;
+    private boolean complete = true;
+    private SharedItems shared = null;
+
+    /**
+     * Items stored outside of the caches, referenced by the items recorded.
+     */
+    public interface SharedItems
+    {
+        /**
+         * @param identifier the identifier of an item
+         * @return the key of the item, null if it is not a shared item
+         */
+        String getKey(String identifier);
+
+        /**
+         * @param key the key of an item
+         * @return the identifier of the item, stored if needed
+         * @throws ObjectStoreException if the item can't be stored
+         */
+        String getIdentifier(String key) throws ObjectStoreException;
+    }
+
+    /**
+     * @param target the ItemWriter the items are passed on to
+     */
+    public ItemCache(ItemWriter target) {
+        this.target = target;
+    }
+
+    /**
+     * @param shared the items the references of the items recorded can be to
+     */
+    public void setSharedItems(SharedItems shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Start writing the items stored to a file. The file is only replaced by finish().
+     * @param file the cache file
+     * @throws IOException if the file can't be created
+     */
+    public void record(File file) throws IOException {
+        this.file = file;
+        tmp = new File(file.getPath() + ".tmp");
+        out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tmp), BUFFER_SIZE), BUFFER_SIZE));
+        count = 0;
+        complete = true;
+    }
+
+    /**
+     * @return true if the stored items are being written to a file
+     */
+    public boolean isRecording() {
+        return out != null;
+    }
+
+    /**
+     * Stop recording, replacing the cache file with the items written.
+     * @return the number of items in the file, or -1 if the items stored can't be replayed (the
+     * file is then left as it was)
+     * @throws IOException if the file can't be written
+     */
+    public int finish() throws IOException {
+        if (out == null) {
+            return -1;
+        }
+        out.writeByte(END);
+        out.writeInt(count);
+        out.close();
+        out = null;
+        if (!complete) {
+            Files.delete(tmp.toPath());
+            return -1;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer store(Item item) throws ObjectStoreException {
+        if (out != null) {
+            write(item);
+        }
+        return target.store(item);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void storeAll(Collection<Item> items) throws ObjectStoreException {
+        if (out != null) {
+            for (Item item : items) {
+                write(item);
+            }
+        }
+        target.storeAll(items);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(ReferenceList refList, Integer itemId) throws ObjectStoreException {
+        // changes an item by its ObjectStore id: can't be replayed
+        complete = false;
+        target.store(refList, itemId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Attribute att, Integer itemId) throws ObjectStoreException {
+        complete = false;
+        target.store(att, itemId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws ObjectStoreException {
+        try {
+            finish();
+        } catch (IOException e) {
+            throw new ObjectStoreException("Failed to write the item cache " + file, e);
+        }
+        target.close();
+    }
+
+    private void write(Item item) throws ObjectStoreException {
+        try {
+            out.writeByte(ITEM);
+            writeString(out, item.getClassName());
+            writeString(out, item.getImplementations());
+            writeString(out, item.getIdentifier());
+            out.writeInt(item.getAttributes().size());
+            for (Attribute att : item.getAttributes()) {
+                writeString(out, att.getName());
+                writeString(out, att.getValue());
+            }
+            out.writeInt(item.getReferences().size());
+            for (Reference ref : item.getReferences()) {
+                writeString(out, ref.getName());
+                String key = (shared == null) ? null : shared.getKey(ref.getRefId());
+                writeString(out, (key == null) ? ref.getRefId() : SHARED + key);
+            }
+            out.writeInt(item.getCollections().size());
+            for (ReferenceList refs : item.getCollections()) {
+                writeString(out, refs.getName());
+                writeString(out, refs.getRefIds());
+            }
+            count++;
+        } catch (IOException e) {
+            throw new ObjectStoreException("Failed to write the item cache " + file, e);
+        }
+    }
+
+    /**
+     * Store the items of a cache file through a converter, with new identifiers. The file is
+     * read a first time to check it and give the new identifiers: nothing is stored if it is
+     * not complete.
+     *
+     * @param file the cache file
+     * @param expected the number of items recorded
+     * @param converter the converter to create and store the items
+     * @return the number of items stored
+     * @throws IOException if the file can't be read or doesn't have the items expected
+     * @throws ObjectStoreException if an item can't be stored
+     */
+    public static int replay(File file, int expected, DataConverter converter)
+        throws IOException, ObjectStoreException {
+        return replay(file, expected, converter, null);
+    }
+
+    /**
+     * Store the items of a cache file recorded with shared items.
+     *
+     * @param file the cache file
+     * @param expected the number of items recorded
+     * @param converter the converter to create and store the items
+     * @param shared the items referenced by key, null if none
+     * @return the number of items stored
+     * @throws IOException if the file can't be read or doesn't have the items expected
+     * @throws ObjectStoreException if an item can't be stored
+     */
+    public static int replay(File file, int expected, DataConverter converter, SharedItems shared)
+        throws IOException, ObjectStoreException {
+        // old identifier, new identifier
+        Map<String, String> identifiers = new HashMap<>(expected * 2);
+        DataInputStream in = open(file);
+        try {
+            while (in.readByte() == ITEM) {
+                String className = readString(in);
+                readString(in);
+                String identifier = readString(in);
+                identifiers.put(identifier, converter.createItem(className).getIdentifier());
+                skipPairs(in);
+                skipPairs(in);
+                skipPairs(in);
+            }
+            int count = in.readInt();
+            if (count != expected || identifiers.size() != expected) {
+                throw new IOException(file + " has " + count + " items, " + expected + " expected");
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " is truncated", e);
+        } finally {
+            in.close();
+        }
+
+        int stored = 0;
+        int dangling = 0;
+        in = open(file);
+        try {
+            while (in.readByte() == ITEM) {
+                String className = readString(in);
+                String implementations = readString(in);
+                String identifier = identifiers.get(readString(in));
+                org.intermine.xml.full.Item item =
+                        new org.intermine.xml.full.Item(identifier, className, implementations);
+                for (int i = in.readInt(); i > 0; i--) {
+                    item.setAttribute(readString(in), readString(in));
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    String name = readString(in);
+                    String old = readString(in);
+                    String ref;
+                    if (shared != null && old != null && old.startsWith(SHARED)) {
+                        ref = shared.getIdentifier(old.substring(SHARED.length()));
+                    } else {
+                        ref = identifiers.get(old);
+                    }
+                    if (ref == null) {
+                        dangling++;
+                    } else {
+                        item.setReference(name, ref);
+                    }
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    String name = readString(in);
+                    for (String id : readString(in).split(" ")) {
+                        if (id.isEmpty()) {
+                            continue;
+                        }
+                        String ref = identifiers.get(id);
+                        if (ref == null) {
+                            dangling++;
+                        } else {
+                            item.addToCollection(name, ref);
+                        }
+                    }
+                }
+                converter.store(item);
+                stored++;
+            }
+        } finally {
+            in.close();
+        }
+        if (dangling > 0) {
+            // they were already dangling when recorded
+            LOG.warn(file + ": " + dangling + " references to items not stored, left out.");
+        }
+        return stored;
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE));
+    }
+
+    private static void skipPairs(DataInputStream in) throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            readString(in);
+            readString(in);
+        }
+    }
+
+    // not writeUTF: values can be longer than 64k
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
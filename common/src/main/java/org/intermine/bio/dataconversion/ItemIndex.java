@@ -0,0 +1,161 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.xml.full.Item;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Items by a long key: the packed handles of SiteIndex, or a database primary key. An item is
+ * held only until it is released for storing: after that only its identifier is kept, which is
+ * all the other items need to reference it.
+ *
+ * @author
+ */
+public class ItemIndex
+{
+    private static final int INITIAL_SIZE = 1024;
+
+    private long[] keys = new long[INITIAL_SIZE * 2];  // hash slot, key
+    private int[] table = new int[INITIAL_SIZE * 2];   // hash slot, entry + 1 (0 for free)
+    private String[] identifiers = new String[INITIAL_SIZE]; // entry, item identifier
+    private Item[] pending = new Item[INITIAL_SIZE];         // entry, item not released yet
+    private int count = 0;
+    private int released = 0; // entries before this one have been released
+
+    /**
+     * @param key a key from SiteIndex
+     * @return true if an item was put with this key
+     */
+    public boolean contains(long key) {
+        return key != SiteIndex.NONE && table[slot(key)] != 0;
+    }
+
+    /**
+     * @param key a key from SiteIndex
+     * @return the identifier of the item, or null if there is none
+     */
+    public String getIdentifier(long key) {
+        if (key == SiteIndex.NONE) {
+            return null;
+        }
+        int entry = table[slot(key)] - 1;
+        return entry < 0 ? null : identifiers[entry];
+    }
+
+    /**
+     * @param key a key from SiteIndex
+     * @return the item, or null if there is none or it has already been released
+     */
+    public Item getItem(long key) {
+        if (key == SiteIndex.NONE) {
+            return null;
+        }
+        int entry = table[slot(key)] - 1;
+        return entry < 0 ? null : pending[entry];
+    }
+
+    /**
+     * Add an item, kept until released.
+     * @param key a key, not already in the index
+     * @param item the item
+     */
+    public void put(long key, Item item) {
+        add(key, item.getIdentifier(), item);
+    }
+
+    /**
+     * Add the identifier of an item already stored.
+     * @param key a key, not already in the index
+     * @param identifier the identifier of the item
+     */
+    public void put(long key, String identifier) {
+        add(key, identifier, null);
+    }
+
+    private void add(long key, String identifier, Item item) {
+        int slot = slot(key);
+        if (table[slot] != 0) {
+            throw new IllegalArgumentException("Duplicate key " + key + " for " + identifier);
+        }
+        int entry = count++;
+        if (entry == identifiers.length) {
+            identifiers = Arrays.copyOf(identifiers, entry * 2);
+            pending = Arrays.copyOf(pending, entry * 2);
+        }
+        identifiers[entry] = identifier;
+        pending[entry] = item;
+        keys[slot] = key;
+        table[slot] = entry + 1;
+        if (count * 2 > table.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Hand over the items put since the last call, in the order they were put, and drop them
+     * from the index. Their identifiers are kept.
+     * @return the items to store
+     */
+    public List<Item> release() {
+        List<Item> items = new ArrayList<>(count - released);
+        for (int entry = released; entry < count; entry++) {
+            if (pending[entry] != null) {
+                items.add(pending[entry]);
+                pending[entry] = null;
+            }
+        }
+        released = count;
+        return items;
+    }
+
+    /**
+     * @return the number of items in the index
+     */
+    public int size() {
+        return count;
+    }
+
+    private int slot(long key) {
+        int mask = table.length - 1;
+        int slot = mix(key) & mask;
+        while (table[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldTable = table;
+        keys = new long[oldKeys.length * 2];
+        table = new int[oldTable.length * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldTable[i] != 0) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                table[slot] = oldTable[i];
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,206 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.log4j.Logger;
+import org.intermine.dataconversion.DataConverter;
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The lookup items of the low cardinality values (ethnicity, gender, urgency, referral source,
+ * team): one item per class and value, with the value as its name, created at the first use and
+ * then only referenced. Spelling and case variants are the same value: the values are compared
+ * on their letters and digits, lower case ("White - British" is "white_british"), and the
+ * synonyms in lookup_synonyms.properties (e.g. the NHS codes, Gender.1 = Male) give the
+ * name of a value, and the names of the synonyms are their own name whatever their spelling.
+ * Otherwise the name is the compared form, the words capitalised ("ROUTINE" is "Routine"):
+ * the same whichever spelling is seen first, in whichever file or thread.
+ *
+ * The lookup items are stored as soon as created, so they can be shared by converters running
+ * in parallel: the methods are synchronized, the converter creating the items and the
+ * ItemWriter are locked when used, as in the site converters of PorConverter. As ItemCache
+ * SharedItems, the references to them are recorded by key (class and value), valid in the
+ * next builds.
+ *
+ * @author
+ */
+public class LookupDictionary implements ItemCache.SharedItems
+{
+    private static final Logger LOG = Logger.getLogger(LookupDictionary.class);
+
+    /** the synonyms, in the classpath */
+    public static final String SYNONYMS_FILE = "lookup_synonyms.properties";
+    private static final String NAME = "name";
+
+    private final DataConverter converter;
+    private final ItemWriter writer;
+    private final Properties synonyms = new Properties();
+    private final Map<String, String> synonymNames = new HashMap<>(); // class:value key of a name, name
+    private final Map<String, String> identifiers = new HashMap<>(); // class:value key, identifier
+    private final Map<String, String> keys = new HashMap<>();        // identifier, class:value key
+    private final Map<String, String> names = new HashMap<>();       // class:value key, name
+
+    /**
+     * @param converter creates the lookup items
+     * @param writer stores them
+     * @throws IOException if the synonyms can't be read
+     */
+    public LookupDictionary(DataConverter converter, ItemWriter writer) throws IOException {
+        this.converter = converter;
+        this.writer = writer;
+        InputStream is = getClass().getClassLoader().getResourceAsStream(SYNONYMS_FILE);
+        if (is != null) {
+            try {
+                synonyms.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        for (String property : synonyms.stringPropertyNames()) {
+            String name = synonyms.getProperty(property);
+            String className = property.substring(0, property.indexOf('.'));
+            synonymNames.put(className + ":" + normalise(name), name);
+        }
+    }
+
+    /**
+     * @param className the lookup class, e.g. Ethnicity
+     * @param value a value read
+     * @return the identifier of the lookup item of the value, null if the value is blank
+     * @throws ObjectStoreException if the item can't be stored
+     */
+    public synchronized String getIdentifier(String className, String value) throws ObjectStoreException {
+        if (value == null) {
+            return null;
+        }
+        String normalised = normalise(value);
+        if (normalised.isEmpty()) {
+            return null;
+        }
+        String key = className + ":" + normalised;
+        String identifier = identifiers.get(key);
+        if (identifier == null) {
+            String name = synonyms.getProperty(className + "." + normalised);
+            if (name == null) {
+                name = synonymNames.get(key);
+            }
+            if (name == null) {
+                name = canonical(normalised);
+            } else {
+                // the synonym and its own spellings are the same item
+                String canonical = className + ":" + normalise(name);
+                identifier = identifiers.get(canonical);
+                if (identifier != null) {
+                    identifiers.put(key, identifier);
+                    return identifier;
+                }
+                key = canonical;
+            }
+            identifier = create(className, name);
+            identifiers.put(key, identifier);
+            identifiers.put(className + ":" + normalised, identifier);
+            keys.put(identifier, key);
+            names.put(key, name);
+        }
+        return identifier;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized String getKey(String identifier) {
+        String key = keys.get(identifier);
+        return (key == null) ? null : key + ":" + names.get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized String getIdentifier(String key) throws ObjectStoreException {
+        // class:normalised value:name
+        String[] parts = key.split(":", 3);
+        if (parts.length < 3) {
+            return null;
+        }
+        return getIdentifier(parts[0], parts[2]);
+    }
+
+    /**
+     * @return the number of lookup items
+     */
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    /**
+     * @param value a value
+     * @return its letters and digits in lower case, the words joined by _
+     */
+    public static String normalise(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        boolean separator = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (separator && sb.length() > 0) {
+                    sb.append('_');
+                }
+                sb.append(Character.toLowerCase(c));
+                separator = false;
+            } else {
+                separator = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param normalised a value normalised
+     * @return its words capitalised, joined by a space
+     */
+    static String canonical(String normalised) {
+        StringBuilder sb = new StringBuilder(normalised.length());
+        boolean start = true;
+        for (int i = 0; i < normalised.length(); i++) {
+            char c = normalised.charAt(i);
+            if (c == '_') {
+                sb.append(' ');
+                start = true;
+            } else {
+                sb.append(start ? Character.toUpperCase(c) : c);
+                start = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private String create(String className, String name) throws ObjectStoreException {
+        Item item;
+        synchronized (converter) {
+            item = converter.createItem(className);
+        }
+        item.setAttribute(NAME, name);
+        synchronized (writer) {
+            writer.store(ItemHelper.convert(item));
+        }
+        LOG.debug("New " + className + ": " + name);
+        return item.getIdentifier();
+    }
+}
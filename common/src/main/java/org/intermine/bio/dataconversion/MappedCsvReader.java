@@ -0,0 +1,408 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a CSV file (comma separated, double quote as quote character, a quoted field can span
+ * several lines) from a memory mapping of the file. A record is tokenised straight from the
+ * mapped bytes into the positions of its fields: a field is only decoded into a String when
+ * get() is called, and the empty ones never are. As an Iterator it gives the records as String
+ * arrays, like FormattedTextParser.parseCsvDelimitedReader.
+ *
+ * With setColumns, only the fields of the given columns are read: the record is tokenised up
+ * to the last of them and the rest of it is skipped.
+ *
+ * A reader can also be given a part of the file (see ParallelCsvReader): it then reads the
+ * records starting in that part, the last one up to its end even if it goes past the part.
+ *
+ * The separators are found on the bytes, so the encoding must be a superset of ASCII (UTF-8,
+ * ISO-8859-1, windows-1252). A UTF-8 byte order mark is skipped. The file is mapped 1GB at a
+ * time and closed at the end of the records.
+ *
+ * @author
+ */
+public class MappedCsvReader implements Iterator<String[]>, Closeable
+{
+    private static final long DEFAULT_WINDOW = 1L << 30;
+    private static final int INITIAL_FIELDS = 64;
+
+    private final File file;
+    private final Charset charset;
+    private final long window;           // bytes mapped at a time
+    private final long length;
+    private final long end;              // the records starting before end are read
+    private FileChannel channel = null;  // only kept open if the file needs more than one window
+    private MappedByteBuffer buffer = null;
+    private ByteBuffer view = null;  // to copy the fields out of the buffer
+    private long base = 0;           // file position of the buffer
+    private int pos = 0;             // start of the next record in the buffer
+
+    private int size = 0;            // fields of the current record
+    private int[] starts = new int[INITIAL_FIELDS];
+    private int[] ends = new int[INITIAL_FIELDS];
+    private boolean[] escaped = new boolean[INITIAL_FIELDS]; // field contains doubled quotes
+    private byte[] scratch = new byte[256];
+    private Boolean hasNext = null;
+    private boolean[] needed = null;      // the columns read, null for all
+    private int lastNeeded = Integer.MAX_VALUE;
+
+    /**
+     * @param file the CSV file
+     * @param charset the encoding of the file
+     * @throws IOException if the file can't be mapped
+     */
+    public MappedCsvReader(File file, Charset charset) throws IOException {
+        this(file, charset, DEFAULT_WINDOW, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Read the records starting in a part of the file.
+     * @param file the CSV file
+     * @param charset the encoding of the file
+     * @param start the position of the first record
+     * @param end the records starting at or after this position are not read
+     * @throws IOException if the file can't be mapped
+     */
+    public MappedCsvReader(File file, Charset charset, long start, long end) throws IOException {
+        this(file, charset, DEFAULT_WINDOW, start, end);
+    }
+
+    /**
+     * @param file the CSV file, in UTF-8
+     * @throws IOException if the file can't be mapped
+     */
+    public MappedCsvReader(File file) throws IOException {
+        this(file, StandardCharsets.UTF_8);
+    }
+
+    // window: for the tests
+    MappedCsvReader(File file, Charset charset, long window) throws IOException {
+        this(file, charset, window, 0, Long.MAX_VALUE);
+    }
+
+    MappedCsvReader(File file, Charset charset, long window, long start, long end) throws IOException {
+        this.file = file;
+        this.charset = charset;
+        this.window = window;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        length = channel.size();
+        this.end = Math.min(end, length);
+        map(Math.min(start, length));
+        if (length - base <= window) {
+            // the mapping stays valid
+            close();
+        }
+        if (start == 0 && StandardCharsets.UTF_8.equals(charset) && length >= 3 && (buffer.get(0) & 0xff) == 0xef
+                && (buffer.get(1) & 0xff) == 0xbb && (buffer.get(2) & 0xff) == 0xbf) {
+            pos = 3;
+        }
+    }
+
+    /**
+     * Only read some columns of the next records. The fields of the other columns are null in
+     * the arrays given by next(), and the record isn't tokenised after the last column.
+     * @param columns the indexes of the columns used
+     */
+    public void setColumns(int... columns) {
+        int last = -1;
+        for (int column : columns) {
+            last = Math.max(last, column);
+        }
+        needed = new boolean[last + 1];
+        for (int column : columns) {
+            needed[column] = true;
+        }
+        lastNeeded = last;
+    }
+
+    /**
+     * Move to the next record.
+     * @return false at the end of the file
+     * @throws IOException if the file can't be mapped
+     */
+    public boolean nextRecord() throws IOException {
+        hasNext = null;
+        if (base + pos >= end) {
+            size = 0;
+            close();
+            return false;
+        }
+        while (!tokenise()) {
+            if (pos == 0) {
+                throw new IOException(file + ": record at " + base + " larger than " + window + " bytes");
+            }
+            map(base + pos);
+        }
+        return true;
+    }
+
+    /**
+     * @return the position in the file of the record after the current one
+     */
+    public long getPosition() {
+        return base + pos;
+    }
+
+    /**
+     * @return the number of fields in the current record
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i a field of the current record
+     * @return true if the field is empty (or missing)
+     */
+    public boolean isEmpty(int i) {
+        return i >= size || starts[i] == ends[i];
+    }
+
+    /**
+     * @param i a field of the current record
+     * @param s ASCII text
+     * @return true if the field contains s
+     */
+    public boolean contains(int i, String s) {
+        if (i >= size) {
+            return false;
+        }
+        int last = ends[i] - s.length();
+        for (int p = starts[i]; p <= last; p++) {
+            int k = 0;
+            while (k < s.length() && buffer.get(p + k) == (byte) s.charAt(k)) {
+                k++;
+            }
+            if (k == s.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param i a field of the current record
+     * @return the field, the empty string if empty or missing
+     */
+    public String get(int i) {
+        if (isEmpty(i)) {
+            return "";
+        }
+        int start = starts[i];
+        int len = ends[i] - start;
+        if (scratch.length < len) {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        }
+        view.position(start);
+        view.get(scratch, 0, len);
+        if (escaped[i]) {
+            len = unescape(scratch, len);
+        }
+        return new String(scratch, 0, len, charset);
+    }
+
+    /**
+     * @return the fields of the current record, null for the columns not read
+     */
+    public String[] toArray() {
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (needed == null || needed[i]) {
+                values[i] = get(i);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if (hasNext == null) {
+            try {
+                hasNext = nextRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return hasNext;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNext = null;
+        return toArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void map(long position) throws IOException {
+        if (channel == null) {
+            throw new IOException(file + " closed");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, length - position));
+        view = buffer.duplicate();
+        base = position;
+        pos = 0;
+    }
+
+    /**
+     * find the fields of the record at pos
+     * @return false if the record doesn't end in the buffer and the file goes on
+     */
+    private boolean tokenise() {
+        int limit = buffer.limit();
+        boolean more = base + limit < length;
+        int i = pos;
+        size = 0;
+        while (true) {
+            int start;
+            int end;
+            boolean esc = false;
+            if (i < limit && buffer.get(i) == '"') {
+                start = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        if (more) {
+                            return false;
+                        }
+                        end = i;
+                        break;
+                    }
+                    if (buffer.get(i) == '"') {
+                        if (i + 1 >= limit && more) {
+                            return false;
+                        }
+                        if (i + 1 < limit && buffer.get(i + 1) == '"') {
+                            esc = true;
+                            i += 2;
+                            continue;
+                        }
+                        end = i++;
+                        break;
+                    }
+                    i++;
+                }
+                // anything after the closing quote is ignored
+                i = endOfField(i, limit);
+            } else {
+                start = i;
+                i = endOfField(i, limit);
+                end = i;
+                if (end > start && buffer.get(end - 1) == '\r' && (i >= limit || buffer.get(i) == '\n')) {
+                    end--;
+                }
+            }
+            if (i >= limit && more) {
+                return false;
+            }
+            add(start, end, esc);
+            if (size > lastNeeded && i < limit && buffer.get(i) == ',') {
+                i = endOfRecord(i + 1, limit);
+                if (i >= limit && more) {
+                    return false;
+                }
+            }
+            if (i >= limit) {
+                pos = i;
+                return true;
+            }
+            if (buffer.get(i) == '\n') {
+                pos = i + 1;
+                return true;
+            }
+            i++;
+        }
+    }
+
+    private int endOfField(int i, int limit) {
+        while (i < limit) {
+            byte b = buffer.get(i);
+            if (b == ',' || b == '\n') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    // the end of line ending the record from the start of a field, skipping the quoted ones: as
+    // in tokenise(), a field is only quoted if it starts with a quote, and "" in it is a quote
+    private int endOfRecord(int i, int limit) {
+        boolean quoted = false;
+        boolean quotable = true;  // at the start of a field, or just after a closing quote
+        while (i < limit) {
+            byte b = buffer.get(i);
+            if (b == '"' && (quoted || quotable)) {
+                quoted = !quoted;
+                quotable = !quoted;
+            } else if (!quoted && b == '\n') {
+                break;
+            } else {
+                quotable = !quoted && b == ',';
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private void add(int start, int end, boolean esc) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            escaped = Arrays.copyOf(escaped, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        escaped[size] = esc;
+        size++;
+    }
+
+    // "" -> "
+    private static int unescape(byte[] bytes, int len) {
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            bytes[n++] = bytes[i];
+            if (bytes[i] == '"' && i + 1 < len && bytes[i + 1] == '"') {
+                i++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,95 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+
+import java.util.Collection;
+
+/**
+ * An ItemWriter timing the calls to the ItemWriter it passes the items on to, for the
+ * SiteMetrics of the site being converted. Nothing is timed without a site.
+ *
+ * @author
+ */
+public class MeteredItemWriter implements ItemWriter
+{
+    private final ItemWriter target;
+    private volatile SiteMetrics site = null;
+
+    /**
+     * @param target the ItemWriter the items are passed on to
+     */
+    public MeteredItemWriter(ItemWriter target) {
+        this.target = target;
+    }
+
+    /**
+     * @param site the metrics of the site being converted, null for none
+     */
+    public void setSite(SiteMetrics site) {
+        this.site = site;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer store(Item item) throws ObjectStoreException {
+        SiteMetrics metrics = site;
+        if (metrics == null) {
+            return target.store(item);
+        }
+        long start = System.nanoTime();
+        Integer id = target.store(item);
+        metrics.stored(System.nanoTime() - start, 1);
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void storeAll(Collection<Item> items) throws ObjectStoreException {
+        SiteMetrics metrics = site;
+        if (metrics == null) {
+            target.storeAll(items);
+            return;
+        }
+        long start = System.nanoTime();
+        int size = items.size();
+        target.storeAll(items);
+        metrics.stored(System.nanoTime() - start, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(ReferenceList refList, Integer itemId) throws ObjectStoreException {
+        target.store(refList, itemId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Attribute att, Integer itemId) throws ObjectStoreException {
+        target.store(att, itemId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws ObjectStoreException {
+        target.close();
+    }
+}
@@ -0,0 +1,231 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Reads the records of a large CSV file with several threads, and gives them in the order of
+ * the file: the conversion of the records is left to the calling thread, as with
+ * MappedCsvReader, so it does the same as a serial read. The file is cut in chunks that are
+ * tokenised and turned into String arrays on a ForkJoinPool, a few chunks ahead of the records
+ * given.
+ *
+ * A chunk starts after an end of line, which is not a record boundary if it is in a quoted
+ * field: each chunk is read from its start to the end of the record going over its end, and
+ * when this is not where the next chunk started, the next chunk is read again from there, in
+ * the calling thread. Without a pool, the records are read one at a time from a MappedCsvReader.
+ *
+ * @author
+ */
+public class ParallelCsvReader implements Iterator<String[]>, Closeable
+{
+    private static final long DEFAULT_CHUNK_SIZE = 8L << 20;
+    private static final int SCAN_SIZE = 8192;
+
+    private final File file;
+    private final Charset charset;
+    private final ForkJoinPool pool;
+    private final Function<MappedCsvReader, String[]> rows;
+    private final long chunkSize;
+    private final long length;
+    private final int ahead;  // chunks read at the same time
+
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+    private MappedCsvReader serial = null;  // without a pool
+    private Boolean hasNext = null;
+    private FileChannel channel = null;
+    private long nextStart;       // of the next chunk submitted
+    private long expected;        // the end of the records read so far
+    private Iterator<String[]> current = Collections.emptyIterator();
+
+    /**
+     * A part of the file, and the records starting in it once read.
+     */
+    private static class Chunk
+    {
+        final long start;
+        final long end;
+        ForkJoinTask<List<String[]>> task = null;
+        long next;  // the end of the last record
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @param file the CSV file
+     * @param charset the encoding of the file
+     * @param pool the threads reading the chunks, null to read the file in the calling thread
+     * @param start the position of the first record read (e.g. after the header, see
+     * MappedCsvReader.getPosition())
+     * @param rows gives the array of the current record of a reader (e.g. toArray()), called
+     * from the threads of the pool
+     * @throws IOException if the file can't be read
+     */
+    public ParallelCsvReader(File file, Charset charset, ForkJoinPool pool, long start,
+                             Function<MappedCsvReader, String[]> rows) throws IOException {
+        this(file, charset, pool, start, rows, DEFAULT_CHUNK_SIZE);
+    }
+
+    // chunkSize: for the tests
+    ParallelCsvReader(File file, Charset charset, ForkJoinPool pool, long start,
+                      Function<MappedCsvReader, String[]> rows, long chunkSize) throws IOException {
+        this.file = file;
+        this.charset = charset;
+        this.pool = pool;
+        this.rows = rows;
+        this.chunkSize = chunkSize;
+        nextStart = start;
+        expected = start;
+        if (pool == null) {
+            serial = new MappedCsvReader(file, charset, start, Long.MAX_VALUE);
+            ahead = 0;
+            length = 0;
+        } else {
+            ahead = 2 * pool.getParallelism();
+            channel = new RandomAccessFile(file, "r").getChannel();
+            length = channel.size();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        try {
+            if (serial != null) {
+                if (hasNext == null) {
+                    hasNext = serial.nextRecord();
+                }
+                return hasNext;
+            }
+            while (!current.hasNext()) {
+                submit();
+                if (pending.isEmpty()) {
+                    close();
+                    return false;
+                }
+                Chunk chunk = pending.removeFirst();
+                List<String[]> records;
+                if (chunk.start == expected) {
+                    records = chunk.task.join();
+                } else {
+                    // started in a quoted field, or in a record of the chunk before
+                    chunk.task.cancel(true);
+                    chunk = new Chunk(expected, Math.max(expected, chunk.end));
+                    records = read(chunk);
+                }
+                expected = chunk.next;
+                current = records.iterator();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (serial != null) {
+            hasNext = null;
+            return rows.apply(serial);
+        }
+        return current.next();
+    }
+
+    /**
+     * Stop reading: the chunks being read are cancelled.
+     * @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException {
+        for (Chunk chunk : pending) {
+            chunk.task.cancel(true);
+        }
+        pending.clear();
+        if (serial != null) {
+            serial.close();
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // the next chunks, up to ahead
+    private void submit() throws IOException {
+        while (pending.size() < ahead && nextStart < length) {
+            long end = (length - nextStart <= chunkSize) ? length : recordStart(nextStart + chunkSize);
+            final Chunk chunk = new Chunk(nextStart, end);
+            chunk.task = pool.submit(() -> read(chunk));
+            pending.addLast(chunk);
+            nextStart = end;
+        }
+    }
+
+    private List<String[]> read(Chunk chunk) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        MappedCsvReader reader = new MappedCsvReader(file, charset, chunk.start, chunk.end);
+        try {
+            while (reader.nextRecord()) {
+                records.add(rows.apply(reader));
+            }
+            chunk.next = reader.getPosition();
+            return records;
+        } finally {
+            reader.close();
+        }
+    }
+
+    // the position after the first end of line at or after position - 1
+    private long recordStart(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+        long p = position - 1;
+        while (p < length) {
+            buffer.clear();
+            int read = channel.read(buffer, p);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return p + i + 1;
+                }
+            }
+            p += read;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,212 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Keeps records (String arrays, e.g. the rows of a file that can't be converted yet) to read
+ * them again later, in the order they were added. The records are kept encoded in a byte
+ * array: past a memory limit, the bytes are written to a temporary file.
+ *
+ * A record is its number of fields then, for each field, its length in bytes plus one (0 for
+ * null) and its UTF-8 bytes, the numbers as varints: an empty field takes one byte.
+ *
+ * @author
+ */
+public class RecordSpill implements Iterable<String[]>, Closeable
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long memoryLimit;
+    private byte[] bytes = new byte[1024];
+    private int length = 0;
+    private File file = null;
+    private OutputStream out = null;
+    private int size = 0;
+
+    /**
+     * @param memoryLimit the number of bytes kept in memory before writing to a file
+     */
+    public RecordSpill(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * @param record the record to keep
+     * @throws IOException if the temporary file can't be written
+     */
+    public void add(String[] record) throws IOException {
+        if (out == null && file != null) {
+            throw new IllegalStateException("Can't add records once read");
+        }
+        writeVarint(record.length);
+        for (String field : record) {
+            if (field == null) {
+                writeVarint(0);
+                continue;
+            }
+            byte[] value = field.getBytes(StandardCharsets.UTF_8);
+            writeVarint(value.length + 1);
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+        }
+        size++;
+        if (length > memoryLimit) {
+            spill();
+        }
+    }
+
+    /**
+     * @return the number of records kept
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if some records have been written to a file
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Read the records, in the order they were added. No records can be added after.
+     * @return the records
+     */
+    public Iterator<String[]> iterator() {
+        final DataInputStream in;
+        try {
+            InputStream memory = new ByteArrayInputStream(bytes, 0, length);
+            if (file != null) {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+                memory = new SequenceInputStream(
+                        new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), memory);
+            }
+            in = new DataInputStream(memory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Iterator<String[]>() {
+            private int read = 0;
+
+            public boolean hasNext() {
+                if (read < size) {
+                    return true;
+                }
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return false;
+            }
+
+            public String[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    String[] record = new String[readVarint(in)];
+                    for (int i = 0; i < record.length; i++) {
+                        int len = readVarint(in) - 1;
+                        if (len >= 0) {
+                            byte[] value = new byte[len];
+                            in.readFully(value);
+                            record[i] = new String(value, StandardCharsets.UTF_8);
+                        }
+                    }
+                    read++;
+                    return record;
+                } catch (EOFException e) {
+                    throw new UncheckedIOException(file + " is truncated", e);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Drop the records, and the temporary file.
+     * @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (file != null) {
+            file.delete();
+        }
+        bytes = new byte[0];
+        length = 0;
+        size = 0;
+    }
+
+    private void spill() throws IOException {
+        if (file == null) {
+            file = File.createTempFile("records", ".spill");
+            file.deleteOnExit();
+            out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        }
+        out.write(bytes, 0, length);
+        length = 0;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(length + extra, bytes.length * 2));
+        }
+    }
+
+    private void writeVarint(int value) {
+        ensure(5);
+        while ((value & ~0x7f) != 0) {
+            bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
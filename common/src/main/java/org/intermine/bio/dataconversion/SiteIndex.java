@@ -0,0 +1,155 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * Interns the patient and referral identifiers of a site to int handles, so that a referral can
+ * be looked up with a packed long (patient handle, referral handle) instead of building a
+ * "patientId-referralId" String on every row.
+ *
+ * @author
+ */
+public class SiteIndex
+{
+    /** the key of an identifier never seen */
+    public static final long NONE = -1L;
+
+    private static final int INITIAL_SIZE = 1024;
+
+    private String[] ids = new String[INITIAL_SIZE];   // handle, identifier
+    private int[] table = new int[INITIAL_SIZE * 2];  // hash slot, handle + 1 (0 for free)
+    private int count = 0;
+
+    /**
+     * @param id a site identifier
+     * @return the handle of the identifier, allocating one if new
+     */
+    public int intern(String id) {
+        int slot = slot(id);
+        int handle = table[slot] - 1;
+        if (handle >= 0) {
+            return handle;
+        }
+        handle = count++;
+        if (handle == ids.length) {
+            ids = Arrays.copyOf(ids, handle * 2);
+        }
+        ids[handle] = id;
+        table[slot] = handle + 1;
+        if (count * 2 > table.length) {
+            rehash();
+        }
+        return handle;
+    }
+
+    /**
+     * @param id a site identifier
+     * @return the handle of the identifier, or -1 if it was never interned
+     */
+    public int find(String id) {
+        if (id == null) {
+            return -1;
+        }
+        return table[slot(id)] - 1;
+    }
+
+    /**
+     * @param handle a handle returned by intern
+     * @return the identifier
+     */
+    public String getId(int handle) {
+        return ids[handle];
+    }
+
+    /**
+     * @return the number of identifiers interned
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param patientId a patient identifier
+     * @return the key of the patient, interning the identifier
+     */
+    public long patientKey(String patientId) {
+        return intern(patientId);
+    }
+
+    /**
+     * @param patientId a patient identifier
+     * @param referralId a referral identifier
+     * @return the key of the referral, interning the identifiers
+     */
+    public long referralKey(String patientId, String referralId) {
+        return pack(intern(patientId), intern(referralId));
+    }
+
+    /**
+     * @param patientId a patient identifier
+     * @return the key of the patient, or NONE if never seen
+     */
+    public long findPatient(String patientId) {
+        return find(patientId);
+    }
+
+    /**
+     * @param patientId a patient identifier
+     * @param referralId a referral identifier
+     * @return the key of the referral, or NONE if either identifier was never seen
+     */
+    public long findReferral(String patientId, String referralId) {
+        return pack(find(patientId), find(referralId));
+    }
+
+    /**
+     * @param patient a patient handle
+     * @param referral a referral handle
+     * @return the two handles in a long, or NONE if one of them is missing
+     */
+    public static long pack(int patient, int referral) {
+        if (patient < 0 || referral < 0) {
+            return NONE;
+        }
+        return ((long) patient << 32) | referral;
+    }
+
+    private int slot(String id) {
+        int mask = table.length - 1;
+        int slot = mix(id.hashCode()) & mask;
+        while (true) {
+            int handle = table[slot] - 1;
+            if (handle < 0 || ids[handle].equals(id)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int handle = 0; handle < count; handle++) {
+            int slot = mix(ids[handle].hashCode()) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = handle + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
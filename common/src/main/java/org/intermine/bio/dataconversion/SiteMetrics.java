@@ -0,0 +1,318 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and timers of the conversion of a site: the rows read, skipped (no identifier)
+ * and orphan (for a patient or referral not found) of each file, the items created by class,
+ * the time of the calls to the ItemWriter, the largest sizes of the caches and of the heap.
+ *
+ * The counters are changed by the thread converting the site, and can be read at any time
+ * (see ConversionMetrics, which exports them through JMX and as JSON).
+ *
+ * @author
+ */
+public class SiteMetrics implements SiteMetricsMXBean
+{
+    private static final int BUCKETS = 32; // up to 2^31 microseconds
+
+    private final String site;
+    private final List<FileMetrics> files = new ArrayList<>();
+    private FileMetrics file = null;  // being read
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong orphans = new AtomicLong();
+    private final AtomicLong millis = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong peakHeap = new AtomicLong();
+    private final Map<String, LongAdder> created = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> caches = new ConcurrentHashMap<>();
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The counters of a file.
+     */
+    public static class FileMetrics
+    {
+        private final String name;
+        private final long start = System.nanoTime();
+        private long rows = 0;
+        private long skipped = 0;
+        private long orphans = 0;
+        private long millis = -1;
+
+        FileMetrics(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the name of the file
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of rows read
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the number of rows without identifier
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return the number of rows for a patient or referral not found
+         */
+        public long getOrphans() {
+            return orphans;
+        }
+
+        /**
+         * @return the time spent reading the file, in milliseconds (so far if not finished)
+         */
+        public long getMillis() {
+            return (millis < 0) ? (System.nanoTime() - start) / 1000000 : millis;
+        }
+    }
+
+    /**
+     * @param site the name of the site
+     */
+    public SiteMetrics(String site) {
+        this.site = site;
+    }
+
+    /**
+     * Start counting the rows of a file, ending the previous one.
+     * @param name the name of the file
+     */
+    public void startFile(String name) {
+        endFile();
+        file = new FileMetrics(name);
+        synchronized (files) {
+            files.add(file);
+        }
+    }
+
+    /**
+     * Stop timing the file being read, and sample the heap used.
+     */
+    public void endFile() {
+        if (file == null) {
+            return;
+        }
+        file.millis = (System.nanoTime() - file.start) / 1000000;
+        millis.addAndGet(file.millis);
+        file = null;
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        peak(peakHeap, heap);
+    }
+
+    /**
+     * Count a row of the current file.
+     */
+    public void row() {
+        rows.incrementAndGet();
+        if (file != null) {
+            file.rows++;
+        }
+    }
+
+    /**
+     * Count a row of the current file skipped for having no identifier.
+     */
+    public void skipped() {
+        skipped.incrementAndGet();
+        if (file != null) {
+            file.skipped++;
+        }
+    }
+
+    /**
+     * Count a row of the current file for a patient or referral not found.
+     */
+    public void orphan() {
+        orphans.incrementAndGet();
+        if (file != null) {
+            file.orphans++;
+        }
+    }
+
+    /**
+     * @param className the class of an item created
+     */
+    public void created(String className) {
+        LongAdder count = created.get(className);
+        if (count == null) {
+            count = created.computeIfAbsent(className, k -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * @param nanos the time of a call to the ItemWriter
+     * @param items the number of items it stored
+     */
+    public void stored(long nanos, int items) {
+        stored.addAndGet(items);
+        long micros = nanos / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        latencies.incrementAndGet(bucket);
+    }
+
+    /**
+     * @param cache the name of a cache
+     * @param size its size now
+     */
+    public void cacheSize(String cache, long size) {
+        AtomicLong peak = caches.get(cache);
+        if (peak == null) {
+            peak = caches.computeIfAbsent(cache, k -> new AtomicLong());
+        }
+        peak(peak, size);
+    }
+
+    /**
+     * @return the files read, in order
+     */
+    public List<FileMetrics> getFileMetrics() {
+        synchronized (files) {
+            return new ArrayList<>(files);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getSite() {
+        return site;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getFiles() {
+        synchronized (files) {
+            return files.size();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRows() {
+        return rows.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSkippedRows() {
+        return skipped.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getOrphanRows() {
+        return orphans.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getRowsPerSecond() {
+        long time = getMillis();
+        return (time == 0) ? 0 : rows.get() * 1000.0 / time;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMillis() {
+        FileMetrics current = file;
+        return millis.get() + ((current == null) ? 0 : current.getMillis());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getItemsCreated() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : created.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getItemsStored() {
+        return stored.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getStoreLatencyMicros() {
+        // in order of the bounds
+        Map<String, Long> histogram = new TreeMap<>((a, b) -> Long.compare(Long.parseLong(a), Long.parseLong(b)));
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = latencies.get(i);
+            if (count > 0) {
+                histogram.put(String.valueOf(1L << i), count);
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getPeakCacheSizes() {
+        Map<String, Long> sizes = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : caches.entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue().get());
+        }
+        return sizes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPeakHeapBytes() {
+        return peakHeap.get();
+    }
+
+    private static void peak(AtomicLong peak, long value) {
+        long current = peak.get();
+        while (value > current && !peak.compareAndSet(current, value)) {
+            current = peak.get();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Map;
+
+/**
+ * The conversion metrics of a site, as seen through JMX while the converter runs.
+ *
+ * @author
+ */
+public interface SiteMetricsMXBean
+{
+    /**
+     * @return the name of the site
+     */
+    String getSite();
+
+    /**
+     * @return the number of files read
+     */
+    int getFiles();
+
+    /**
+     * @return the number of rows read
+     */
+    long getRows();
+
+    /**
+     * @return the number of rows skipped because they have no identifier
+     */
+    long getSkippedRows();
+
+    /**
+     * @return the number of rows for a patient or referral not found
+     */
+    long getOrphanRows();
+
+    /**
+     * @return the rows read per second, over the time spent reading files
+     */
+    double getRowsPerSecond();
+
+    /**
+     * @return the time spent reading files, in milliseconds
+     */
+    long getMillis();
+
+    /**
+     * @return the number of items created, by class
+     */
+    Map<String, Long> getItemsCreated();
+
+    /**
+     * @return the number of items stored
+     */
+    long getItemsStored();
+
+    /**
+     * @return the number of calls to the ItemWriter by upper bound of their duration in
+     * microseconds (1, 2, 4, ...)
+     */
+    Map<String, Long> getStoreLatencyMicros();
+
+    /**
+     * @return the largest size seen of each cache (e.g. the patients of the site)
+     */
+    Map<String, Long> getPeakCacheSizes();
+
+    /**
+     * @return the largest heap used seen at the end of a file, in bytes
+     */
+    long getPeakHeapBytes();
+}
@@ -0,0 +1,88 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+public class ConversionMetricsTest extends TestCase
+{
+    public ConversionMetricsTest(String arg) {
+        super(arg);
+    }
+
+    public void testCounters() throws Exception {
+        ConversionMetrics metrics = new ConversionMetrics("POR");
+        SiteMetrics site = metrics.getSite("Camden");
+        assertSame(site, metrics.getSite("Camden"));
+
+        site.startFile("Camden.csv");
+        site.row();
+        site.row();
+        site.skipped();
+        site.row();
+        site.orphan();
+        site.created("Patient");
+        site.created("Contact");
+        site.created("Contact");
+        site.stored(500, 1);         // < 1 us
+        site.stored(3000, 10);       // 3 us
+        site.cacheSize("patients", 10);
+        site.cacheSize("patients", 4);
+        site.endFile();
+        site.startFile("Other.csv");
+        site.row();
+        site.endFile();
+
+        assertEquals(2, site.getFiles());
+        assertEquals(4, site.getRows());
+        assertEquals(1, site.getSkippedRows());
+        assertEquals(1, site.getOrphanRows());
+        assertEquals(11, site.getItemsStored());
+        Map<String, Long> created = site.getItemsCreated();
+        assertEquals(Long.valueOf(1), created.get("Patient"));
+        assertEquals(Long.valueOf(2), created.get("Contact"));
+        Map<String, Long> latencies = site.getStoreLatencyMicros();
+        assertEquals(Long.valueOf(1), latencies.get("1"));
+        assertEquals(Long.valueOf(1), latencies.get("4"));
+        assertEquals(Long.valueOf(10), site.getPeakCacheSizes().get("patients"));
+        assertTrue(site.getPeakHeapBytes() > 0);
+        assertEquals(3, site.getFileMetrics().get(0).getRows());
+        assertEquals(1, site.getFileMetrics().get(1).getRows());
+
+        String json = metrics.toJson();
+        assertTrue(json, json.contains("\"source\": \"POR\""));
+        assertTrue(json, json.contains("\"site\": \"Camden\""));
+        assertTrue(json, json.contains("\"itemsCreated\": {\"Contact\": 2, \"Patient\": 1}"));
+        assertTrue(json, json.contains("{\"name\": \"Camden.csv\", \"rows\": 3, \"skippedRows\": 1, \"orphanRows\": 1"));
+        metrics.close();
+    }
+
+    public void testJmx() throws Exception {
+        ConversionMetrics metrics = new ConversionMetrics("NHS");
+        metrics.getSite("Cambridge and Peterborough").row();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.intermine.bio.dataconversion:type=SiteMetrics,source="
+                + ObjectName.quote("NHS") + ",site=" + ObjectName.quote("Cambridge and Peterborough"));
+        assertTrue(server.isRegistered(name));
+        assertEquals(1L, server.getAttribute(name, "Rows"));
+        // a new run replaces it
+        ConversionMetrics next = new ConversionMetrics("NHS");
+        next.getSite("Cambridge and Peterborough");
+        assertEquals(0L, server.getAttribute(name, "Rows"));
+        next.close();
+        assertFalse(server.isRegistered(name));
+    }
+}
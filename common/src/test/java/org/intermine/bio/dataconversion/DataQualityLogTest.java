@@ -0,0 +1,77 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DataQualityLogTest extends TestCase
+{
+    private Logger log;
+    private List<String> lines;
+
+    public DataQualityLogTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() {
+        lines = new ArrayList<>();
+        log = Logger.getLogger(DataQualityLogTest.class);
+        log.removeAllAppenders();
+        log.setAdditivity(false);
+        log.setLevel(Level.WARN);
+        log.addAppender(new AppenderSkeleton() {
+            protected void append(LoggingEvent event) {
+                lines.add(event.getLevel() + " " + event.getRenderedMessage());
+            }
+
+            public void close() {
+            }
+
+            public boolean requiresLayout() {
+                return false;
+            }
+        });
+    }
+
+    public void testReport() throws Exception {
+        DataQualityLog quality = new DataQualityLog(log, 2);
+        quality.warn("contacts for an unknown patient", "P1");
+        quality.warn("contacts for an unknown patient", "P2");
+        quality.warn("contacts for an unknown patient", "P2");
+        quality.warn("contacts for an unknown patient", "P3");
+        quality.warn("rows with missing data", "12");
+        quality.info("patient rows", "P1|R1");
+        assertTrue(lines.isEmpty());
+
+        quality.report("Camden, Camden.csv");
+        assertEquals(2, lines.size());
+        assertEquals("WARN Camden, Camden.csv: 4 contacts for an unknown patient, e.g. P1, P2", lines.get(0));
+        assertEquals("WARN Camden, Camden.csv: 1 rows with missing data: 12", lines.get(1));
+
+        lines.clear();
+        quality.report("Camden, Other.csv");
+        assertTrue(lines.isEmpty());
+        quality.warn("contacts for an unknown patient", "P4");
+        quality.report("Camden, Other.csv");
+        assertEquals("WARN Camden, Other.csv: 1 contacts for an unknown patient: P4", lines.get(0));
+
+        assertEquals(5, quality.getCount("contacts for an unknown patient"));
+        assertEquals(1, quality.getCount("patient rows"));
+        assertEquals(0, quality.getCount("other"));
+    }
+}
@@ -0,0 +1,50 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import java.time.LocalDate;
+
+public class DateParserTest extends TestCase
+{
+    private DateParser parser = DateParser.getInstance();
+
+    public DateParserTest(String arg) {
+        super(arg);
+    }
+
+    public void testFormats() throws Exception {
+        int day = (int) LocalDate.of(2015, 11, 3).toEpochDay();
+        assertEquals(day, parser.toEpochDay("03/11/15 11:24"));
+        assertEquals(day, parser.toEpochDay("03/11/15"));
+        assertEquals(day, parser.toEpochDay("03/11/2015"));
+        assertEquals(day, parser.toEpochDay("2015-11-03"));
+        assertEquals(day, parser.toEpochDay("2015-11-03 00:00:00"));
+        assertEquals((int) LocalDate.of(1998, 1, 2).toEpochDay(), parser.toEpochDay("02/01/98"));
+    }
+
+    public void testNotDates() throws Exception {
+        assertEquals(DateParser.NO_DATE, parser.toEpochDay(""));
+        assertEquals(DateParser.NO_DATE, parser.toEpochDay("NULL"));
+        assertEquals(DateParser.NO_DATE, parser.toEpochDay("NotAvailable"));
+        assertEquals(DateParser.NO_DATE, parser.toEpochDay("NA"));
+        assertEquals(DateParser.NO_DATE, parser.toEpochDay("31/02/15"));
+        assertEquals(DateParser.NO_DATE, parser.toEpochDay("2015-04-01-2019-03-31"));
+        assertNull(parser.toAttribute("NULL"));
+    }
+
+    public void testAttribute() throws Exception {
+        assertEquals("1446508800000", parser.toAttribute("03/11/15 11:24"));
+        // cached
+        assertSame(parser.toAttribute("26/09/14"), parser.toAttribute("26/09/14"));
+    }
+}
@@ -0,0 +1,121 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class FileManifestTest extends TestCase
+{
+    private File data;
+    private File manifestDir;
+
+    public FileManifestTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        data = Files.createTempDirectory("manifest").toFile();
+        manifestDir = new File(data, "manifest");
+    }
+
+    public void tearDown() throws Exception {
+        delete(data);
+    }
+
+    public void testUnchanged() throws Exception {
+        File patients = write("Camden_Patient.csv", "P1,R1\n");
+        File contacts = write("Camden_Contact.csv", "R1,01/01/2018\n");
+        List<File> files = Arrays.asList(patients, contacts);
+
+        FileManifest manifest = new FileManifest(manifestDir, "1");
+        assertFalse(manifest.isUnchanged("Camden", files));
+        assertEquals(-1, manifest.getItems("Camden"));
+        manifest.update("Camden", files, 42);
+        // no cache yet
+        assertFalse(manifest.isUnchanged("Camden", files));
+        assertTrue(manifest.getCache("Camden").createNewFile());
+        assertTrue(manifest.isUnchanged("Camden", files));
+
+        manifest = new FileManifest(manifestDir, "1");
+        assertTrue(manifest.isUnchanged("Camden", files));
+        assertEquals(42, manifest.getItems("Camden"));
+        assertFalse(manifest.isUnchanged("Camden", Arrays.asList(patients)));
+        assertFalse(manifest.isUnchanged("Bexley", files));
+
+        write("Camden_Contact.csv", "R1,02/01/2018\n");
+        manifest = new FileManifest(manifestDir, "1");
+        assertFalse(manifest.isUnchanged("Camden", files));
+    }
+
+    public void testVersion() throws Exception {
+        List<File> files = Arrays.asList(write("Bexley.csv", "P1,R1\n"));
+        FileManifest manifest = new FileManifest(manifestDir, "1");
+        manifest.update("Bexley", files, 1);
+        assertTrue(manifest.getCache("Bexley").createNewFile());
+        assertTrue(new FileManifest(manifestDir, "1").isUnchanged("Bexley", files));
+        assertFalse(new FileManifest(manifestDir, "2").isUnchanged("Bexley", files));
+
+        String version = FileManifest.version(getClass().getClassLoader(),
+                FileManifest.classFile(FileManifest.class), "no_such_file.properties");
+        assertEquals(version, FileManifest.version(getClass().getClassLoader(),
+                FileManifest.classFile(FileManifest.class), "no_such_file.properties"));
+        assertFalse(version.equals(FileManifest.version(getClass().getClassLoader(),
+                FileManifest.classFile(ItemCache.class), "no_such_file.properties")));
+    }
+
+    public void testCodeVersion() throws Exception {
+        File classes = new File(data, "classes");
+        assertTrue(new File(classes, "org/intermine").mkdirs());
+        write("classes/org/intermine/Converter.class", "1");
+        write("classes/org/intermine/Reader.class", "1");
+        String version = FileManifest.hashTree(classes);
+        assertEquals(version, FileManifest.hashTree(classes));
+        // any class of the jar
+        write("classes/org/intermine/Reader.class", "2");
+        assertFalse(version.equals(FileManifest.hashTree(classes)));
+        write("classes/org/intermine/Reader.class", "1");
+        assertEquals(version, FileManifest.hashTree(classes));
+        File reader = new File(classes, "org/intermine/Reader.class");
+        assertTrue(reader.renameTo(new File(classes, "org/intermine/Cache.class")));
+        assertFalse(version.equals(FileManifest.hashTree(classes)));
+
+        // a jar or class directory once, whatever the number of its classes
+        String code = FileManifest.codeVersion(FileManifest.class);
+        assertEquals(code, FileManifest.codeVersion(FileManifest.class, ItemCache.class));
+        assertEquals(code + " java.lang.String:none", FileManifest.codeVersion(FileManifest.class, String.class));
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(data, name);
+        Writer writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
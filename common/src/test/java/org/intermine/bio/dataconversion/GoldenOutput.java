@@ -0,0 +1,125 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The expected output of the converter tests: for each set of test files, the number of items of
+ * each class and the ItemDigest of the items, read from an expected.properties resource. Every
+ * mode of a converter (parallel, batched, cached...) must give the same items as the plain run.
+ *
+ * When the output changes on purpose, run the tests with the system property golden.update set
+ * to the directory of expected.properties (e.g. src/test/resources/golden): the file is written
+ * again, with the output of the first mode of each set of files, and only the other modes are
+ * checked against it.
+ *
+ * @author
+ */
+public class GoldenOutput
+{
+    /** the system property naming the directory to write the expected output to */
+    public static final String UPDATE_PROPERTY = "golden.update";
+    private static final String EXPECTED_FILE = "expected.properties";
+
+    private final Map<String, String> expected = new TreeMap<>();
+    private final File updateDir;
+
+    /**
+     * @param resourceDir the resource directory of expected.properties, e.g. golden
+     * @throws IOException if the expected output can't be read
+     */
+    public GoldenOutput(String resourceDir) throws IOException {
+        String update = System.getProperty(UPDATE_PROPERTY);
+        updateDir = (update == null || update.trim().isEmpty()) ? null : new File(update.trim());
+        if (updateDir != null) {
+            return;
+        }
+        InputStream in = getClass().getClassLoader().getResourceAsStream(resourceDir + "/" + EXPECTED_FILE);
+        if (in == null) {
+            throw new IOException("No " + resourceDir + "/" + EXPECTED_FILE + " on the classpath, run the tests"
+                    + " with -D" + UPDATE_PROPERTY + "=<dir> to write it.");
+        }
+        Properties properties = new Properties();
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        for (String key : properties.stringPropertyNames()) {
+            expected.put(key, properties.getProperty(key));
+        }
+    }
+
+    /**
+     * Compare the items written from a set of files with the expected ones.
+     * @param name the set of files, e.g. Stoke
+     * @param digest the digest of the items written
+     * @return the differences, as "key: expected x, got y", none if the items are the expected ones
+     */
+    public List<String> check(String name, ItemDigest digest) {
+        Map<String, String> actual = new TreeMap<>();
+        actual.put(name + ".items", String.valueOf(digest.getItems()));
+        for (Map.Entry<String, Long> entry : digest.getCounts().entrySet()) {
+            actual.put(name + ".class." + entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        actual.put(name + ".digest", digest.getDigest());
+        if (updateDir != null && !expected.containsKey(name + ".digest")) {
+            expected.putAll(actual);
+        }
+
+        TreeSet<String> keys = new TreeSet<>(actual.keySet());
+        for (String key : expected.keySet()) {
+            if (key.startsWith(name + ".")) {
+                keys.add(key);
+            }
+        }
+        List<String> differences = new ArrayList<>();
+        for (String key : keys) {
+            if (!Objects.equals(expected.get(key), actual.get(key))) {
+                differences.add(key + ": expected " + expected.get(key) + ", got " + actual.get(key));
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Write expected.properties again if golden.update is set, else do nothing.
+     * @throws IOException if the file can't be written
+     */
+    public void close() throws IOException {
+        if (updateDir == null) {
+            return;
+        }
+        updateDir.mkdirs();
+        File file = new File(updateDir, EXPECTED_FILE);
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("# the items expected from the test files, written by GoldenOutput");
+            writer.newLine();
+            for (Map.Entry<String, String> entry : expected.entrySet()) {
+                writer.write(entry.getKey().replace(" ", "\\ ") + "=" + entry.getValue());
+                writer.newLine();
+            }
+        }
+    }
+}
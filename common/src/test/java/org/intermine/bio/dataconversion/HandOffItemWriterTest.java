@@ -0,0 +1,97 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.xml.full.ItemHelper;
+import org.intermine.xml.full.ReferenceList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+public class HandOffItemWriterTest extends TestCase
+{
+    public HandOffItemWriterTest(String arg) {
+        super(arg);
+    }
+
+    public void testHandOff() throws Exception {
+        MockItemWriter target = new MockItemWriter(new HashMap<String, Item>());
+        HandOffItemWriter writer = new HandOffItemWriter(target, 2);
+        // buffered: no ObjectStore id to give
+        assertNull(writer.store(item("0_1")));
+        assertEquals(0, target.getItems().size());
+        writer.store(item("0_2"));
+        assertEquals(2, target.getItems().size());
+        writer.store(item("0_3"));
+        assertEquals(2, target.getItems().size());
+        writer.close();
+        assertEquals(3, target.getItems().size());
+        assertEquals(3, writer.getCount());
+    }
+
+    public void testStoreNow() throws Exception {
+        RecordingItemWriter target = new RecordingItemWriter();
+        HandOffItemWriter writer = new HandOffItemWriter(target, 10);
+        writer.store(item("0_1"));
+        // stored after the buffered item, with its id
+        Integer id = writer.storeNow(item("0_2"));
+        assertEquals(Integer.valueOf(2), id);
+        writer.store(item("0_3"));
+        writer.store(ItemHelper.convert(new ReferenceList("contacts")), id);
+        writer.close();
+        assertEquals(Arrays.asList("0_1", "0_2", "0_3", "contacts of 2"), target.calls);
+        assertEquals(3, writer.getCount());
+    }
+
+    private static Item item(String identifier) {
+        org.intermine.xml.full.Item item = new org.intermine.xml.full.Item(identifier, "Patient", "");
+        item.setAttribute("identifier", identifier);
+        return ItemHelper.convert(item);
+    }
+
+    /**
+     * the items and collections stored, in order, the ids counted from 1
+     */
+    private static class RecordingItemWriter implements ItemWriter
+    {
+        private final List<String> calls = new ArrayList<>();
+
+        public Integer store(Item item) {
+            calls.add(item.getIdentifier());
+            return calls.size();
+        }
+
+        public void storeAll(Collection<Item> items) {
+            for (Item item : items) {
+                store(item);
+            }
+        }
+
+        public void store(org.intermine.model.fulldata.ReferenceList refList, Integer itemId) {
+            calls.add(refList.getName() + " of " + itemId);
+        }
+
+        public void store(Attribute att, Integer itemId) {
+            calls.add(att.getName() + " of " + itemId);
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+import org.intermine.dataconversion.DataConverter;
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.xml.full.ItemHelper;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class ItemCacheTest extends TestCase
+{
+    private Model model = Model.getInstanceByName("genomic");
+    private File dir;
+
+    public ItemCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("itemcache").toFile();
+    }
+
+    public void tearDown() throws Exception {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public void testReplay() throws Exception {
+        File file = new File(dir, "site.items.gz");
+        ListItemWriter target = new ListItemWriter();
+        ItemCache cache = new ItemCache(target);
+        DataConverter first = new DataConverter(cache, model) { };
+        cache.record(file);
+
+        org.intermine.xml.full.Item dataSet = first.createItem("DataSet");
+        dataSet.setAttribute("name", "Camden");
+        org.intermine.xml.full.Item referral = first.createItem("Referral");
+        org.intermine.xml.full.Item patient = first.createItem("Patient");
+        patient.setAttribute("identifier", "P1");
+        patient.setReference("dataSet", dataSet);
+        patient.addToCollection("referrals", referral);
+        referral.setAttribute("identifier", "R1");
+        referral.setReference("patient", patient);
+        first.store(dataSet);
+        // stored before the patient it references
+        cache.storeAll(Arrays.asList(ItemHelper.convert(referral), ItemHelper.convert(patient)));
+        assertFalse(file.exists());
+        assertEquals(3, cache.finish());
+        assertTrue(file.exists());
+        assertEquals(3, target.items.size());
+
+        ListItemWriter replayed = new ListItemWriter();
+        DataConverter second = new DataConverter(replayed, model) { };
+        for (int i = 0; i < 10; i++) {
+            second.createItem("Patient");
+        }
+        assertEquals(3, ItemCache.replay(file, 3, second));
+        assertEquals(3, replayed.items.size());
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Item before = target.items.get(i);
+            Item after = replayed.items.get(i);
+            assertEquals(before.getClassName(), after.getClassName());
+            assertEquals(toString(before.getAttributes()), toString(after.getAttributes()));
+            assertFalse(ids.contains(after.getIdentifier()));
+            ids.add(after.getIdentifier());
+        }
+        // the references follow the new identifiers
+        Item newReferral = replayed.items.get(1);
+        Item newPatient = replayed.items.get(2);
+        assertFalse(newPatient.getIdentifier().equals(patient.getIdentifier()));
+        assertEquals(newPatient.getIdentifier(), newReferral.getReferences().iterator().next().getRefId());
+        List<String> refs = new ArrayList<>();
+        for (Reference ref : newPatient.getReferences()) {
+            refs.add(ref.getName() + " " + ref.getRefId());
+        }
+        assertEquals(Arrays.asList("dataSet " + replayed.items.get(0).getIdentifier()), refs);
+        assertEquals(newReferral.getIdentifier(), newPatient.getCollections().iterator().next().getRefIds());
+    }
+
+    public void testIncomplete() throws Exception {
+        File file = new File(dir, "site.items.gz");
+        ListItemWriter target = new ListItemWriter();
+        ItemCache cache = new ItemCache(target);
+        DataConverter converter = new DataConverter(cache, model) { };
+        cache.record(file);
+        converter.store(converter.createItem("Patient"));
+        assertEquals(1, cache.finish());
+
+        // a wrong count: nothing is stored
+        ListItemWriter replayed = new ListItemWriter();
+        try {
+            ItemCache.replay(file, 2, new DataConverter(replayed, model) { });
+            fail("expected an IOException");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+        assertEquals(0, replayed.items.size());
+
+        // an item changed by ObjectStore id can't be replayed: the last cache is kept
+        cache.record(file);
+        converter.store(converter.createItem("Patient"));
+        cache.store((Attribute) null, 1);
+        assertEquals(-1, cache.finish());
+        assertEquals(1, ItemCache.replay(file, 1, new DataConverter(replayed, model) { }));
+    }
+
+    private static String toString(Collection<Attribute> attributes) {
+        StringBuilder sb = new StringBuilder();
+        for (Attribute att : attributes) {
+            sb.append(att.getName()).append('=').append(att.getValue()).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static class ListItemWriter implements ItemWriter
+    {
+        List<Item> items = new ArrayList<>();
+
+        public Integer store(Item item) {
+            items.add(item);
+            return items.size();
+        }
+
+        public void storeAll(Collection<Item> all) {
+            items.addAll(all);
+        }
+
+        public void store(ReferenceList refList, Integer itemId) {
+        }
+
+        public void store(Attribute att, Integer itemId) {
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A digest of the items written by a converter which doesn't depend on the order they were
+ * stored in or on their identifiers, so that the output of a parallel, batched or cached run can
+ * be compared with the one of a plain run.
+ *
+ * Each item is written as a line with its class and sorted attributes; its references and
+ * collections are written as the labels of the items they point to (a hash of their own line,
+ * computed over ROUNDS rounds so that e.g. two contacts with the same attributes are told apart
+ * by their referrals and patients). The digest is the SHA-256 of the sorted lines.
+ *
+ * @author
+ */
+public class ItemDigest
+{
+    private static final int ROUNDS = 3;
+    private static final String MISSING = "?";     // a reference to an item not stored
+
+    private final Map<String, Long> counts = new TreeMap<>();
+    private final List<String> lines = new ArrayList<>();
+    private final String digest;
+
+    /**
+     * @param items the items written, e.g. by a MockItemWriter
+     */
+    public ItemDigest(Collection<Item> items) {
+        Map<String, String> labels = new HashMap<>();
+        for (Item item : items) {
+            labels.put(item.getIdentifier(), hash(attributes(item)));
+            String className = className(item);
+            Long count = counts.get(className);
+            counts.put(className, (count == null) ? 1 : count + 1);
+        }
+        for (int round = 1; round < ROUNDS; round++) {
+            Map<String, String> next = new HashMap<>();
+            for (Item item : items) {
+                next.put(item.getIdentifier(), hash(line(item, labels)));
+            }
+            labels = next;
+        }
+        for (Item item : items) {
+            lines.add(line(item, labels));
+        }
+        Collections.sort(lines);
+        MessageDigest sha = sha256();
+        for (String line : lines) {
+            sha.update(line.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) '\n');
+        }
+        digest = hex(sha.digest());
+    }
+
+    /**
+     * @return the SHA-256 of the canonical lines of the items, in hex
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return the number of items of each class, by class name
+     */
+    public Map<String, Long> getCounts() {
+        return counts;
+    }
+
+    /**
+     * @return the number of items
+     */
+    public int getItems() {
+        return lines.size();
+    }
+
+    /**
+     * @return the canonical lines of the items, sorted (to compare two outputs line by line)
+     */
+    public List<String> getLines() {
+        return lines;
+    }
+
+    private static String className(Item item) {
+        // the fulldata items may have the model name space
+        String className = item.getClassName();
+        return className.substring(className.lastIndexOf('#') + 1);
+    }
+
+    private static String attributes(Item item) {
+        List<String> values = new ArrayList<>();
+        for (Attribute attribute : item.getAttributes()) {
+            values.add(attribute.getName() + "=" + quote(attribute.getValue()));
+        }
+        Collections.sort(values);
+        return className(item) + " " + String.join(" ", values);
+    }
+
+    private static String line(Item item, Map<String, String> labels) {
+        List<String> values = new ArrayList<>();
+        for (Reference reference : item.getReferences()) {
+            values.add(reference.getName() + "->" + label(reference.getRefId(), labels));
+        }
+        for (ReferenceList collection : item.getCollections()) {
+            List<String> targets = new ArrayList<>();
+            for (String refId : collection.getRefIds().split(" ")) {
+                if (!refId.isEmpty()) {
+                    targets.add(label(refId, labels));
+                }
+            }
+            Collections.sort(targets);
+            values.add(collection.getName() + "[" + String.join(",", targets) + "]");
+        }
+        Collections.sort(values);
+        return attributes(item) + (values.isEmpty() ? "" : " " + String.join(" ", values));
+    }
+
+    private static String label(String identifier, Map<String, String> labels) {
+        String label = labels.get(identifier);
+        return (label == null) ? MISSING : label;
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private static String hash(String line) {
+        // the first 64 bits are plenty to tell the items of a test run apart
+        return hex(sha256().digest(line.getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
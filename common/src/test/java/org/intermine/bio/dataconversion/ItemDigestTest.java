@@ -0,0 +1,68 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ItemDigestTest extends TestCase
+{
+    public ItemDigestTest(String arg) {
+        super(arg);
+    }
+
+    public void testDigest() throws Exception {
+        ItemDigest digest = digest("0_", false, "Contact 1", "Contact 2");
+        assertEquals(5, digest.getItems());
+        assertEquals(Long.valueOf(2), digest.getCounts().get("Referral"));
+        assertEquals(Long.valueOf(2), digest.getCounts().get("Contact"));
+        assertEquals(1, digest.getLines().stream().filter(l -> l.startsWith("Patient")).count());
+
+        // other identifiers, another order
+        assertEquals(digest.getDigest(), digest("9_", true, "Contact 1", "Contact 2").getDigest());
+        // an attribute
+        assertFalse(digest.getDigest().equals(digest("0_", false, "Contact 1", "Contact 3").getDigest()));
+        // the same contacts, of other referrals
+        assertFalse(digest.getDigest().equals(digest("0_", false, "Contact 2", "Contact 1").getDigest()));
+    }
+
+    /**
+     * a patient with two referrals, R1 and R2, each with a contact
+     */
+    private ItemDigest digest(String prefix, boolean reversed, String first, String second) {
+        Item patient = new Item(prefix + "1", "Patient", "");
+        patient.setAttribute("identifier", "P1");
+        List<org.intermine.model.fulldata.Item> items = new ArrayList<>();
+        items.add(ItemHelper.convert(patient));
+        int id = 2;
+        for (String identifier : Arrays.asList("R1", "R2")) {
+            Item referral = new Item(prefix + id++, "Referral", "");
+            referral.setAttribute("identifier", identifier);
+            referral.setReference("patient", patient);
+            Item contact = new Item(prefix + id++, "Contact", "");
+            contact.setAttribute("name", identifier.equals("R1") ? first : second);
+            contact.setReference("referral", referral);
+            referral.addToCollection("contacts", contact);
+            items.add(ItemHelper.convert(referral));
+            items.add(ItemHelper.convert(contact));
+        }
+        if (reversed) {
+            Collections.reverse(items);
+        }
+        return new ItemDigest(items);
+    }
+}
@@ -0,0 +1,144 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+import org.intermine.dataconversion.DataConverter;
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.xml.full.ItemHelper;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class LookupDictionaryTest extends TestCase
+{
+    private Model model = Model.getInstanceByName("genomic");
+
+    public LookupDictionaryTest(String arg) {
+        super(arg);
+    }
+
+    public void testNormalise() {
+        assertEquals("white_british", LookupDictionary.normalise("White - British"));
+        assertEquals("white_british", LookupDictionary.normalise("  WHITE British "));
+        assertEquals("", LookupDictionary.normalise(" - "));
+    }
+
+    public void testVariants() throws Exception {
+        ListItemWriter writer = new ListItemWriter();
+        DataConverter converter = new DataConverter(writer, model) { };
+        LookupDictionary lookups = new LookupDictionary(converter, writer);
+
+        String routine = lookups.getIdentifier("Urgency", "ROUTINE ");
+        assertEquals(routine, lookups.getIdentifier("Urgency", "Routine"));
+        assertEquals(routine, lookups.getIdentifier("Urgency", "routine"));
+        assertNull(lookups.getIdentifier("Urgency", " "));
+        assertNull(lookups.getIdentifier("Urgency", null));
+        // one item per class
+        assertFalse(routine.equals(lookups.getIdentifier("Team", "Routine")));
+        // the name doesn't depend on the spelling seen first
+        assertEquals("Routine", name(writer.items.get(0)));
+
+        // the codes are their synonym, whichever is seen first
+        String male = lookups.getIdentifier("Gender", "1");
+        assertEquals(male, lookups.getIdentifier("Gender", "M"));
+        assertEquals(male, lookups.getIdentifier("Gender", "male"));
+        String british = lookups.getIdentifier("Ethnicity", "White - British");
+        assertEquals(british, lookups.getIdentifier("Ethnicity", "A"));
+        assertEquals("Male", name(writer.items.get(2)));
+        // a name of the synonyms is its own name in any spelling
+        assertEquals(british, lookups.getIdentifier("Ethnicity", "WHITE BRITISH"));
+        assertEquals("White - British", name(writer.items.get(3)));
+
+        assertEquals(4, lookups.size());
+        assertEquals(4, writer.items.size());
+    }
+
+    public void testCanonical() {
+        assertEquals("Routine", LookupDictionary.canonical("routine"));
+        assertEquals("Self Referral 2", LookupDictionary.canonical(LookupDictionary.normalise("SELF-referral (2)")));
+    }
+
+    public void testReplay() throws Exception {
+        File dir = Files.createTempDirectory("lookups").toFile();
+        File file = new File(dir, "site.items.gz");
+        try {
+            // the lookups are stored outside of the cache
+            ListItemWriter target = new ListItemWriter();
+            DataConverter first = new DataConverter(target, model) { };
+            LookupDictionary lookups = new LookupDictionary(first, target);
+            ItemCache cache = new ItemCache(target);
+            cache.setSharedItems(lookups);
+            cache.record(file);
+            org.intermine.xml.full.Item patient = first.createItem("Patient");
+            patient.setReference("ethnicityTerm", lookups.getIdentifier("Ethnicity", "White - British"));
+            cache.store(ItemHelper.convert(patient));
+            assertEquals(1, cache.finish());
+
+            // a new build, with other identifiers
+            ListItemWriter replayed = new ListItemWriter();
+            DataConverter second = new DataConverter(replayed, model) { };
+            second.createItem("Patient");
+            LookupDictionary newLookups = new LookupDictionary(second, replayed);
+            String other = newLookups.getIdentifier("Ethnicity", "Indian");
+            assertEquals(1, ItemCache.replay(file, 1, second, newLookups));
+            assertEquals(3, replayed.items.size());
+            assertEquals("White - British", name(replayed.items.get(1)));
+            Reference ref = replayed.items.get(2).getReferences().iterator().next();
+            assertEquals("ethnicityTerm", ref.getName());
+            assertEquals(replayed.items.get(1).getIdentifier(), ref.getRefId());
+            assertFalse(other.equals(ref.getRefId()));
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    private static String name(Item item) {
+        for (Attribute att : item.getAttributes()) {
+            if ("name".equals(att.getName())) {
+                return att.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static class ListItemWriter implements ItemWriter
+    {
+        List<Item> items = new ArrayList<>();
+
+        public Integer store(Item item) {
+            items.add(item);
+            return items.size();
+        }
+
+        public void storeAll(Collection<Item> all) {
+            items.addAll(all);
+        }
+
+        public void store(ReferenceList refList, Integer itemId) {
+        }
+
+        public void store(Attribute att, Integer itemId) {
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MappedCsvReaderTest extends TestCase
+{
+    private File file;
+
+    public MappedCsvReaderTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("mapped", ".csv");
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRecords() throws Exception {
+        write("\uFEFFPatient ID,Referral ID,Note\r\n"
+                + "P1,R1,plain\r\n"
+                + "P2,,\"with, comma\"\r\n"
+                + "\r\n"
+                + "P3,R3,\"two\nlines and \"\"quotes\"\"\"\n"
+                + "P4,R4,,,", StandardCharsets.UTF_8);
+        List<String> records = read(new MappedCsvReader(file));
+        assertEquals(Arrays.asList(
+                "[Patient ID, Referral ID, Note]",
+                "[P1, R1, plain]",
+                "[P2, , with, comma]",
+                "[]",
+                "[P3, R3, two\nlines and \"quotes\"]",
+                "[P4, R4, , , ]"), records);
+    }
+
+    public void testFields() throws Exception {
+        write("1022464,,NULL,Caf\u00e9\n", Charset.forName("windows-1252"));
+        MappedCsvReader reader = new MappedCsvReader(file, Charset.forName("windows-1252"));
+        assertTrue(reader.nextRecord());
+        assertEquals(4, reader.size());
+        assertFalse(reader.isEmpty(0));
+        assertTrue(reader.isEmpty(1));
+        assertTrue(reader.isEmpty(9));
+        assertTrue(reader.contains(2, "NULL"));
+        assertFalse(reader.contains(0, "NULL"));
+        assertEquals("", reader.get(1));
+        assertEquals("Caf\u00e9", reader.get(3));
+        assertFalse(reader.nextRecord());
+        assertFalse(reader.hasNext());
+    }
+
+    public void testWindows() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            sb.append("P").append(i).append(",\"R,").append(i).append("\",").append(i % 7 == 0 ? "" : "x")
+                    .append('\n');
+            expected.add("[P" + i + ", R," + i + ", " + (i % 7 == 0 ? "" : "x") + "]");
+        }
+        write(sb.toString(), StandardCharsets.UTF_8);
+        // records cut by the end of each window
+        for (int window : new int[] {16, 17, 33, 100}) {
+            assertEquals(expected, read(new MappedCsvReader(file, StandardCharsets.UTF_8, window)));
+        }
+        try {
+            read(new MappedCsvReader(file, StandardCharsets.UTF_8, 4));
+            fail("expected an exception for a record larger than the window");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    public void testColumns() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // quoted separators and line ends, and a stray quote, after the last column read
+            sb.append("P").append(i).append(",x,R").append(i).append(",\"a,\"\"b\"\"\nc\",d\"e,,\n");
+            expected.add("[P" + i + ", null, R" + i + "]");
+        }
+        write(sb.toString(), StandardCharsets.UTF_8);
+        for (long window : new long[] {31, 47, 1 << 20}) {
+            MappedCsvReader reader = new MappedCsvReader(file, StandardCharsets.UTF_8, window);
+            reader.setColumns(2, 0);
+            assertEquals(expected, read(reader));
+        }
+    }
+
+    /**
+     * a wide, sparse file read with only its first columns gives their values as read in full
+     */
+    public void testColumnsOfWideFile() throws Exception {
+        int[] used = {0, 1, 2, 3, 4, 5, 6, 7};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            sb.append(i).append(",2015/16,").append(i % 18).append(",1,Discharged,N/A,N/A,\"a, b\"");
+            for (int c = used.length; c < 200; c++) {
+                sb.append(c % 50 == 0 ? ",0" : ",");
+            }
+            sb.append("\r\n");
+        }
+        write(sb.toString(), StandardCharsets.UTF_8);
+        for (long window : new long[] {1000, 1 << 20}) {
+            MappedCsvReader all = new MappedCsvReader(file, StandardCharsets.UTF_8, window);
+            MappedCsvReader projected = new MappedCsvReader(file, StandardCharsets.UTF_8, window);
+            projected.setColumns(used);
+            int rows = 0;
+            while (all.hasNext()) {
+                assertTrue(projected.hasNext());
+                String[] expected = all.next();
+                String[] actual = projected.next();
+                for (int c : used) {
+                    assertEquals(expected[c], actual[c]);
+                }
+                rows++;
+            }
+            assertFalse(projected.hasNext());
+            assertEquals(300, rows);
+            all.close();
+            projected.close();
+        }
+    }
+
+    private List<String> read(MappedCsvReader reader) {
+        List<String> records = new ArrayList<>();
+        while (reader.hasNext()) {
+            String[] record = reader.next();
+            records.add(record.length == 1 && record[0].isEmpty() ? "[]" : Arrays.toString(record));
+        }
+        return records;
+    }
+
+    private void write(String content, Charset charset) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes(charset));
+        out.close();
+    }
+}
@@ -0,0 +1,86 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelCsvReaderTest extends TestCase
+{
+    private File file;
+    private ForkJoinPool pool;
+
+    public ParallelCsvReaderTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("parallel", ".csv");
+        pool = new ForkJoinPool(3);
+    }
+
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        file.delete();
+    }
+
+    public void testSameAsSerial() throws Exception {
+        StringBuilder sb = new StringBuilder("PatientID,ReferralID,Note\r\n");
+        for (int i = 0; i < 300; i++) {
+            sb.append("P").append(i % 40).append(",R").append(i).append(',');
+            if (i % 5 == 0) {
+                // ends of lines in quoted fields, some looking like records
+                sb.append("\"note\nP").append(i).append(",x,\"\"y\"\"\n,\r\nend\"");
+            } else if (i % 7 == 0) {
+                sb.append("\"a, b\"");
+            }
+            sb.append("\r\n");
+            if (i % 50 == 0) {
+                sb.append("\r\n");
+            }
+        }
+        OutputStream out = new FileOutputStream(file);
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        out.close();
+
+        MappedCsvReader records = new MappedCsvReader(file);
+        records.next();
+        List<String> expected = read(records);
+        assertEquals(306, expected.size());
+
+        records = new MappedCsvReader(file);
+        assertEquals("[PatientID, ReferralID, Note]", Arrays.toString(records.next()));
+        long start = records.getPosition();
+        assertEquals(expected, read(new ParallelCsvReader(file, StandardCharsets.UTF_8, null, start,
+                MappedCsvReader::toArray)));
+        for (long chunkSize : new long[] {1, 7, 19, 64, 100000}) {
+            assertEquals(expected, read(new ParallelCsvReader(file, StandardCharsets.UTF_8, pool, start,
+                    MappedCsvReader::toArray, chunkSize)));
+        }
+    }
+
+    private List<String> read(Iterator<String[]> reader) {
+        List<String> records = new ArrayList<>();
+        while (reader.hasNext()) {
+            records.add(Arrays.toString(reader.next()));
+        }
+        return records;
+    }
+}
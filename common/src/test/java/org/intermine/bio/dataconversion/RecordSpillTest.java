@@ -0,0 +1,60 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RecordSpillTest extends TestCase
+{
+    public RecordSpillTest(String arg) {
+        super(arg);
+    }
+
+    public void testInMemory() throws Exception {
+        RecordSpill records = new RecordSpill(1 << 20);
+        records.add(new String[] {"1021297", null, "", "Caf\u00e9"});
+        records.add(new String[0]);
+        assertEquals(2, records.size());
+        assertFalse(records.isSpilled());
+        assertEquals(Arrays.asList("[1021297, null, , Caf\u00e9]", "[]"), read(records));
+        records.close();
+    }
+
+    public void testSpilled() throws Exception {
+        RecordSpill records = new RecordSpill(100);
+        List<String> expected = new ArrayList<>();
+        StringBuilder longField = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            longField.append('x');
+            String[] record = {"P" + i, String.valueOf(i % 3), (i % 10 == 0) ? longField.toString() : null};
+            records.add(record);
+            expected.add(Arrays.toString(record));
+        }
+        assertTrue(records.isSpilled());
+        assertEquals(200, records.size());
+        assertEquals(expected, read(records));
+        // can be read again
+        assertEquals(expected, read(records));
+        records.close();
+    }
+
+    private List<String> read(RecordSpill records) {
+        List<String> result = new ArrayList<>();
+        for (String[] record : records) {
+            result.add(Arrays.toString(record));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,68 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+import org.intermine.xml.full.Item;
+
+import java.util.List;
+
+public class SiteIndexTest extends TestCase
+{
+    public SiteIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void testIntern() throws Exception {
+        SiteIndex index = new SiteIndex();
+        assertEquals(-1, index.find("1022464"));
+        assertEquals(SiteIndex.NONE, index.findReferral("1022464", "1"));
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, index.intern("P" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, index.intern("P" + i));
+            assertEquals(i, index.find("P" + i));
+            assertEquals("P" + i, index.getId(i));
+        }
+        assertEquals(10000, index.size());
+        assertEquals(-1, index.find(null));
+        assertTrue(index.referralKey("P1", "P2") != index.referralKey("P2", "P1"));
+        assertEquals(index.referralKey("P1", "P2"), index.findReferral("P1", "P2"));
+    }
+
+    public void testItems() throws Exception {
+        SiteIndex ids = new SiteIndex();
+        ItemIndex referrals = new ItemIndex();
+        for (int i = 0; i < 5000; i++) {
+            referrals.put(ids.referralKey("P" + i, "R" + i), new Item("1_" + i, "Referral", ""));
+        }
+        assertFalse(referrals.contains(SiteIndex.NONE));
+        assertFalse(referrals.contains(ids.referralKey("P1", "R2")));
+        assertNull(referrals.getIdentifier(ids.findReferral("P1", "R9")));
+        long key = ids.findReferral("P42", "R42");
+        assertEquals("1_42", referrals.getIdentifier(key));
+        assertEquals("1_42", referrals.getItem(key).getIdentifier());
+
+        List<Item> items = referrals.release();
+        assertEquals(5000, items.size());
+        assertEquals("1_0", items.get(0).getIdentifier());
+        assertEquals("1_4999", items.get(4999).getIdentifier());
+        // released: only the identifier is left
+        assertNull(referrals.getItem(key));
+        assertEquals("1_42", referrals.getIdentifier(key));
+
+        referrals.put(ids.referralKey("P1", "R2"), new Item("1_5000", "Referral", ""));
+        items = referrals.release();
+        assertEquals(1, items.size());
+        assertEquals(5001, referrals.size());
+    }
+}
@@ -0,0 +1,149 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The rows of a table already loaded: the largest modification time seen, or the largest id
+ * for the tables without a modification time (only new rows are seen then). The marks of the
+ * tables are kept in a properties file between the runs, as table.column and table.mark.
+ *
+ * @author
+ */
+public class HighWaterMark
+{
+    // the modification time columns, first found is used
+    private static final List<String> MODIFIED_COLUMNS = Arrays.asList("last_modified", "modified",
+            "updated_at", "modified_at", "last_updated");
+
+    private final String table;
+    private final String column;
+    private final int position;
+    private final boolean time;
+    private final String last;
+    private Timestamp maxTime = null;
+    private long maxId = Long.MIN_VALUE;
+
+    /**
+     * @param table the table
+     * @param meta its columns
+     * @param state the marks of the last run
+     * @throws SQLException if the columns can't be read
+     */
+    public HighWaterMark(String table, ResultSetMetaData meta, Properties state) throws SQLException {
+        this.table = table;
+        int found = 0;
+        int rank = MODIFIED_COLUMNS.size();
+        int id = 0;
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            String name = meta.getColumnLabel(i).toLowerCase();
+            int r = MODIFIED_COLUMNS.indexOf(name);
+            if (r >= 0 && r < rank) {
+                found = i;
+                rank = r;
+            } else if (TableColumns.ID_COLUMN.equals(name)) {
+                id = i;
+            }
+        }
+        time = found > 0;
+        position = time ? found : id;
+        column = position > 0 ? meta.getColumnLabel(position) : null;
+        // a mark is only valid for the column it was taken on
+        if (column != null && column.equals(state.getProperty(table + ".column"))) {
+            last = state.getProperty(table + ".mark");
+        } else {
+            last = null;
+        }
+    }
+
+    /**
+     * @return the query of the rows changed since the last run (all if none)
+     */
+    public String getQuery() {
+        if (last == null) {
+            return "SELECT * FROM " + table;
+        }
+        // a time can be shared by rows committed after the last run: read them again, the
+        // integration merges them on the dbId key
+        return "SELECT * FROM " + table + " WHERE " + column + (time ? " >= ?" : " > ?");
+    }
+
+    /**
+     * @param stmt the statement of getQuery
+     * @throws SQLException if the parameter can't be set
+     */
+    public void setParameter(PreparedStatement stmt) throws SQLException {
+        if (last == null) {
+            return;
+        }
+        if (time) {
+            stmt.setTimestamp(1, Timestamp.valueOf(last));
+        } else {
+            stmt.setLong(1, Long.parseLong(last));
+        }
+    }
+
+    /**
+     * @param res the current row
+     * @throws SQLException if the row can't be read
+     */
+    public void update(ResultSet res) throws SQLException {
+        if (position == 0) {
+            return;
+        }
+        if (time) {
+            Timestamp value = res.getTimestamp(position);
+            if (value != null && (maxTime == null || value.after(maxTime))) {
+                maxTime = value;
+            }
+        } else {
+            long value = res.getLong(position);
+            if (!res.wasNull() && value > maxId) {
+                maxId = value;
+            }
+        }
+    }
+
+    /**
+     * @return true if the table has no column to mark (read in full each time)
+     */
+    public boolean isFull() {
+        return position == 0;
+    }
+
+    /**
+     * Set the mark of this run: the largest value read, or the last mark if no row was read.
+     * @param state the marks to save
+     */
+    public void save(Properties state) {
+        if (position == 0) {
+            return;
+        }
+        String mark = last;
+        if (time && maxTime != null) {
+            mark = maxTime.toString();
+        } else if (!time && maxId != Long.MIN_VALUE) {
+            mark = String.valueOf(maxId);
+        }
+        if (mark != null) {
+            state.setProperty(table + ".column", column);
+            state.setProperty(table + ".mark", mark);
+        }
+    }
+}
@@ -10,26 +10,93 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import org.apache.log4j.Logger;
 import org.intermine.dataconversion.ItemWriter;
+import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.sql.Database;
 import org.intermine.xml.full.Item;
 
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 
+ * Loads the iThriveDB tables, one class of ithrivedb_additions.xml per table. Each table is
+ * streamed with a cursor, so that only the identifiers of the rows referenced by the following
+ * tables are kept in memory. With tableThreads set, the tables that don't depend on each other
+ * are read at the same time, each on its own connection. With stateFile set, only the rows
+ * changed since the last run are read (see HighWaterMark).
+ *
  * @author
  */
-public class IthrivedbConverter extends BioDBConverter
+public class IthrivedbConverter extends BioDBConverter implements TableColumns.Missing
 {
-    // 
+    //
     private static final String DATASET_TITLE = "iThriveDB";
     private static final String DATA_SOURCE_NAME = "NHS";
+    protected static final Logger LOG = Logger.getLogger(IthrivedbConverter.class);
+
+    // class, table, in the order they are loaded: a table can only reference the ones before it
+    private static final String[][] TABLES = {
+        {"Ethnicity", "ethnicity"},
+        {"Site", "site"},
+        {"GenericOutcomeVariable", "generic_outcome_variable"},
+        {"Patient", "patient"},
+        {"Referral", "referral"},
+        {"Contact", "contact"},
+        {"Problem", "problem"},
+        {"Diagnostic", "diagnostic"},
+        {"GenericOutcomeValue", "generic_outcome_value"},
+        {"CurrentView", "current_view"},
+    };
+    // the largest tables, read in key ranges when partitionThreads is set
+    private static final List<String> PARTITIONED = Arrays.asList("contact", "generic_outcome_value");
+    private static final int PARTITION_ROWS = 20000; // about, per range
+
+    private static final int DEFAULT_FETCH_SIZE = 10000;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    private int tableThreads = 1;
+    private int partitionThreads = 1;
+
+    private static final int BATCH_SIZE = 1000;
+
+    // class, ids of the rows (if referenced). filled by the table threads
+    private Map<String, ItemIndex> loaded = new ConcurrentHashMap<>();
 
+    private File stateFile = null;
+    private Properties lastMarks = null;  // high-water marks of the last run, if incremental
+    private Properties marks = new Properties(); // of this run
+    private AtomicInteger placeholders = new AtomicInteger(); // items referenced, not read
 
     /**
      * Construct a new IthrivedbConverter.
@@ -41,6 +108,57 @@ public class IthrivedbConverter extends BioDBConverter
         super(database, model, writer, DATA_SOURCE_NAME, DATASET_TITLE);
     }
 
+    /**
+     * Set the number of rows fetched from the database at a time. Default is 10000.
+     *
+     * @param size the fetch size
+     */
+    public void setFetchSize(String size) {
+        fetchSize = Integer.parseInt(size.trim());
+    }
+
+    /**
+     * Set the number of tables read at the same time, each with its own connection. A table is
+     * started when all the tables it references have been read. Default is 1 (one table at a
+     * time, on a single connection).
+     *
+     * @param threads the number of threads
+     */
+    public void setTableThreads(String threads) {
+        tableThreads = Integer.parseInt(threads.trim());
+    }
+
+    /**
+     * Set the number of connections reading each of the largest tables (contact,
+     * generic_outcome_value), in primary key ranges. The items are still created and stored in
+     * key order. Default is 1 (a single cursor).
+     *
+     * @param threads the number of threads per table
+     */
+    public void setPartitionThreads(String threads) {
+        partitionThreads = Integer.parseInt(threads.trim());
+    }
+
+    /**
+     * Load only the rows changed since the last run, keeping the high-water mark of each table
+     * in a file. The file is written at the end of a successful run; without it (first run) all
+     * the rows are read. The rows referenced by the changed ones are loaded as items with just
+     * their dbId, to be merged by the integration with the ones of the previous runs.
+     *
+     * @param fileName the state file
+     */
+    public void setStateFile(String fileName) {
+        stateFile = new File(fileName.trim());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Item createItem(String className) {
+        // shared by the table threads, to keep the identifiers unique
+        return super.createItem(className);
+    }
 
     /**
      * {@inheritDoc}
@@ -48,15 +166,388 @@ public class IthrivedbConverter extends BioDBConverter
     public void process() throws Exception {
         // a database has been initialised from properties starting with db.ithrivedb
 
-        Connection connection = getDatabase().getConnection();
+        process(getDatabase().getDataSource());
+    }
+
+    /**
+     * load all the tables, with connections from a data source
+     */
+    void process(DataSource source) throws Exception {
+        if (stateFile != null) {
+            lastMarks = new Properties();
+            if (stateFile.exists()) {
+                InputStream is = new FileInputStream(stateFile);
+                try {
+                    lastMarks.load(is);
+                } finally {
+                    is.close();
+                }
+                LOG.info("Incremental load, from the marks in " + stateFile);
+            } else {
+                LOG.info("Incremental load: no " + stateFile + ", reading all the rows.");
+            }
+        }
+        if (tableThreads > 1) {
+            processParallel(source);
+        } else {
+            processSerial(source);
+        }
+        if (stateFile != null) {
+            LOG.info(placeholders + " items referenced by the changed rows added with their dbId only.");
+            saveState();
+        }
+    }
 
-        // process data with direct SQL queries on the source database, for example:
-        
-        // Statement stmt = connection.createStatement();
-        // String query = "select column from table;";
-        // ResultSet res = stmt.executeQuery(query);
-        // while (res.next()) {
-        // }   
+    private void processSerial(DataSource source) throws Exception {
+        Connection connection = source.getConnection();
+        try {
+            ItemBatch itemBatch = new ItemBatch(getItemWriter(), BATCH_SIZE);
+            for (int i = 0; i < TABLES.length; i++) {
+                if (isPartitioned(i)) {
+                    readPartitioned(source, i, itemBatch);
+                } else {
+                    processTable(connection, i, itemBatch);
+                }
+            }
+            itemBatch.flush();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * read the tables in waves: a wave has the tables that only reference tables of the waves
+     * before it, and its tables are read in parallel.
+     */
+    private void processParallel(DataSource source) throws Exception {
+        int[] waves = new int[TABLES.length];
+        int lastWave = 0;
+        for (int i = 0; i < TABLES.length; i++) {
+            for (int j : getReferencedTables(i)) {
+                waves[i] = Math.max(waves[i], waves[j] + 1);
+            }
+            lastWave = Math.max(lastWave, waves[i]);
+        }
+        ForkJoinPool pool = new ForkJoinPool(tableThreads);
+        try {
+            for (int wave = 0; wave <= lastWave; wave++) {
+                List<Callable<Integer>> tasks = new ArrayList<>();
+                List<String> names = new ArrayList<>();
+                for (int i = 0; i < TABLES.length; i++) {
+                    if (waves[i] == wave) {
+                        final int table = i;
+                        tasks.add(() -> processTable(source, table));
+                        names.add(TABLES[i][1]);
+                    }
+                }
+                LOG.info("Reading tables " + names + " with " + tableThreads + " threads.");
+                for (Future<Integer> result : pool.invokeAll(tasks)) {
+                    result.get();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * read a table on its own connection, handing its items to the shared ItemWriter in blocks
+     */
+    private int processTable(DataSource source, int table) throws Exception {
+        HandOffItemWriter writer = new HandOffItemWriter(getItemWriter(), BATCH_SIZE);
+        ItemBatch itemBatch = new ItemBatch(writer, BATCH_SIZE);
+        if (isPartitioned(table)) {
+            readPartitioned(source, table, itemBatch);
+        } else {
+            Connection connection = source.getConnection();
+            try {
+                processTable(connection, table, itemBatch);
+            } finally {
+                connection.close();
+            }
+        }
+        itemBatch.flush();
+        writer.close();
+        return writer.getCount();
+    }
+
+    private void processTable(Connection connection, int table, ItemBatch itemBatch)
+            throws SQLException, ObjectStoreException {
+        // without a transaction (postgres) the driver ignores the fetch size and reads the
+        // whole result set at once
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            readTable(connection, table, itemBatch);
+        } finally {
+            connection.rollback();  // read only
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * write the marks of this run, replacing the state file only once complete
+     */
+    private void saveState() throws IOException {
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            marks.store(out, "iThriveDB high-water marks");
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Add an item with just the dbId (incremental loads).
+     */
+    public String getIdentifier(String className, ItemIndex ids, long key) throws ObjectStoreException {
+        // the index can be shared by the tables of a wave
+        synchronized (ids) {
+            String ref = ids.getIdentifier(key);
+            if (ref == null) {
+                Item item = createItem(className);
+                item.setAttribute(TableColumns.ID_ATTRIBUTE, String.valueOf(key));
+                synchronized (getItemWriter()) {
+                    store(item);
+                }
+                ref = item.getIdentifier();
+                ids.put(key, ref);
+                placeholders.incrementAndGet();
+            }
+            return ref;
+        }
+    }
+
+    private Statement createStatement(Connection connection) throws SQLException {
+        Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(fetchSize);
+        return stmt;
+    }
+
+    private void readTable(Connection connection, int table, ItemBatch itemBatch)
+            throws SQLException, ObjectStoreException {
+        long start = System.currentTimeMillis();
+        String className = TABLES[table][0];
+        String tableName = TABLES[table][1];
+        ItemIndex ids = isReferenced(table) ? new ItemIndex() : null;
+
+        Statement stmt;
+        ResultSet res;
+        HighWaterMark mark = null;
+        if (lastMarks == null) {
+            stmt = createStatement(connection);
+            res = stmt.executeQuery("SELECT * FROM " + tableName);
+        } else {
+            stmt = connection.createStatement();
+            res = stmt.executeQuery("SELECT * FROM " + tableName + " WHERE 1 = 0");
+            mark = new HighWaterMark(tableName, res.getMetaData(), lastMarks);
+            res.close();
+            stmt.close();
+            PreparedStatement query = connection.prepareStatement(mark.getQuery(), ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            query.setFetchSize(fetchSize);
+            mark.setParameter(query);
+            stmt = query;
+            res = query.executeQuery();
+        }
+        TableColumns columns = new TableColumns(getModel().getClassDescriptorByName(className), tableName,
+                res.getMetaData(), loaded, lastMarks == null ? null : this);
+        String[] values = new String[columns.size()];
+
+        int rows = 0;
+        int unresolved = 0;
+        while (res.next()) {
+            unresolved += columns.read(res, values);
+            store(className, columns, values, ids, itemBatch);
+            if (mark != null) {
+                mark.update(res);
+            }
+            rows++;
+        }
+        res.close();
+        stmt.close();
+        if (mark != null) {
+            if (mark.isFull()) {
+                LOG.warn(tableName + ": no id or modification time, read in full.");
+            }
+            mark.save(marks);
+        }
+        finishTable(table, ids, rows, unresolved, start);
+    }
+
+    /**
+     * read a table in primary key ranges, on partitionThreads connections. the ranges are read
+     * ahead in parallel, but their items are created and stored one range after the other, in
+     * key order, so that the output doesn't depend on the timing of the reads.
+     */
+    private void readPartitioned(DataSource source, int table, ItemBatch itemBatch) throws Exception {
+        long start = System.currentTimeMillis();
+        String className = TABLES[table][0];
+        String tableName = TABLES[table][1];
+        ItemIndex ids = isReferenced(table) ? new ItemIndex() : null;
+
+        BlockingQueue<Connection> connections = new ArrayBlockingQueue<>(partitionThreads);
+        Map<Connection, Boolean> autoCommits = new LinkedHashMap<>(); // to give them back as they came
+        ForkJoinPool pool = new ForkJoinPool(partitionThreads);
+        int rows = 0;
+        int unresolved = 0;
+        try {
+            for (int i = 0; i < partitionThreads; i++) {
+                Connection connection = source.getConnection();
+                autoCommits.put(connection, connection.getAutoCommit());
+                // see processTable
+                connection.setAutoCommit(false);
+                connections.add(connection);
+            }
+
+            // key range and columns
+            Connection connection = connections.peek();
+            Statement stmt = createStatement(connection);
+            ResultSet res = stmt.executeQuery("SELECT min(" + TableColumns.ID_COLUMN + "), max("
+                    + TableColumns.ID_COLUMN + "), count(*) FROM " + tableName);
+            res.next();
+            long min = res.getLong(1);
+            long max = res.getLong(2);
+            long count = res.getLong(3);
+            res.close();
+            res = stmt.executeQuery("SELECT * FROM " + tableName + " WHERE 1 = 0");
+            TableColumns columns = new TableColumns(getModel().getClassDescriptorByName(className), tableName,
+                    res.getMetaData(), loaded, null);
+            res.close();
+            stmt.close();
+
+            long step = count == 0 ? 1 : Math.max(1, (max - min + 1) / Math.max(1, count / PARTITION_ROWS));
+            LOG.info(tableName + ": reading " + count + " rows in ranges of " + step + " keys with "
+                    + partitionThreads + " threads.");
+
+            // keep up to two ranges per thread read ahead
+            Deque<Future<Range>> reading = new ArrayDeque<>();
+            long next = min;
+            while (count > 0 && (next <= max || !reading.isEmpty())) {
+                while (next <= max && reading.size() < partitionThreads * 2) {
+                    final long from = next;
+                    final long to = max - next < step ? max + 1 : next + step;
+                    reading.add(pool.submit(() -> readRange(connections, columns, tableName, from, to)));
+                    next = to;
+                }
+                Range range = reading.poll().get();
+                for (String[] values : range.rows) {
+                    store(className, columns, values, ids, itemBatch);
+                }
+                rows += range.rows.size();
+                unresolved += range.unresolved;
+            }
+        } finally {
+            pool.shutdownNow();
+            for (Map.Entry<Connection, Boolean> entry : autoCommits.entrySet()) {
+                Connection connection = entry.getKey();
+                connection.rollback();  // read only
+                connection.setAutoCommit(entry.getValue());
+                connection.close();
+            }
+        }
+        finishTable(table, ids, rows, unresolved, start);
+    }
+
+    /**
+     * read the rows of a key range, with a connection of the pool
+     */
+    private Range readRange(BlockingQueue<Connection> connections, TableColumns columns, String tableName,
+                            long from, long to) throws Exception {
+        Range range = new Range();
+        Connection connection = connections.take();
+        try {
+            Statement stmt = createStatement(connection);
+            ResultSet res = stmt.executeQuery("SELECT * FROM " + tableName + " WHERE "
+                    + TableColumns.ID_COLUMN + " >= " + from + " AND " + TableColumns.ID_COLUMN + " < " + to
+                    + " ORDER BY " + TableColumns.ID_COLUMN);
+            while (res.next()) {
+                String[] values = new String[columns.size()];
+                range.unresolved += columns.read(res, values);
+                range.rows.add(values);
+            }
+            res.close();
+            stmt.close();
+        } finally {
+            connections.put(connection);
+        }
+        return range;
+    }
+
+    /**
+     * the rows of a key range, read but not converted yet
+     */
+    private static class Range
+    {
+        private List<String[]> rows = new ArrayList<>();
+        private int unresolved = 0;
+    }
+
+    private void store(String className, TableColumns columns, String[] values, ItemIndex ids,
+                       ItemBatch itemBatch) throws ObjectStoreException {
+        Item item = createItem(className);
+        columns.fill(item, values);
+        if (ids != null && values[0] != null) {
+            ids.put(Long.parseLong(values[0]), item.getIdentifier());
+        }
+        itemBatch.add(item);
+    }
+
+    private void finishTable(int table, ItemIndex ids, int rows, int unresolved, long start) {
+        String tableName = TABLES[table][1];
+        if (ids != null) {
+            loaded.put(TABLES[table][0], ids);
+        }
+        if (unresolved > 0) {
+            LOG.warn(tableName + ": " + unresolved + " references to rows not found.");
+        }
+        LOG.info(tableName + ": " + rows + " rows in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * @return true if the ids of the rows of a class are kept, for the tables referencing it
+     */
+    boolean isIndexed(String className) {
+        return loaded.containsKey(className);
+    }
+
+    private boolean isPartitioned(int table) {
+        // the changes of an incremental load are read with a single cursor
+        return partitionThreads > 1 && stateFile == null && PARTITIONED.contains(TABLES[table][1]);
+    }
+
+    /**
+     * @return true if a table loaded after this one has a reference to its class
+     */
+    private boolean isReferenced(int table) {
+        for (int i = table + 1; i < TABLES.length; i++) {
+            if (getReferencedTables(i).contains(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the tables before this one that its class references
+     */
+    private List<Integer> getReferencedTables(int table) {
+        List<Integer> tables = new ArrayList<>();
+        ClassDescriptor cld = getModel().getClassDescriptorByName(TABLES[table][0]);
+        for (ReferenceDescriptor rd : cld.getAllReferenceDescriptors()) {
+            String className = rd.getReferencedClassDescriptor().getUnqualifiedName();
+            for (int i = 0; i < table; i++) {
+                if (TABLES[i][0].equals(className) && !tables.contains(i)) {
+                    tables.add(i);
+                }
+            }
+        }
+        return tables;
     }
 
     /**
@@ -0,0 +1,227 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.xml.full.Item;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The columns of an iThriveDB table matched to the attributes and references of its class,
+ * ignoring case and underscores (referral_start_date is referralStartDate, patient_id the patient
+ * reference). A row is read into a String array: the id at 0, then the attribute values and the
+ * identifiers of the referenced items by column position. The id is also the dbId attribute,
+ * the integration key of the iThriveDB classes.
+ *
+ * @author
+ */
+public class TableColumns
+{
+    private static final Logger LOG = Logger.getLogger(TableColumns.class);
+
+    /** the primary key column */
+    public static final String ID_COLUMN = "id";
+    /** the attribute holding the primary key */
+    public static final String ID_ATTRIBUTE = "dbId";
+
+    /**
+     * Gives the identifier of a referenced item not read, if it can.
+     */
+    public interface Missing
+    {
+        /**
+         * @param className the class of the item referenced
+         * @param ids the ids read for the class
+         * @param key the id of the row referenced
+         * @return the identifier of the item, or null
+         * @throws ObjectStoreException if an item can't be stored
+         */
+        String getIdentifier(String className, ItemIndex ids, long key) throws ObjectStoreException;
+    }
+
+    // how a column is read
+    private static final int SKIP = 0;
+    private static final int STRING = 1;
+    private static final int DATE = 2;
+    private static final int BOOLEAN = 3;
+    private static final int REFERENCE = 4;
+
+    private final int[] kinds;
+    private final String[] names;
+    private final ItemIndex[] targets;
+    private final String[] targetClasses;
+    private final Missing missing;
+    private int idColumn = 0;
+    private boolean hasIdAttribute = false;
+
+    /**
+     * @param cld the class of the table
+     * @param tableName the table
+     * @param meta the columns of the table
+     * @param loaded the ids of the tables already read, by class
+     * @param missing what to do with the references to rows not read, null to leave them out
+     * @throws SQLException if the columns can't be read
+     */
+    public TableColumns(ClassDescriptor cld, String tableName, ResultSetMetaData meta,
+                        Map<String, ItemIndex> loaded, Missing missing) throws SQLException {
+        int columns = meta.getColumnCount();
+        kinds = new int[columns + 1];
+        names = new String[columns + 1];
+        targets = new ItemIndex[columns + 1];
+        targetClasses = new String[columns + 1];
+        this.missing = missing;
+
+        Map<String, AttributeDescriptor> attributes = new HashMap<>();
+        for (AttributeDescriptor ad : cld.getAllAttributeDescriptors()) {
+            attributes.put(normalise(ad.getName()), ad);
+            hasIdAttribute |= ID_ATTRIBUTE.equals(ad.getName());
+        }
+        Map<String, ReferenceDescriptor> references = new HashMap<>();
+        for (ReferenceDescriptor rd : cld.getAllReferenceDescriptors()) {
+            references.put(normalise(rd.getName()) + ID_COLUMN, rd);
+        }
+
+        List<String> skipped = new ArrayList<>();
+        for (int i = 1; i <= columns; i++) {
+            String column = meta.getColumnLabel(i);
+            String key = normalise(column);
+            AttributeDescriptor ad = attributes.get(key);
+            ReferenceDescriptor rd = references.get(key);
+            if (key.equals(ID_COLUMN)) {
+                idColumn = i;
+            } else if (ad != null) {
+                names[i] = ad.getName();
+                if ("java.util.Date".equals(ad.getType())) {
+                    kinds[i] = DATE;
+                } else if ("java.lang.Boolean".equals(ad.getType()) || "boolean".equals(ad.getType())) {
+                    kinds[i] = BOOLEAN;
+                } else {
+                    kinds[i] = STRING;
+                }
+            } else if (rd != null
+                    && loaded.containsKey(rd.getReferencedClassDescriptor().getUnqualifiedName())) {
+                names[i] = rd.getName();
+                kinds[i] = REFERENCE;
+                targetClasses[i] = rd.getReferencedClassDescriptor().getUnqualifiedName();
+                targets[i] = loaded.get(targetClasses[i]);
+            } else {
+                kinds[i] = SKIP;
+                skipped.add(column);
+            }
+        }
+        if (!skipped.isEmpty()) {
+            LOG.warn(tableName + ": columns not in the model (or references to tables not loaded "
+                    + "yet), ignored: " + skipped);
+        }
+    }
+
+    /**
+     * @return the length of the arrays read
+     */
+    public int size() {
+        return kinds.length;
+    }
+
+    /**
+     * Read the current row.
+     * @param res a result set of the table
+     * @param values the array to fill, of length size()
+     * @return the number of references to rows not found
+     * @throws SQLException if the row can't be read
+     * @throws ObjectStoreException if an item for a missing reference can't be stored
+     */
+    public int read(ResultSet res, String[] values) throws SQLException, ObjectStoreException {
+        int unresolved = 0;
+        values[0] = idColumn > 0 ? res.getString(idColumn) : null;
+        for (int i = 1; i < kinds.length; i++) {
+            String value = null;
+            switch (kinds[i]) {
+                case STRING:
+                    value = emptyToNull(res.getString(i));
+                    break;
+                case DATE:
+                    Timestamp date = res.getTimestamp(i);
+                    if (date != null) {
+                        value = String.valueOf(date.getTime());
+                    }
+                    break;
+                case BOOLEAN:
+                    boolean flag = res.getBoolean(i);
+                    if (!res.wasNull()) {
+                        value = String.valueOf(flag);
+                    }
+                    break;
+                case REFERENCE:
+                    long key = res.getLong(i);
+                    if (!res.wasNull()) {
+                        if (missing == null) {
+                            value = targets[i].getIdentifier(key);
+                        } else {
+                            value = missing.getIdentifier(targetClasses[i], targets[i], key);
+                        }
+                        if (value == null) {
+                            unresolved++;
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            values[i] = value;
+        }
+        return unresolved;
+    }
+
+    /**
+     * Set the attributes and references of an item from a row.
+     * @param item the item
+     * @param values a row read
+     */
+    public void fill(Item item, String[] values) {
+        if (hasIdAttribute && values[0] != null) {
+            item.setAttribute(ID_ATTRIBUTE, values[0]);
+        }
+        for (int i = 1; i < kinds.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            if (kinds[i] == REFERENCE) {
+                item.setReference(names[i], values[i]);
+            } else if (kinds[i] != SKIP) {
+                item.setAttribute(names[i], values[i]);
+            }
+        }
+    }
+
+    private static String normalise(String name) {
+        return name.replace("_", "").toLowerCase();
+    }
+
+    private static String emptyToNull(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
@@ -10,9 +10,21 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import org.intermine.dataconversion.ItemWriter;
 import org.intermine.dataconversion.ItemsTestCase;
 import org.intermine.dataconversion.MockItemWriter;
 import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.ReferenceList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
 
 public class IthrivedbConverterTest extends ItemsTestCase
 {
@@ -20,6 +32,10 @@ public class IthrivedbConverterTest extends ItemsTestCase
     IthrivedbConverter converter;
     MockItemWriter itemWriter;
 
+    private static final int PATIENTS = 100;
+    private static final int REFERRALS = 1000;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
     public IthrivedbConverterTest(String arg) {
         super(arg);
     }
@@ -30,9 +46,199 @@ public class IthrivedbConverterTest extends ItemsTestCase
     }
 
     public void testProcess() throws Exception {
-        // read in a test file (place in test/resources so it's on the classpath)
-        // process using your converter
-        // compare results to expected results
-        // look at the other intermine unit tests for help!
+        StubDatabase db = createDatabase(10);
+        CountingItemWriter writer = new CountingItemWriter();
+        converter = new IthrivedbConverter(null, model, writer);
+        converter.setFetchSize("500");
+        converter.process(db.getDataSource());
+
+        assertFalse(db.isReadWithoutTransaction());
+        assertEquals(500, db.getFetchSize());
+        assertEquals(1, db.getConnections());
+        assertEquals(0, db.getOpen());
+        assertEquals(2 + PATIENTS + REFERRALS + 10, writer.count);
+    }
+
+    public void testProcessParallel() throws Exception {
+        StubDatabase db = createDatabase(5000);
+        CountingItemWriter writer = new CountingItemWriter();
+        converter = new IthrivedbConverter(null, model, writer);
+        converter.setTableThreads("4");
+        converter.process(db.getDataSource());
+
+        assertFalse(db.isReadWithoutTransaction());
+        // a connection per table
+        assertEquals(10, db.getConnections());
+        assertTrue(db.getMaxOpen() > 1);
+        assertEquals(0, db.getOpen());
+        assertEquals(2 + PATIENTS + REFERRALS + 5000, writer.count);
+    }
+
+    /**
+     * the contacts read in key ranges on several connections come out as when read with a
+     * single cursor
+     */
+    public void testPartitioned() throws Exception {
+        List<String> serial = storedOrder(createDatabase(100000), 1);
+        StubDatabase db = createDatabase(100000);
+        List<String> partitioned = storedOrder(db, 4);
+        assertEquals(2 + PATIENTS + REFERRALS + 100000, partitioned.size());
+        assertEquals(serial, partitioned);
+
+        int ranges = 0;
+        for (String query : db.getQueries()) {
+            if (query.startsWith("SELECT * FROM contact WHERE id >= ")) {
+                ranges++;
+            }
+        }
+        assertEquals(5, ranges);
+        assertEquals(0, db.getOpen());
+        assertEquals(0, db.getClosedInTransaction());
+    }
+
+    /**
+     * a rerun only reads the rows added, with items holding the dbId of the rows they reference
+     */
+    public void testIncremental() throws Exception {
+        File state = File.createTempFile("ithrivedb", ".properties");
+        state.delete();
+        try {
+            StubDatabase db = createDatabase(1000);
+            assertEquals(2 + PATIENTS + REFERRALS + 1000, incrementalLoad(db, state).size());
+            Properties marks = new Properties();
+            InputStream is = new FileInputStream(state);
+            marks.load(is);
+            is.close();
+            assertEquals("id", marks.getProperty("contact.column"));
+            assertEquals("999", marks.getProperty("contact.mark"));
+
+            assertEquals(0, incrementalLoad(db, state).size());
+
+            db = createDatabase(1500);
+            int contacts = 0;
+            int referrals = 0;
+            for (String item : incrementalLoad(db, state)) {
+                if (item.startsWith("Contact ")) {
+                    contacts++;
+                } else if (item.startsWith("Referral ")) {
+                    referrals++;
+                } else {
+                    fail("unexpected " + item);
+                }
+            }
+            assertEquals(500, contacts);
+            // the contacts 1000 to 1499 reference each referral once
+            assertEquals(REFERRALS / 2, referrals);
+            assertTrue(db.getQueries().contains("SELECT * FROM contact WHERE id > 999"));
+        } finally {
+            state.delete();
+        }
+    }
+
+    private List<String> incrementalLoad(StubDatabase db, File state) throws Exception {
+        CountingItemWriter writer = new CountingItemWriter();
+        writer.stored = new ArrayList<>();
+        converter = new IthrivedbConverter(null, model, writer);
+        converter.setStateFile(state.getPath());
+        converter.process(db.getDataSource());
+        assertEquals(0, db.getOpen());
+        return writer.stored;
+    }
+
+    private List<String> storedOrder(StubDatabase db, int partitionThreads) throws Exception {
+        CountingItemWriter writer = new CountingItemWriter();
+        writer.stored = new ArrayList<>();
+        converter = new IthrivedbConverter(null, model, writer);
+        converter.setPartitionThreads(String.valueOf(partitionThreads));
+        converter.process(db.getDataSource());
+        return writer.stored;
+    }
+
+    /**
+     * the contacts are stored as they are read: when the last one is read, less than a fetch of
+     * the rows before it is waiting to be stored, whatever the number of contacts, and no index
+     * of the contacts is kept
+     */
+    public void testContactsStreamed() throws Exception {
+        for (int contacts : new int[] {20000, 200000}) {
+            StubDatabase db = createDatabase(contacts);
+            CountingItemWriter writer = new CountingItemWriter();
+            int[] pending = {-1};
+            db.onLastRow("contact", () -> {
+                synchronized (writer) {
+                    pending[0] = 2 + PATIENTS + REFERRALS + contacts - 1 - writer.count;
+                }
+            });
+            converter = new IthrivedbConverter(null, model, writer);
+            converter.setFetchSize("2000");
+            converter.process(db.getDataSource());
+
+            assertEquals(2000, db.getFetchSize());
+            assertTrue(contacts + " contacts: " + pending[0] + " rows not stored",
+                    pending[0] >= 0 && pending[0] <= db.getFetchSize());
+            assertFalse(converter.isIndexed("Contact"));
+            assertTrue(converter.isIndexed("Referral"));
+            assertEquals(2 + PATIENTS + REFERRALS + contacts, writer.count);
+        }
+    }
+
+    private StubDatabase createDatabase(int contacts) {
+        StubDatabase db = new StubDatabase();
+        db.addTable("site", 2, (row, column) -> column == 1 ? (Object) (long) row : "Site " + row,
+                "id", "name");
+        db.addTable("patient", PATIENTS, (row, column) -> {
+            switch (column) {
+                case 1: return (long) row;
+                case 2: return (long) (row % 2);
+                default: return row % 3 == 0 ? "F" : "M";
+            }
+        }, "id", "site_id", "gender");
+        db.addTable("referral", REFERRALS, (row, column) -> {
+            switch (column) {
+                case 1: return (long) row;
+                case 2: return (long) (row % PATIENTS);
+                case 3: return 17000 * DAY + row * DAY;
+                default: return "routine";
+            }
+        }, "id", "patient_id", "referral_start_date", "urgency");
+        db.addTable("contact", contacts, (row, column) -> {
+            switch (column) {
+                case 1: return (long) row;
+                case 2: return (long) (row % REFERRALS);
+                case 3: return 17000 * DAY + row % 1000 * DAY;
+                case 4: return row % 2 == 0;
+                default: return "Team " + row % 10;
+            }
+        }, "id", "referral_id", "contact_date", "patient_attended", "team");
+        return db;
+    }
+
+    private static class CountingItemWriter implements ItemWriter
+    {
+        int count = 0;
+        List<String> stored = null;
+
+        public synchronized Integer store(Item item) {
+            count++;
+            if (stored != null) {
+                stored.add(item.getClassName() + " " + item.getIdentifier());
+            }
+            return count;
+        }
+
+        public synchronized void storeAll(Collection<Item> items) {
+            for (Item item : items) {
+                store(item);
+            }
+        }
+
+        public void store(ReferenceList refList, Integer itemId) {
+        }
+
+        public void store(Attribute att, Integer itemId) {
+        }
+
+        public void close() {
+        }
     }
 }
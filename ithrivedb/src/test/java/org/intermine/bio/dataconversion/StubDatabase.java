@@ -0,0 +1,293 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+
+/**
+ * An in memory stand-in for the iThriveDB data source. The rows are generated when read, so a
+ * table can be as large as needed without taking any memory, and the driver settings used by
+ * the converter (autocommit, fetch size, connections, queries) are recorded. The id of a row is
+ * its number, which is what the key range and high-water mark queries select on.
+ *
+ * @author
+ */
+public class StubDatabase
+{
+    /**
+     * The rows of a table.
+     */
+    public interface Rows
+    {
+        /**
+         * @param row the row number, from 0
+         * @param column the column number, from 1
+         * @return the value
+         */
+        Object get(int row, int column);
+    }
+
+    private final Map<String, String[]> columns = new HashMap<>();
+    private final Map<String, Integer> sizes = new HashMap<>();
+    private final Map<String, Rows> rows = new HashMap<>();
+    private final Map<String, Runnable> lastRow = new HashMap<>();
+
+    private volatile boolean readWithoutTransaction = false;
+    private volatile int fetchSize = 0;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger open = new AtomicInteger();
+    private volatile int maxOpen = 0;
+    private final AtomicInteger closedInTransaction = new AtomicInteger();
+    private final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Add a table. Tables not added are empty.
+     * @param table the table name
+     * @param size the number of rows
+     * @param rows the values
+     * @param columns the column names
+     */
+    public void addTable(String table, int size, Rows rows, String... columns) {
+        this.columns.put(table, columns);
+        this.sizes.put(table, size);
+        this.rows.put(table, rows);
+    }
+
+    /**
+     * @param table a table name
+     * @param action run when the last row of the table is read
+     */
+    public void onLastRow(String table, Runnable action) {
+        lastRow.put(table, action);
+    }
+
+    /**
+     * @return a data source giving a new connection each time
+     */
+    public DataSource getDataSource() {
+        return proxy(DataSource.class, (proxy, method, args) -> {
+            if ("getConnection".equals(method.getName())) {
+                return getConnection();
+            }
+            return defaultValue(method);
+        });
+    }
+
+    private Connection getConnection() {
+        connections.incrementAndGet();
+        synchronized (this) {
+            maxOpen = Math.max(maxOpen, open.incrementAndGet());
+        }
+        boolean[] autoCommit = {true};
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getAutoCommit":
+                    return autoCommit[0];
+                case "setAutoCommit":
+                    autoCommit[0] = (Boolean) args[0];
+                    return null;
+                case "createStatement":
+                    return createStatement(Statement.class, null, autoCommit);
+                case "prepareStatement":
+                    return createStatement(PreparedStatement.class, (String) args[0], autoCommit);
+                case "close":
+                    open.decrementAndGet();
+                    if (!autoCommit[0]) {
+                        closedInTransaction.incrementAndGet();
+                    }
+                    return null;
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    /**
+     * @return the number of connections opened
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return the largest number of connections open at the same time
+     */
+    public int getMaxOpen() {
+        return maxOpen;
+    }
+
+    /**
+     * @return the number of connections not closed
+     */
+    public int getOpen() {
+        return open.get();
+    }
+
+    /**
+     * @return the number of connections closed (given back to a pool) with autocommit off
+     */
+    public int getClosedInTransaction() {
+        return closedInTransaction.get();
+    }
+
+    /**
+     * @return the queries run
+     */
+    public List<String> getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return true if a query was run with autocommit on
+     */
+    public boolean isReadWithoutTransaction() {
+        return readWithoutTransaction;
+    }
+
+    /**
+     * @return the fetch size of the last query
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    // a prepared statement takes a single long parameter
+    private <T extends Statement> T createStatement(Class<T> type, String prepared, boolean[] autoCommit) {
+        int[] size = new int[1];
+        Object[] parameter = new Object[1];
+        return proxy(type, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "setFetchSize":
+                    size[0] = (Integer) args[0];
+                    return null;
+                case "setLong":
+                    parameter[0] = args[1];
+                    return null;
+                case "executeQuery":
+                    String sql = prepared == null ? (String) args[0]
+                            : prepared.replace("?", String.valueOf(parameter[0]));
+                    readWithoutTransaction |= autoCommit[0];
+                    fetchSize = size[0];
+                    queries.add(sql);
+                    return executeQuery(sql);
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    private static final Pattern QUERY = Pattern.compile(
+            "SELECT (.*) FROM (\\w+)(?: WHERE (?:1 = 0|id >= (\\d+) AND id < (\\d+) ORDER BY id|id > (\\d+)))?");
+
+    private ResultSet executeQuery(String sql) {
+        Matcher matcher = QUERY.matcher(sql);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unexpected query: " + sql);
+        }
+        String table = matcher.group(2);
+        int size = sizes.containsKey(table) ? sizes.get(table) : 0;
+        if (matcher.group(1).contains("count(*)")) {
+            Object[] stats = {0L, (long) size - 1, (long) size};
+            return createResultSet(new String[] {"min", "max", "count"}, 0, 1,
+                    (row, column) -> stats[column - 1], null);
+        }
+        String[] names = columns.containsKey(table) ? columns.get(table) : new String[] {"id"};
+        int from = 0;
+        int to = size;
+        if (sql.contains("1 = 0")) {
+            to = 0;
+        } else if (matcher.group(3) != null) {
+            from = Integer.parseInt(matcher.group(3));
+            to = Math.min(size, Integer.parseInt(matcher.group(4)));
+        } else if (matcher.group(5) != null) {
+            from = Math.min(size, Integer.parseInt(matcher.group(5)) + 1);
+        }
+        return createResultSet(names, from, to, rows.get(table), to == size ? lastRow.get(table) : null);
+    }
+
+    private ResultSet createResultSet(String[] names, int from, int to, Rows values, Runnable last) {
+        ResultSetMetaData meta = proxy(ResultSetMetaData.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getColumnCount":
+                    return names.length;
+                case "getColumnLabel":
+                case "getColumnName":
+                    return names[(Integer) args[0] - 1];
+                default:
+                    return defaultValue(method);
+            }
+        });
+        int[] row = {from - 1};
+        Object[] value = new Object[1];
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getMetaData":
+                    return meta;
+                case "next":
+                    row[0]++;
+                    if (row[0] == to - 1 && last != null) {
+                        last.run();
+                    }
+                    return row[0] < to;
+                case "wasNull":
+                    return value[0] == null;
+                case "getString":
+                    value[0] = values.get(row[0], (Integer) args[0]);
+                    return value[0] == null ? null : value[0].toString();
+                case "getLong":
+                    value[0] = values.get(row[0], (Integer) args[0]);
+                    return value[0] == null ? 0L : ((Number) value[0]).longValue();
+                case "getBoolean":
+                    value[0] = values.get(row[0], (Integer) args[0]);
+                    return value[0] != null && (Boolean) value[0];
+                case "getTimestamp":
+                    value[0] = values.get(row[0], (Integer) args[0]);
+                    return value[0] == null ? null : new Timestamp(((Number) value[0]).longValue());
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubDatabase.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
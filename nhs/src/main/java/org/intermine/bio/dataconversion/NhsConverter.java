@@ -14,12 +14,13 @@ import org.apache.log4j.Logger;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.FormattedTextParser;
 import org.intermine.xml.full.Item;
 
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 
@@ -40,6 +41,46 @@ public class NhsConverter extends BioFileConverter {
 
     private String dataSetRef = null; // to link patients to sites
 
+    private DateParser dates = DateParser.getInstance(); // shared cache of the parsed dates
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private ItemBatch itemBatch; // the diagnostics, written in batches
+
+    // the files of the dataset, converted together
+    private static final List<String> FILES = Arrays.asList("campet.csv", "campetPatLevDia.csv",
+            "campetPatLevCon.csv");
+    private static final String ADDITIONS_FILE = "nhs_additions.xml";
+    private final ItemCache cache; // the ItemWriter, recording the items if there is a manifest
+    private File manifestDir = null;
+    private FileManifest manifest = null;
+    private final List<File> files = new ArrayList<>(); // with a manifest, converted at close()
+    private boolean replayed = false;
+    private Charset encoding = StandardCharsets.UTF_8; // of the data files
+
+    // the contact and diagnosis rows read before the patients (see processDemographic)
+    private static final long DEFAULT_DEFERRED_MEMORY = 64L << 20;
+    private long deferredMemory = DEFAULT_DEFERRED_MEMORY;
+    private boolean demographicRead = false;
+    private RecordSpill deferredContacts = null;
+    private RecordSpill deferredDiagnoses = null;
+    private String[] diagnosisHeader = null;
+    private Set<String> diagnosed = new HashSet<>(); // patRefId, with an assessment date from the diagnosis file
+
+    // the yes/no columns of the diagnosis file, as bits of a DiagnosticAssessment
+    private static final int FIRST_FLAG = 8;
+    private static final int MAX_FLAGS = 64;
+    private boolean packedDiagnostics = false;
+    private boolean flagsStored = false;
+
+    private boolean useLookups = false;
+    private LookupDictionary lookups = null; // the lookup items, stored and cached as the others
+
+    private final MeteredItemWriter meteredWriter; // times the stores
+    private final ConversionMetrics metrics = new ConversionMetrics("NHS");
+    private final SiteMetrics siteMetrics = metrics.getSite(DATASET_TITLE);
+    private File metricsFile = null;
+    private DataQualityLog quality = new DataQualityLog(LOG); // the problems found in the rows, by file
+
     /**
      * Constructor
      *
@@ -47,31 +88,211 @@ public class NhsConverter extends BioFileConverter {
      * @param model  the Model
      */
     public NhsConverter(ItemWriter writer, Model model) {
-        super(writer, model, null, DATASET_TITLE, null);
+        this(new ItemCache(writer), model);
+    }
+
+    private NhsConverter(ItemCache cache, Model model) {
+        super(new MeteredItemWriter(cache), model, null, DATASET_TITLE, null);
+        this.cache = cache;
+        meteredWriter = (MeteredItemWriter) getItemWriter();
+        meteredWriter.setSite(siteMetrics);
+        itemBatch = new ItemBatch(meteredWriter, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Set the number of diagnostics written together to the ItemWriter. Default is 1000.
+     *
+     * @param size the batch size
+     */
+    public void setBatchSize(String size) {
+        itemBatch.setSize(Integer.parseInt(size.trim()));
+    }
+
+    /**
+     * Set the encoding of the data files. Default is UTF-8.
+     *
+     * @param charsetName the name of the encoding, e.g. windows-1252
+     */
+    public void setEncoding(String charsetName) {
+        encoding = Charset.forName(charsetName.trim());
+    }
+
+    /**
+     * Store the diagnoses of each row of the diagnosis file as one DiagnosticAssessment, the
+     * yes/no columns as bits of its flags and answered attributes, instead of one Diagnostic per
+     * yes. The names of the bits are stored as DiagnosticFlag items. Default is false.
+     *
+     * @param packed true to store DiagnosticAssessment items
+     */
+    public void setPackedDiagnostics(String packed) {
+        packedDiagnostics = Boolean.parseBoolean(packed.trim());
+    }
+
+    /**
+     * Reference the ethnicity, gender, urgency, referral source and team of the patients,
+     * referrals and contacts as lookup items (ethnicityTerm, genderTerm, urgencyTerm, sourceTerm,
+     * teamTerm), one per value whatever its spelling (see LookupDictionary), instead of
+     * storing them as attributes. Default is false.
+     *
+     * @param lookups true to use lookup items
+     */
+    public void setLookups(String lookups) {
+        useLookups = Boolean.parseBoolean(lookups.trim());
+    }
+
+    /**
+     * Set the memory used to keep the contact and diagnosis rows read before campet.csv, the
+     * rest is written to temporary files. Default is 64 MB.
+     *
+     * @param megabytes the memory, in MB
+     */
+    public void setDeferredMemory(String megabytes) {
+        deferredMemory = Long.parseLong(megabytes.trim()) << 20;
+    }
+
+    /**
+     * Write the metrics of the conversion of each file (rows read, orphan rows, items created,
+     * store times, cache sizes) as JSON to a file at the end of the run. Without it, they are
+     * logged. While the converter runs, they can be followed through JMX (see
+     * ConversionMetrics).
+     *
+     * @param file the JSON file
+     */
+    public void setMetricsFile(String file) {
+        metricsFile = new File(file.trim());
+    }
+
+    /**
+     * Keep a manifest of the files converted, with a cache of the items they gave: if the
+     * files are the same as in the previous build, the items are stored from the cache and the
+     * files are not read. process() then only collects the files, they are checked and converted
+     * at close(). The directory must not be the one of the data files.
+     *
+     * @param dir the directory of the manifest and of the item cache
+     */
+    public void setManifestDir(String dir) {
+        manifestDir = new File(dir.trim());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Item createItem(String className) {
+        if (siteMetrics != null) {
+            // null while BioFileConverter creates the data set
+            siteMetrics.created(className);
+        }
+        return super.createItem(className);
     }
 
     @Override
     public void process(Reader reader) throws Exception {
         File f = getCurrentFile();
-        String fileName = getCurrentFile().getName();
+        if (manifestDir != null) {
+            // the manifest is checked once all the files of the dataset are known
+            if (FILES.stream().anyMatch(f.getName()::equalsIgnoreCase)) {
+                files.add(f);
+            }
+            return;
+        }
+        processFile(f);
+    }
+
+    private void processFile(File f) throws Exception {
+        String fileName = f.getName();
         if (fileName.endsWith("csv")) {
             LOG.info("Reading file: " + fileName);
+            siteMetrics.startFile(fileName);
             createDataSet(DATASET_TITLE);   // using this loader only for cambridge dataset
             if (fileName.equalsIgnoreCase("campet.csv"))
-                processDemographic(new FileReader(f));
+                processDemographic(f);
             if (fileName.equalsIgnoreCase("campetPatLevDia.csv"))
-                processDiagnosis(new FileReader(f));
+                processDiagnosis(f);
             if (fileName.equalsIgnoreCase("campetPatLevCon.csv"))
-                processContact(new FileReader(f));
+                processContact(f);
+            itemBatch.flush();
+            quality.report(DATASET_TITLE + ", " + fileName);
+            sampleCaches();
+            siteMetrics.endFile();
         }
 
     }
 
 
-    private void processDemographic(Reader reader) throws Exception {
+    /**
+     * store the items of the previous build if the files given to process() haven't changed,
+     * or convert them and record the items
+     */
+    private void openManifest() throws Exception {
+        // all the code of the bio-source and of ithrive-common, and the model additions
+        String version = FileManifest.codeVersion(NhsConverter.class, FileManifest.class) + " "
+                + FileManifest.version(getClass().getClassLoader(), LookupDictionary.SYNONYMS_FILE, ADDITIONS_FILE);
+        if (packedDiagnostics) {
+            version += " packed";
+        }
+        if (useLookups) {
+            version += " lookups";
+        }
+        manifest = new FileManifest(manifestDir, version);
+        if (manifest.isUnchanged(DATASET_TITLE, files)) {
+            try {
+                int items = ItemCache.replay(manifest.getCache(DATASET_TITLE), manifest.getItems(DATASET_TITLE),
+                        this);
+                replayed = true;
+                LOG.info("Files unchanged, " + items + " items stored from " + manifest.getCache(DATASET_TITLE));
+                return;
+            } catch (IOException e) {
+                // checked before anything is stored
+                LOG.warn("Can't use the item cache, converting the files. " + e.getMessage());
+            }
+        }
+        cache.record(manifest.getCache(DATASET_TITLE));
+        for (File file : files) {
+            processFile(file);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws Exception {
+        if (manifestDir != null) {
+            openManifest();
+        }
+        if (!replayed) {
+            if (!demographicRead && (deferredContacts != null || deferredDiagnoses != null)) {
+                LOG.warn("campet.csv not read: " + deferred(deferredContacts) + " contact and "
+                        + deferred(deferredDiagnoses) + " diagnosis rows without patient ignored.");
+            }
+            closeDeferred();
+            // changed by the three files, in any order
+            storeReferrals();
+            storeContacts();
+            itemBatch.flush();
+            quality.report(DATASET_TITLE);
+        }
+        if (cache.isRecording()) {
+            int items = cache.finish();
+            if (items >= 0) {
+                manifest.update(DATASET_TITLE, files, items);
+            }
+        }
+        metrics.close();
+        if (metricsFile != null) {
+            metrics.write(metricsFile);
+            LOG.info("Conversion metrics written to " + metricsFile);
+        } else {
+            LOG.info("Conversion metrics:\n" + metrics.toJson());
+        }
+        super.close();
+    }
+
+    private void processDemographic(File file) throws Exception {
 
         // Read all lines into id pairs, track any ensembl ids or symbols that appear twice
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // Period,Patient ID,Referral ID,Age at date of referral,EthnicityDescription,Gender
@@ -86,6 +307,7 @@ public class NhsConverter extends BioFileConverter {
 
         while (lineIter.hasNext()) {
             String[] line = (String[]) lineIter.next();
+            siteMetrics.row();
 
             String period = line[0];
             String patientId = line[1];
@@ -102,7 +324,45 @@ public class NhsConverter extends BioFileConverter {
 
         //storeReferrals();
         storePatients();
+        demographicRead = true;
+        processDeferred();
+    }
 
+    /**
+     * convert the contact and diagnosis rows read before the patients, in the order of the
+     * files when read after campet.csv: the contacts, then the diagnoses
+     */
+    private void processDeferred() throws Exception {
+        if (deferredContacts != null) {
+            LOG.info("Converting " + deferredContacts.size() + " contact rows read before the patients"
+                    + (deferredContacts.isSpilled() ? " (spilled to disk)." : "."));
+            for (String[] line : deferredContacts) {
+                convertContact(line);
+            }
+        }
+        if (deferredDiagnoses != null) {
+            LOG.info("Converting " + deferredDiagnoses.size() + " diagnosis rows read before the patients"
+                    + (deferredDiagnoses.isSpilled() ? " (spilled to disk)." : "."));
+            for (String[] line : deferredDiagnoses) {
+                convertDiagnosis(line, diagnosisHeader);
+            }
+        }
+        closeDeferred();
+    }
+
+    private void closeDeferred() throws IOException {
+        if (deferredContacts != null) {
+            deferredContacts.close();
+            deferredContacts = null;
+        }
+        if (deferredDiagnoses != null) {
+            deferredDiagnoses.close();
+            deferredDiagnoses = null;
+        }
+    }
+
+    private static int deferred(RecordSpill records) {
+        return (records == null) ? 0 : records.size();
     }
 
     /**
@@ -134,10 +394,10 @@ public class NhsConverter extends BioFileConverter {
             item = createItem("Patient");
             item.setAttribute("identifier", patientId);
             if (!ethnicity.isEmpty()) {
-                item.setAttribute("ethnicity", ethnicity);
+                setLookup(item, "ethnicity", "Ethnicity", ethnicity);
             }
             if (!gender.isEmpty()) {
-                item.setAttribute("gender", gender);
+                setLookup(item, "gender", "Gender", gender);
             }
             item.setAttributeIfNotNull("site", site);
             item.setReference("dataSet", dataSetRef);
@@ -161,6 +421,45 @@ public class NhsConverter extends BioFileConverter {
         return item;
     }
 
+    /**
+     * the dictionary of the bits of the DiagnosticAssessment flags: one DiagnosticFlag per
+     * yes/no column of the diagnosis file
+     */
+    private void storeFlags(String[] header) throws ObjectStoreException {
+        if (header.length - FIRST_FLAG > MAX_FLAGS) {
+            throw new IllegalArgumentException("The diagnosis file has " + (header.length - FIRST_FLAG)
+                    + " diagnoses, only " + MAX_FLAGS + " can be packed: set packedDiagnostics to false.");
+        }
+        if (flagsStored) {
+            return;
+        }
+        for (int i = FIRST_FLAG; i < header.length; i++) {
+            Item flag = createItem("DiagnosticFlag");
+            flag.setAttribute("name", header[i]);
+            flag.setAttribute("bit", String.valueOf(i - FIRST_FLAG));
+            flag.setReference("dataSet", dataSetRef);
+            store(flag);
+        }
+        flagsStored = true;
+    }
+
+    private Item createAssessment(String patientId, String patRefId, String assessmentDate, long flags,
+                                  long answered) {
+        Item referral = referrals.get(patRefId);
+        Item patient = patients.get(patientId);
+        Item item = createItem("DiagnosticAssessment");
+        item.setAttributeIfNotNull("assessmentDate", assessmentDate);
+        item.setAttribute("flags", String.valueOf(flags));
+        item.setAttribute("answered", String.valueOf(answered));
+        if (patient != null) {
+            item.setReference("patient", patient);
+        }
+        if (referral != null) {
+            item.setReference("referral", referral);
+        }
+        return item;
+    }
+
     private Item createDiagnostic (String patientId, String patRefId, String assessmentDate, String observation)
             throws ObjectStoreException {
         Item referral = referrals.get(patRefId);
@@ -178,9 +477,61 @@ public class NhsConverter extends BioFileConverter {
     }
 
 
+    /**
+     * count a row for a patient or referral not found, reported at the end of the file
+     */
+    private void orphan(String kind, String id) {
+        siteMetrics.orphan();
+        quality.warn(kind, id);
+    }
+
+    /**
+     * the sizes of the caches, for the metrics
+     */
+    private void sampleCaches() {
+        siteMetrics.cacheSize("patients", patients.size());
+        siteMetrics.cacheSize("referrals", referrals.size());
+        siteMetrics.cacheSize("contacts", contacts.size());
+        siteMetrics.cacheSize("deferredRows", deferred(deferredContacts) + deferred(deferredDiagnoses));
+    }
+
+    /**
+     * set a date attribute, if the value is a date (see DateParser), the other values reported
+     */
+    private void setDateAttribute(Item item, String name, String value) {
+        String date = dates.toAttribute(value);
+        if (date == null && value != null && !value.trim().isEmpty() && !value.contains("NULL")) {
+            quality.warn("unparseable dates", value);
+        }
+        item.setAttributeIfNotNull(name, date);
+    }
+
+    /**
+     * set a low cardinality value: as a reference to its lookup item (attribute + "Term") with
+     * lookups, as an attribute otherwise
+     */
+    private void setLookup(Item item, String attribute, String className, String value)
+            throws ObjectStoreException {
+        if (!useLookups) {
+            item.setAttributeIfNotNull(attribute, value);
+            return;
+        }
+        if (lookups == null) {
+            try {
+                lookups = new LookupDictionary(this, cache);
+            } catch (IOException e) {
+                throw new ObjectStoreException("Can't read " + LookupDictionary.SYNONYMS_FILE, e);
+            }
+        }
+        String ref = lookups.getIdentifier(className, value);
+        if (ref != null) {
+            item.setReference(attribute + "Term", ref);
+        }
+    }
+
     //
-    // TODO: add methods to create items in different order (of loading files..)
-    // for the moment we assume DEMO, CON, DIA
+    // the files can come in any order: the contact and diagnosis rows read before the patients
+    // are kept (see processDeferred), and the referrals and contacts stored at the end (close)
     //
 
     private void storePatients () throws ObjectStoreException {
@@ -202,9 +553,9 @@ public class NhsConverter extends BioFileConverter {
     }
 
 
-    private void processContact (Reader reader) throws Exception {
+    private void processContact(File file) throws Exception {
         // Read all lines into id pairs, track any ensembl ids or symbols that appear twice
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+        MappedCsvReader lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // Period,Patient ID,Referral ID,ReferralUrgency,ReferralSource,Referral accepted / rejected,
@@ -220,57 +571,68 @@ public class NhsConverter extends BioFileConverter {
         // parse header in case
         String[] header = (String[]) lineIter.next();
         LOG.info("PROC CON " + Arrays.toString(header));
+        // not the period, nor the repeated DischargeReason
+        lineIter.setColumns(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 12, 13, 14, 15, 16);
 
         while (lineIter.hasNext()) {
             String[] line = (String[]) lineIter.next();
-
-            String period = line[0];
-            String patientId = line[1];
-            String referralId = line[2];
-            String urgency = line[3];
-            String source = line[4];
-            String outcome = line[5];
-            String dischargeReason = line[6];
-            String referralDate = line[7];
-            String assessmentDate = line[8];
-            String firstTreatmentDate = line[9];
-            String dischargeDate = line[10];
-            //String dischargeReason = line[11]; repeated in csv
-            String cumulativeCAMHS = line[12];
-            String contactDate = line[13];
-            String contactType = line[14];
-            String contactOutcome = line[15];
-            String contactTeam = line[16];
-
-            // check if patient
-            if (patients.get(patientId) == null) {
-                LOG.warn("No patient found with identifier: " + patientId);
+            siteMetrics.row();
+            if (!demographicRead) {
+                if (deferredContacts == null) {
+                    deferredContacts = new RecordSpill(deferredMemory);
+                }
+                deferredContacts.add(line);
                 continue;
             }
-            // add attributes to referral
-            String patRefId = patientId + "-" + referralId;  // to identify the referral
-            if (referrals.get(patRefId) != null) {
-                //LOG.info("Adding referral! " + patRefId);
-                Item thisReferral = referrals.get(patRefId);
-                thisReferral.setAttributeIfNotNull("urgency", urgency);
-                thisReferral.setAttributeIfNotNull("source", source);
-                thisReferral.setAttributeIfNotNull("outcome", outcome);
-                thisReferral.setAttributeIfNotNull("dischargeReason", dischargeReason);
-                thisReferral.setAttributeIfNotNull("referralDate", referralDate);
-                thisReferral.setAttributeIfNotNull("assessmentDate", assessmentDate);
-                thisReferral.setAttributeIfNotNull("firstTreatmentDate", firstTreatmentDate);
-                thisReferral.setAttributeIfNotNull("dischargeDate", dischargeDate);
-                thisReferral.setAttributeIfNotNull("cumulativeCAMHS", cumulativeCAMHS );
-            } else {
-                LOG.warn("Please check your CONTACT data: no referral " + referralId + " for patient "
-                        + patientId +".");
-            }
-            Item contact = createContact(patientId, referralId, contactDate, contactType,
-                    contactOutcome, contactTeam);
+            convertContact(line);
+        }
+    }
 
+    private void convertContact(String[] line) throws ObjectStoreException {
+        String patientId = line[1];
+        String referralId = line[2];
+        String urgency = line[3];
+        String source = line[4];
+        String outcome = line[5];
+        String dischargeReason = line[6];
+        String referralDate = line[7];
+        String assessmentDate = line[8];
+        String firstTreatmentDate = line[9];
+        String dischargeDate = line[10];
+        //String dischargeReason = line[11]; repeated in csv
+        String cumulativeCAMHS = line[12];
+        String contactDate = line[13];
+        String contactType = line[14];
+        String contactOutcome = line[15];
+        String contactTeam = line[16];
+
+        // check if patient
+        if (patients.get(patientId) == null) {
+            orphan("rows with no patient found", patientId);
+            return;
+        }
+        // add attributes to referral
+        String patRefId = patientId + "-" + referralId;  // to identify the referral
+        if (referrals.get(patRefId) != null) {
+            //LOG.info("Adding referral! " + patRefId);
+            Item thisReferral = referrals.get(patRefId);
+            setLookup(thisReferral, "urgency", "Urgency", urgency);
+            setLookup(thisReferral, "source", "ReferralSource", source);
+            thisReferral.setAttributeIfNotNull("outcome", outcome);
+            thisReferral.setAttributeIfNotNull("dischargeReason", dischargeReason);
+            setDateAttribute(thisReferral, "referralDate", referralDate);
+            if (!diagnosed.contains(patRefId)) {
+                // the one of the diagnosis file is kept
+                setDateAttribute(thisReferral, "assessmentDate", assessmentDate);
+            }
+            setDateAttribute(thisReferral, "firstTreatmentDate", firstTreatmentDate);
+            setDateAttribute(thisReferral, "dischargeDate", dischargeDate);
+            thisReferral.setAttributeIfNotNull("cumulativeCAMHS", cumulativeCAMHS );
+        } else {
+            orphan("rows with no referral found (patient-referral)", patientId + "-" + referralId);
         }
-//        storeReferrals();
-//        storeContacts();
+        Item contact = createContact(patientId, referralId, contactDate, contactType,
+                contactOutcome, contactTeam);
     }
 
     private Item createContact (String patientId, String referralId, String contactDate,
@@ -280,10 +642,10 @@ public class NhsConverter extends BioFileConverter {
         Item item = contacts.get(patRefId);
         if (item == null) {
             item = createItem("Contact");
-            item.setAttributeIfNotNull("contactDate", contactDate);
+            setDateAttribute(item, "contactDate", contactDate);
             item.setAttributeIfNotNull("contactType", contactType);
             item.setAttributeIfNotNull("contactOutcome", contactOutcome);
-            item.setAttributeIfNotNull("team", contactTeam);
+            setLookup(item, "team", "Team", contactTeam);
             Item patient = patients.get(patientId);
             if (patient != null) {
                 item.setReference("patient", patient);
@@ -294,10 +656,10 @@ public class NhsConverter extends BioFileConverter {
     }
 
 
-    private void processDiagnosis(Reader reader) throws Exception {
+    private void processDiagnosis(File file) throws Exception {
 
         // Read all lines into id pairs, track any ensembl ids or symbols that appear twice
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // Period,Patient ID,Referral ID,ReferralTeamName,ICD10DiagnosisStartDate,DiagnosisEndDate,
@@ -328,57 +690,85 @@ public class NhsConverter extends BioFileConverter {
         // parse header in case
         String[] header = (String[]) lineIter.next();
         LOG.info("PROC DIA " + Arrays.toString(header));
+        diagnosisHeader = header;
+        if (packedDiagnostics) {
+            storeFlags(header);
+        }
         while (lineIter.hasNext()) {
             String[] line = (String[]) lineIter.next();
-
-            String period = line[0];
-            String patientId = line[1];
-            String referralId = line[2];
-            String team = line[3];
-            String startDate = line[4];
-            String endDate = line[5];
-            String ICD10diagnosis = line[6];
-            String assessmentDate = line[7];
-
-            // check if patient
-            if (patients.get(patientId) == null) {
-                LOG.warn("No patient found with identifier: " + patientId);
+            siteMetrics.row();
+            if (!demographicRead) {
+                if (deferredDiagnoses == null) {
+                    deferredDiagnoses = new RecordSpill(deferredMemory);
+                }
+                deferredDiagnoses.add(line);
                 continue;
             }
-            // add attributes to referral
-            String patRefId = patientId + "-" + referralId;  // to identify the referral
-            if (referrals.get(patRefId) != null) {
-                //LOG.info("Adding referral! " + patRefId);
-                Item thisReferral = referrals.get(patRefId);
-                thisReferral.setAttributeIfNotNull("referralTeam", team);
-                thisReferral.setAttributeIfNotNull("diagnosisStartDate", startDate);
-                thisReferral.setAttributeIfNotNull("diagnosisEndDate", endDate);
-                thisReferral.setAttributeIfNotNull("ICD10diagnosis", ICD10diagnosis);
-                thisReferral.setAttributeIfNotNull("assessmentDate", assessmentDate);
-            } else {
-                LOG.warn("Please check your CONTACT data: no referral " + referralId + " for patient "
-                        + patientId +".");
-                continue;
+            convertDiagnosis(line, header);
+        }
+    }
+
+    private void convertDiagnosis(String[] line, String[] header) throws ObjectStoreException {
+        String period = line[0];
+        String patientId = line[1];
+        String referralId = line[2];
+        String team = line[3];
+        String startDate = line[4];
+        String endDate = line[5];
+        String ICD10diagnosis = line[6];
+        String assessmentDate = line[7];
+
+        // check if patient
+        if (patients.get(patientId) == null) {
+            orphan("rows with no patient found", patientId);
+            return;
+        }
+        // add attributes to referral
+        String patRefId = patientId + "-" + referralId;  // to identify the referral
+        if (referrals.get(patRefId) != null) {
+            //LOG.info("Adding referral! " + patRefId);
+            Item thisReferral = referrals.get(patRefId);
+            thisReferral.setAttributeIfNotNull("referralTeam", team);
+            thisReferral.setAttributeIfNotNull("diagnosisStartDate", startDate);
+            thisReferral.setAttributeIfNotNull("diagnosisEndDate", endDate);
+            thisReferral.setAttributeIfNotNull("ICD10diagnosis", ICD10diagnosis);
+            setDateAttribute(thisReferral, "assessmentDate", assessmentDate);
+            if (dates.toAttribute(assessmentDate) != null) {
+                diagnosed.add(patRefId);
             }
+        } else {
+            orphan("rows with no referral found (patient-referral)", patientId + "-" + referralId);
+            return;
+        }
 
-            // create diagnostic (with date)
-            // for each of the 51 diagnostics if yes add header to diagnostic (as observation)
-            //
-            for (int i=8; i<line.length; i++)
-            {
-                if (line[i].equalsIgnoreCase("yes"))
-                {
-                    LOG.debug("DDIIAA " + assessmentDate + ": " + header[i]);
-                    store(createDiagnostic(patientId, patRefId, assessmentDate, header[i]));
+        if (packedDiagnostics) {
+            long flags = 0;
+            long answered = 0;
+            for (int i = FIRST_FLAG; i < Math.min(line.length, header.length); i++) {
+                long bit = 1L << (i - FIRST_FLAG);
+                if (line[i].equalsIgnoreCase("yes")) {
+                    flags |= bit;
+                    answered |= bit;
+                } else if (line[i].equalsIgnoreCase("no")) {
+                    answered |= bit;
                 }
             }
-
+            if (answered != 0) {
+                itemBatch.add(createAssessment(patientId, patRefId, assessmentDate, flags, answered));
+            }
+            return;
         }
 
-        storeReferrals();
-        storeContacts();
-
-
+        // create diagnostic (with date)
+        // for each of the 51 diagnostics if yes add header to diagnostic (as observation)
+        //
+        for (int i=8; i<line.length; i++)
+        {
+            if (line[i].equalsIgnoreCase("yes"))
+            {
+                itemBatch.add(createDiagnostic(patientId, patRefId, assessmentDate, header[i]));
+            }
+        }
     }
 
 }
@@ -391,7 +781,7 @@ public class NhsConverter extends BioFileConverter {
 //            if (fileName.endsWith("csv")) {
 //                LOG.info("Reading file: " + fileName);
 //                if (fileName.equalsIgnoreCase("campet.csv"))
-//                processFile(new FileReader(f));
+//                processFile(f);
 //            }
 //        }
 //    }
@@ -10,29 +10,126 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import org.apache.log4j.Logger;
 import org.intermine.dataconversion.ItemsTestCase;
 import org.intermine.dataconversion.MockItemWriter;
 import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Item;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs the three files in test/resources/golden (written by SyntheticExtracts of the benchmarks, scale
+ * 0.005 and seed 1) through the converter in each of its modes, and compares the items with
+ * golden/expected.properties (see GoldenOutput). The expected items are the ones of the
+ * converter before the referral and contact dates became Date attributes, with those dates parsed
+ * by DateParser (and dropped where unparseable), and with the files in the order it needed:
+ * campet.csv, campetPatLevCon.csv, campetPatLevDia.csv.
+ */
 public class NhsConverterTest extends ItemsTestCase
 {
+    private static final Logger LOG = Logger.getLogger(NhsConverterTest.class);
+
     Model model = Model.getInstanceByName("genomic");
     NhsConverter converter;
     MockItemWriter itemWriter;
 
+    private static final String NAME = "Cambridge";
+    private static final String[] FILES = {"campet.csv", "campetPatLevDia.csv", "campetPatLevCon.csv"};
+    private static final String[] REVERSED = {"campetPatLevCon.csv", "campetPatLevDia.csv", "campet.csv"};
+
     public NhsConverterTest(String arg) {
         super(arg);
     }
 
     public void setUp() throws Exception {
         super.setUp();
-        // if you need to do some preprocessing and set up, do that here
     }
 
     public void testProcess() throws Exception {
-        // read in a test file (place in test/resources so it's on the classpath)
-        // process using your converter
-        // compare results to expected results
-        // look at the other intermine unit tests for help!
+        GoldenOutput golden = new GoldenOutput("golden");
+        File dir = new File(getClass().getClassLoader().getResource("golden").toURI());
+        List<String> differences = new ArrayList<>();
+        // the first mode writes golden/expected.properties
+        differences.addAll(check(golden, dir, "serial", FILES, c -> { }));
+        differences.addAll(check(golden, dir, "batch size 1", FILES, c -> c.setBatchSize("1")));
+        // the contact and diagnosis rows read before campet.csv are kept, or written to disk
+        differences.addAll(check(golden, dir, "files reversed", REVERSED, c -> { }));
+        differences.addAll(check(golden, dir, "files reversed, spilled", REVERSED, c -> c.setDeferredMemory("0")));
+        // the first build records the items, the second one stores them from the cache
+        File manifest = Files.createTempDirectory("manifest").toFile();
+        try {
+            Consumer<NhsConverter> cached = c -> c.setManifestDir(manifest.getPath());
+            differences.addAll(check(golden, dir, "item cache", FILES, cached));
+            differences.addAll(check(golden, dir, "item cache replayed", FILES, cached));
+        } finally {
+            delete(manifest);
+        }
+        golden.close();
+        assertTrue(String.join("\n", differences), differences.isEmpty());
+    }
+
+    /**
+     * with a manifest, only the files given to the converter are recorded: adding a file
+     * converts the files again
+     */
+    public void testManifestGivenFiles() throws Exception {
+        File dir = new File(getClass().getClassLoader().getResource("golden").toURI());
+        String[] some = {"campet.csv", "campetPatLevDia.csv"};
+        File manifest = Files.createTempDirectory("manifest").toFile();
+        try {
+            Collection<Item> items = convert(dir, some, c -> c.setManifestDir(manifest.getPath()));
+            assertEquals(new ItemDigest(convert(dir, some, c -> { })).getDigest(), new ItemDigest(items).getDigest());
+            items = convert(dir, FILES, c -> c.setManifestDir(manifest.getPath()));
+            assertEquals(new ItemDigest(convert(dir, FILES, c -> { })).getDigest(), new ItemDigest(items).getDigest());
+        } finally {
+            delete(manifest);
+        }
+    }
+
+    private List<String> check(GoldenOutput golden, File dir, String mode, String[] files,
+        Consumer<NhsConverter> setUp) throws Exception {
+        long start = System.nanoTime();
+        Collection<Item> items = convert(dir, files, setUp);
+        long nanos = System.nanoTime() - start;
+        LOG.info(String.format("%-14s %-24s %,7d items %,8d ms %,10.0f items/s", NAME, mode,
+                items.size(), nanos / 1000000, items.size() * 1e9 / nanos));
+        List<String> differences = new ArrayList<>();
+        for (String difference : golden.check(NAME, new ItemDigest(items))) {
+            differences.add(mode + ", " + difference);
+        }
+        return differences;
+    }
+
+    private Collection<Item> convert(File dir, String[] files, Consumer<NhsConverter> setUp) throws Exception {
+        itemWriter = new MockItemWriter(new HashMap<String, Item>());
+        converter = new NhsConverter(itemWriter, model);
+        setUp.accept(converter);
+        for (String name : files) {
+            File file = new File(dir, name);
+            converter.setCurrentFile(file);
+            try (Reader reader = new FileReader(file)) {
+                converter.process(reader);
+            }
+        }
+        converter.close();
+        return itemWriter.getItems();
+    }
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
     }
 }
@@ -0,0 +1,126 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The column positions of a site file, compiled from por_columns.properties into arrays
+ * indexed by field, so that reading a row only needs array lookups.
+ *
+ * @author
+ */
+public class ColumnMapping
+{
+    private final String name;
+    private final int[] columns;
+    private final Cleaner[] cleaners;   // by field, null for none
+    private int maxColumn = -1;
+
+    /**
+     * Cleans the values read from the file (e.g. removes site specific suffixes).
+     */
+    public interface Cleaner
+    {
+        /**
+         * @param value the value read from the file
+         * @return the cleaned value
+         */
+        String clean(String value);
+    }
+
+    private ColumnMapping(String name) {
+        this.name = name;
+        columns = new int[PorField.values().length];
+        Arrays.fill(columns, -1);
+        cleaners = new Cleaner[columns.length];
+    }
+
+    /**
+     * Compile the mapping of a site file.
+     *
+     * @param props the mappings, see por_columns.properties
+     * @param site the site name as used in the mappings file
+     * @param file the file type, e.g. patient or contact
+     * @param cleaners the cleaners that can be used in the mappings, by name (e.g. identifier)
+     * @return the mapping, or null if there is none for this site and file
+     */
+    public static ColumnMapping compile(Properties props, String site, String file,
+                                        Map<String, Cleaner> cleaners) {
+        String prefix = site + "." + file + ".";
+        ColumnMapping mapping = new ColumnMapping(prefix.substring(0, prefix.length() - 1));
+        boolean found = false;
+        for (PorField field : PorField.values()) {
+            String value = props.getProperty(prefix + field.getKey());
+            if (value == null) {
+                continue;
+            }
+            found = true;
+            String[] bits = value.split(",");
+            int column;
+            try {
+                column = Integer.parseInt(bits[0].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad column for " + prefix + field.getKey() + ": " + value);
+            }
+            mapping.columns[field.ordinal()] = column;
+            mapping.maxColumn = Math.max(mapping.maxColumn, column);
+            if (bits.length > 1) {
+                Cleaner cleaner = cleaners.get(bits[1].trim());
+                if (cleaner == null) {
+                    throw new IllegalArgumentException("Unknown cleaner for " + prefix + field.getKey()
+                            + ": " + bits[1].trim());
+                }
+                mapping.cleaners[field.ordinal()] = cleaner;
+            }
+        }
+        return found ? mapping : null;
+    }
+
+    /**
+     * @param line a row of the file
+     * @param field the field to read
+     * @return the (cleaned) value, or null if the field is not mapped for this site
+     */
+    public String get(String[] line, PorField field) {
+        int column = columns[field.ordinal()];
+        if (column < 0) {
+            return null;
+        }
+        Cleaner cleaner = cleaners[field.ordinal()];
+        return (cleaner == null) ? line[column] : cleaner.clean(line[column]);
+    }
+
+    /**
+     * @param field the field
+     * @return true if the field is mapped for this site
+     */
+    public boolean has(PorField field) {
+        return columns[field.ordinal()] >= 0;
+    }
+
+    /**
+     * @param line a row of the file
+     * @return true if the row has all the mapped columns
+     */
+    public boolean fits(String[] line) {
+        return line.length > maxColumn;
+    }
+
+    /**
+     * @return the name of the mapping, e.g. Waltham.patient
+     */
+    public String getName() {
+        return name;
+    }
+}
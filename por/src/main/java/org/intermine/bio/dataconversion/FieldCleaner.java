@@ -0,0 +1,135 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Normalises the identifiers, dates and values of the POR site files. Each method walks the
+ * value once with no intermediate Strings: the only allocation is the result, when it
+ * differs from the input.
+ *
+ * @author
+ */
+public final class FieldCleaner
+{
+    private FieldCleaner() {
+        // static methods only
+    }
+
+    /**
+     * Remove the site prefixes/suffixes from an identifier.
+     *
+     * stockport, e.g.:
+     * patientId = RT2550527
+     * referralId = 3_155204910
+     * contactId = 5_C_2480976  (activity Id)
+     *
+     * worcester:
+     * contactId = 1150471DA
+     *
+     * waltham:
+     * patientId = 1022464RiO
+     * referralId = 1022464MHRef1 (NB: we could be missing info in the last digit)
+     *
+     * @param identifier the identifier as in the file
+     * @return the clean identifier, null for NULL
+     */
+    public static String cleanIdentifier(String identifier) {
+        int len = identifier.length();
+        int firstM = -1;     // waltham referral ids are cut at the first M, if there is a MH
+        boolean mh = false;
+        for (int i = 0; i < len; i++) {
+            char c = identifier.charAt(i);
+            if (c == 'N' && identifier.startsWith("NULL", i)) {
+                return null;
+            }
+            if (c == 'M') {
+                if (firstM < 0) {
+                    firstM = i;
+                }
+                if (i + 1 < len && identifier.charAt(i + 1) == 'H') {
+                    mh = true;
+                }
+            }
+        }
+        if (identifier.startsWith("RT")) {
+            return remove(identifier, "RT", 0);
+        }
+        if (len >= 2) {
+            char c1 = identifier.charAt(len - 2);
+            char c2 = identifier.charAt(len - 1);
+            if (c2 == 'A' && (c1 == 'D' || c1 == 'C' || c1 == 'G')) {
+                String suffix = (c1 == 'D') ? "DA" : (c1 == 'C') ? "CA" : "GA";
+                return remove(identifier, suffix, len - 2);
+            }
+        }
+        if (identifier.endsWith("RiO")) { // waltham patientid
+            return remove(identifier, "RiO", len - 3);
+        }
+        if (mh) { // waltham referralid
+            return identifier.substring(0, firstM);
+        }
+        return identifier;
+    }
+
+    /**
+     * Remove the time from a date time.
+     * e.g. 03/11/15 11:24 -> 03/11/15
+     *
+     * @param s the date as in the file
+     * @return the date, null for NULL
+     */
+    public static String cleanDate(String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) == ' ') {
+                return s.substring(0, i);
+            }
+        }
+        if (s.contains("NULL")) {
+            return null;
+        }
+        return s;
+    }
+
+    /**
+     * Normalise the contact types.
+     *
+     * @param s the value as in the file
+     * @return the value, null for NULL
+     */
+    public static String cleanValue(String s) {
+        if (s.contains("NULL")) {
+            return null;
+        }
+        if (s.equalsIgnoreCase("f2f")) {
+            return "F2F";
+        }
+        if (s.equalsIgnoreCase("nF2f")) {
+            return "NonF2F";
+        }
+        return s;
+    }
+
+    /**
+     * remove all the occurrences of token, found as prefix (at 0) or suffix. Usually that is the
+     * only one and a single substring is enough.
+     */
+    private static String remove(String s, String token, int at) {
+        int other = s.indexOf(token);
+        if (other == at) {
+            other = s.indexOf(token, at + token.length());
+        }
+        if (other < 0) {
+            return (at == 0) ? s.substring(token.length()) : s.substring(0, at);
+        }
+        return s.replace(token, "");
+    }
+}
@@ -14,13 +14,18 @@ import org.apache.log4j.Logger;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.FormattedTextParser;
 import org.intermine.xml.full.Item;
 
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 
 /**
@@ -41,21 +46,65 @@ public class PorConverter extends BioFileConverter {
     private static final String NORFOLK = "Norfolk";
     private static final String SUFFOLK = "Suffolk";
 
-    private Map<String, Item> patients = new HashMap<>();   // patientId, patient
-    private Map<String, Item> referrals = new HashMap<>();  // patRefId, referral
-    private Map<String, Item> contacts = new HashMap<>();  // patRefId, contact
-    private Map<String, Item> dataSets = new HashMap<>();  // datasetName, dataSet
+    // site caches: ids are only meaningful within a site, so these are opened by setDataset
+    // when a new site starts and flushed and dropped when it is done (see openSite)
+    private SiteIndex siteIds = new SiteIndex();  // patientId/referralId, handle
+    private ItemIndex patients = new ItemIndex();  // patient key, patient
+    private ItemIndex referrals = new ItemIndex(); // referral key, referral
+    private ItemIndex contacts = new ItemIndex();  // referral key, contact
     //private Map<String, Item> diagnostics = new HashMap<>();  // patRefId, diagnostic
     private Map<String, String> ref2pat = new HashMap<>();  // referralId, patientId  (for worcester)
 
     private Map<String, String> patAge = new HashMap<>();  // patientId, age  (age stored in referral)
     //private Map<String, String> patRef = new HashMap<>();  // patientId, referralId (episodeId)
 
+    private Map<String, Item> dataSets = new HashMap<>();  // datasetName, dataSet
+    private Set<String> closedSites = new HashSet<>();  // sites already flushed
+    private String cacheSite = null;  // the site the caches belong to
+    private long cachedStores = 0; // items in the site caches at the end of each file
+    private long releasedItems = 0; // items of the site caches stored, once each
+
 
     private String dataSetRef = null; // to link patients to sites
     private String dataSet = null;  // to deal with differences in format
     private String siteType = null; // {ithrive, control}
 
+    private DateParser dates = DateParser.getInstance(); // shared cache of the parsed dates
+
+    private static final String COLUMNS_FILE = "por_columns.properties";
+    private static final String ADDITIONS_FILE = "por_additions.xml";
+    private Properties columnProperties = null;
+    private Map<String, ColumnMapping> columnMappings = new HashMap<>(); // site.file, mapping
+
+    private final PorConverter parent; // when converting a single site in parallel mode
+    private int siteThreads = 1;
+    private int fileThreads = 1;
+    private ForkJoinPool filePool = null; // reads the single file sites (see ParallelCsvReader)
+    private final List<File> siteFiles = new ArrayList<>(); // converted at close(), see processSites
+    private static final int HANDOFF_SIZE = 10000;
+    private File manifestDir = null;
+    private FileManifest manifest = null; // sites converted in the previous builds
+    private Charset encoding = StandardCharsets.UTF_8; // of the site files
+    private boolean useLookups = false;
+    private LookupDictionary lookups = null; // the lookup items, shared by the site converters
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private ItemBatch itemBatch; // items not cached (diagnostics, additional data, outcomes, wide row contacts)
+
+    private final MeteredItemWriter meteredWriter; // times the stores of the site being converted
+    private final ConversionMetrics metrics; // of all the sites, shared by the site converters
+    private SiteMetrics siteMetrics = null; // of the site being converted
+    private File metricsFile = null;
+    private DataQualityLog quality = new DataQualityLog(LOG); // the problems found in the rows, by file
+
+    // the cleaners that can be used in por_columns.properties
+    private static final Map<String, ColumnMapping.Cleaner> CLEANERS = new HashMap<>();
+    static {
+        CLEANERS.put("identifier", FieldCleaner::cleanIdentifier);
+        CLEANERS.put("date", FieldCleaner::cleanDate);
+        CLEANERS.put("value", FieldCleaner::cleanValue);
+    }
+
     // the codified attributes (other are stored as key/values)
     // patient/referral
     String patientId = null;
@@ -101,7 +150,123 @@ public class PorConverter extends BioFileConverter {
      */
     public PorConverter(ItemWriter writer, Model model) {
 //        super(writer, model, DATA_SOURCE_NAME, DATASET_TITLE, null);
-        super(writer, model, DATA_SOURCE_NAME, null, null);
+        super(new MeteredItemWriter(writer), model, DATA_SOURCE_NAME, null, null);
+        meteredWriter = (MeteredItemWriter) getItemWriter();
+        itemBatch = new ItemBatch(meteredWriter, DEFAULT_BATCH_SIZE);
+        metrics = new ConversionMetrics("POR");
+        parent = null;
+    }
+
+    /**
+     * Constructor for the converter of a single site, run in its own thread (see processSites).
+     * Items are created by the parent converter, to keep their identifiers unique.
+     *
+     * @param writer the ItemWriter of this site
+     * @param model  the Model
+     * @param parent the converter running the sites
+     */
+    private PorConverter(ItemWriter writer, Model model, PorConverter parent) {
+        super(new MeteredItemWriter(writer), model, null, null, null);
+        meteredWriter = (MeteredItemWriter) getItemWriter();
+        itemBatch = new ItemBatch(meteredWriter, parent.itemBatch.getSize());
+        metrics = parent.metrics;
+        encoding = parent.encoding;
+        fileThreads = parent.fileThreads;
+        useLookups = parent.useLookups;
+        this.parent = parent;
+    }
+
+    /**
+     * Set the number of sites converted at the same time. With more than one, process() only
+     * collects the site files, and they are converted at close(), each site in its own thread.
+     * Default is 1 (one file at a time).
+     *
+     * @param threads the number of threads
+     */
+    public void setSiteThreads(String threads) {
+        siteThreads = Integer.parseInt(threads.trim());
+    }
+
+    /**
+     * Set the number of threads reading each of the large single file sites (Camden, Norfolk and
+     * Stoke). The rows are still converted in the order of the file, by one thread. Default is 1.
+     *
+     * @param threads the number of threads
+     */
+    public void setFileThreads(String threads) {
+        fileThreads = Integer.parseInt(threads.trim());
+    }
+
+    /**
+     * Keep a manifest of the site files converted, with a cache of the items they gave: the
+     * sites with the same files as in the previous build are stored from the cache instead of
+     * converted. As with siteThreads, the site files are converted at close(). The directory
+     * must not be the one of the site files.
+     *
+     * @param dir the directory of the manifest and of the item caches
+     */
+    public void setManifestDir(String dir) {
+        manifestDir = new File(dir.trim());
+    }
+
+    /**
+     * Reference the ethnicity, gender, urgency, referral source and team of the patients,
+     * referrals and contacts as lookup items (ethnicityTerm, genderTerm, urgencyTerm, sourceTerm,
+     * teamTerm), one per value whatever its spelling (see LookupDictionary), instead of
+     * storing them as attributes. Default is false.
+     *
+     * @param lookups true to use lookup items
+     */
+    public void setLookups(String lookups) {
+        useLookups = Boolean.parseBoolean(lookups.trim());
+    }
+
+    /**
+     * Write the metrics of the conversion of each site and file (rows read and skipped, orphan
+     * rows, items created, store times, cache sizes) as JSON to a file at the end of the run.
+     * Without it, they are logged. While the converter runs, they can be followed through JMX
+     * (see ConversionMetrics).
+     *
+     * @param file the JSON file
+     */
+    public void setMetricsFile(String file) {
+        metricsFile = new File(file.trim());
+    }
+
+    /**
+     * Set the encoding of the site files. Default is UTF-8.
+     *
+     * @param charsetName the name of the encoding, e.g. windows-1252
+     */
+    public void setEncoding(String charsetName) {
+        encoding = Charset.forName(charsetName.trim());
+    }
+
+    /**
+     * Set the number of items written together to the ItemWriter, for the items that are not
+     * cached (diagnostics, additional data, clinical outcomes and the contacts of the wide row
+     * sites). They are also written at the end of each file. Default is 1000.
+     *
+     * @param size the batch size
+     */
+    public void setBatchSize(String size) {
+        itemBatch.setSize(Integer.parseInt(size.trim()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Item createItem(String className) {
+        if (siteMetrics != null) {
+            siteMetrics.created(className);
+        }
+        if (parent == null) {
+            return super.createItem(className);
+        }
+        synchronized (parent) {
+            return parent.createItem(className);
+        }
     }
 
     /**
@@ -115,53 +280,146 @@ public class PorConverter extends BioFileConverter {
         //     : single processor per site (-> remove processPatient/Referral/Contact)
         //     : clean! (and rm all the local variables declaration for attributes)
 
-        File f = getCurrentFile();
-        String fileName = getCurrentFile().getName();
+        if (siteThreads > 1 || manifestDir != null) {
+            // the sites are converted together once all their files are known
+            siteFiles.add(getCurrentFile());
+            return;
+        }
+        // the file is mapped again (see MappedCsvReader), the reader is not used
+        processFile(getCurrentFile());
+    }
+
+    private void processFile(File f) throws Exception {
+        String fileName = f.getName();
         if (fileName.endsWith("csv")) {
             LOG.info("Reading file: " + fileName);
 
             // set datasource/dataset
             setDataset(fileName);
+            siteMetrics.startFile(fileName);
 
             // process file
             if (fileName.contains("Warrington")) {
-                processWarrington(new FileReader(f));
+                processWarrington(f);
             } else if (fileName.contains("Bradford")) {
-                processBradford(new FileReader(f));
+                processBradford(f);
             } else if (fileName.contains("Lewisham")) {
-                processLewisham(new FileReader(f));
+                processLewisham(f);
             } else if (fileName.contains("Hertfordshire")) {
-                processHerts(new FileReader(f));
+                processHerts(f);
             } else if (fileName.contains("Manchester")) {
-                processManchester(new FileReader(f));
+                processManchester(f);
             } else if (fileName.contains("Sunderland")) {
-                processSunderland(new FileReader(f));
+                processSunderland(f);
             } else {
                 if (fileName.contains("Patient")
                         || fileName.contains("Referral"))  // ne-cor, worcester
-                    processPatient(new FileReader(f));
+                    processPatient(f);
                 if (fileName.contains("Contact")
                         || fileName.contains("Activity")) // stockport
-                    processContact(new FileReader(f));
+                    processContact(f);
                 if (fileName.contains("Outcome"))   // waltham
-                    processDiagnosis(new FileReader(f));
+                    processDiagnosis(f);
                 // these have only one file
                 if (fileName.contains("Bexley"))
-                    processBexley(new FileReader(f));
+                    processBexley(f);
                 if (fileName.contains("Camden"))
-                    processCamden(new FileReader(f));
+                    processCamden(f);
                 if (fileName.contains("Luton"))
-                    processLuton(new FileReader(f));
+                    processLuton(f);
                 if (fileName.contains("Norfolk"))
-                    processNorfolk(new FileReader(f));
+                    processNorfolk(f);
                 if (fileName.contains("Stoke"))
-                    processStoke(new FileReader(f));
+                    processStoke(f);
+            }
+            itemBatch.flush();
+            quality.report(dataSet + ", " + fileName);
+            sampleCaches();
+            cachedStores += patients.size() + referrals.size() + contacts.size();
+            siteMetrics.endFile();
+        }
+    }
+
+    /**
+     * convert the site files given to process(), the sites in parallel. each site has its own
+     * converter, caches and ItemWriter buffer: only the hand-off to the ItemWriter is serialised.
+     */
+    private void processSites(List<File> files) throws Exception {
+        files.sort(Comparator.comparing(File::getName));
+        Map<String, List<File>> siteFiles = new LinkedHashMap<>();
+        for (File file : files) {
+            String[] site = siteOf(file.getName());
+            if (!file.getName().endsWith("csv") || site == null) {
+                LOG.warn("Skipping file not belonging to a known site: " + file.getName());
+                continue;
+            }
+            if (!siteFiles.containsKey(site[0])) {
+                siteFiles.put(site[0], new ArrayList<File>());
+            }
+            siteFiles.get(site[0]).add(file);
+        }
+        LOG.info("Converting " + siteFiles.size() + " sites with " + siteThreads + " threads.");
+        if (manifestDir != null) {
+            // all the code of the bio-source and of ithrive-common, and the model additions
+            manifest = new FileManifest(manifestDir, FileManifest.codeVersion(PorConverter.class, FileManifest.class)
+                    + " " + FileManifest.version(getClass().getClassLoader(), LookupDictionary.SYNONYMS_FILE,
+                    COLUMNS_FILE, ADDITIONS_FILE) + (useLookups ? " lookups" : ""));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(siteThreads);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (final Map.Entry<String, List<File>> entry : siteFiles.entrySet()) {
+                tasks.add(() -> processSite(entry.getKey(), entry.getValue()));
+            }
+            for (Future<Integer> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private int processSite(String site, List<File> files) throws Exception {
+        long start = System.currentTimeMillis();
+        HandOffItemWriter writer = new HandOffItemWriter(getItemWriter(), HANDOFF_SIZE);
+        if (manifest != null && manifest.isUnchanged(site, files)) {
+            try {
+                int items = ItemCache.replay(manifest.getCache(site), manifest.getItems(site),
+                        new PorConverter(writer, getModel(), this), getLookups());
+                writer.close();
+                LOG.info(site + ": files unchanged, " + items + " items stored from "
+                        + manifest.getCache(site) + " in " + (System.currentTimeMillis() - start) + " ms.");
+                return items;
+            } catch (IOException e) {
+                // checked before anything is stored
+                LOG.warn(site + ": can't use the item cache, converting the files. " + e.getMessage());
             }
         }
+
+        ItemCache cache = new ItemCache(writer);
+        cache.setSharedItems(getLookups());
+        if (manifest != null) {
+            cache.record(manifest.getCache(site));
+        }
+        PorConverter converter = new PorConverter(cache, getModel(), this);
+        for (File file : files) {
+            converter.setCurrentFile(file);
+            converter.processFile(file);
+        }
+        converter.close();
+        int recorded = cache.finish();
+        writer.close();
+        if (recorded >= 0) {
+            manifest.update(site, files, recorded);
+        }
+        LOG.info(site + ": " + writer.getCount() + " items from " + files.size() + " files in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        return writer.getCount();
     }
 
-    private void processPatient(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processPatient(File file) throws Exception {
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption: too many to report.. below the original one for cambridge
         //
@@ -188,159 +446,61 @@ public class PorConverter extends BioFileConverter {
         // parse header in case
         String[] header = (String[]) lineIter.next();
         LOG.info("PROC PAT " + Arrays.toString(header));
+        ColumnMapping columns = getMapping("patient");
         int lineCount = 0;
         while (lineIter.hasNext()) {
             String[] line = (String[]) lineIter.next();
             // check if empty
             // (issue with waltham)
             // TODO? improve
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
-            // TODO: something better..
-            String patientId = null;
-            String referralId = null;
-            String age = null;
-            String locality = null;
-            String ethnicity = null;
-            String gender = null;
-            String diagnosis = null;
-            String urgency = null;
-            String source = null;
-            String outcome = null;
-            String referralDate = null;
-            String triageDate = null;
-            String assessmentDate = null;
-            String firstTreatmentDate = null;
-            String dischargeDate = null;
-            String dischargeReason = null;
-            String cumulativeCAMHS = null;
+            String patientId = columns.get(line, PorField.PATIENT_ID);
+            String referralId = columns.get(line, PorField.REFERRAL_ID);
+            String age = columns.get(line, PorField.AGE);
+            String locality = columns.get(line, PorField.LOCALITY);
+            String ethnicity = columns.get(line, PorField.ETHNICITY);
+            String gender = columns.get(line, PorField.GENDER);
+            String diagnosis = columns.get(line, PorField.DIAGNOSIS);
+            String urgency = columns.get(line, PorField.URGENCY);
+            String source = columns.get(line, PorField.SOURCE);
+            String outcome = columns.get(line, PorField.OUTCOME);
+            String referralDate = columns.get(line, PorField.REFERRAL_DATE);
+            String triageDate = columns.get(line, PorField.TRIAGE_DATE);
+            String assessmentDate = columns.get(line, PorField.ASSESSMENT_DATE);
+            String firstTreatmentDate = columns.get(line, PorField.FIRST_TREATMENT_DATE);
+            String dischargeDate = columns.get(line, PorField.DISCHARGE_DATE);
+            String dischargeReason = columns.get(line, PorField.DISCHARGE_REASON);
+            String cumulativeCAMHS = columns.get(line, PorField.CUMULATIVE_CAMHS);
 
-            if (dataSet.contains("Waltham") || dataSet.contains("Stockport")) {
-                patientId = line[0];
-                referralId = line[1];
-                age = cleanIdentifier(line[2]);
-                locality = line[3];
-                ethnicity = line[4];
-                gender = line[5];
-                diagnosis = cleanIdentifier(line[6]);
-                urgency = line[7];
-                source = line[8];
-                outcome = line[9];
-                referralDate = line[10];
-                triageDate = cleanDate(line[11]);
-                assessmentDate = cleanDate(line[12]);
-                firstTreatmentDate = cleanDate(line[13]);
-                dischargeDate = cleanDate(line[14]);
-                dischargeReason = line[15];
-                cumulativeCAMHS = cleanIdentifier(line[16]);
-            } else if (dataSet.contains("Worcester")) {
-                patientId = line[1];
-                referralId = line[0];
-                age = line[4];
-                locality = line[17];
-                ethnicity = line[3];
-                gender = line[2];
-                //diagnosis = line[6];
-                urgency = line[7];
-                source = line[6];
-                //outcome = line[9];
-                referralDate = line[5];
-                //triageDate = line[11];
-                //assessmentDate = line[12];
-                firstTreatmentDate = line[8];
-                dischargeDate = line[15];
-                dischargeReason = line[18];
-                //cumulativeCAMHS = line[16];
-            } else if (dataSet.contains("Portsmouth")) {
-                patientId = line[0];
-                referralId = line[1];
-                age = cleanIdentifier(line[2]);
-                locality = line[3];
-                ethnicity = line[4];
-                gender = line[5];
-                diagnosis = line[6];
-                urgency = line[7];
-                source = line[8];
-                outcome = line[9];
-                referralDate = cleanDate(line[10]);
-                triageDate = cleanDate(line[11]);
-                assessmentDate = cleanDate(line[12]);
-                firstTreatmentDate = cleanDate(line[13]);
-                dischargeDate = cleanDate(line[14]);
-                dischargeReason = line[15];
-                cumulativeCAMHS = line[16];
-            } else {
-                patientId = line[0];
-                referralId = line[1];
-                age = cleanIdentifier(line[2]);
-                locality = line[3];
-                ethnicity = line[4];
-                gender = line[5];
-                diagnosis = line[6];
-                urgency = line[7];
-                source = line[8];
-                outcome = line[9];
-                //referralDate = line[10];
-                //triageDate = line[11];
-                assessmentDate = line[12];
-                firstTreatmentDate = cleanDate(line[13]);
-                //dischargeDate = line[14];
-                //dischargeReason = line[15];
-                //cumulativeCAMHS = line[16];
-
-                if (dataSet.contains("Nene")) {
-                    referralDate = cleanDate(line[11]);
-                    triageDate = cleanDate(line[12]);
-                    dischargeDate = cleanDate(line[15]);
-                } else if (dataSet.contains("Sunderland")) {
-                    dischargeDate = line[13];
-                    dischargeReason = line[14];
-                    cumulativeCAMHS = line[15];
-                } else {
-                    referralDate = cleanDate(line[10]);
-                    triageDate = line[11];
-                    dischargeDate = cleanDate(line[14]);
-                    dischargeReason = line[15];
-                    cumulativeCAMHS = line[16];
-                }
-            }
             ref2pat.put(referralId, patientId);
 
-            Item patient = createPatient(patientId, ethnicity, gender, dataSet);
-            Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+            String patient = createPatient(patientId, ethnicity, gender, dataSet);
+            String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                     source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                     dischargeDate, dischargeReason, cumulativeCAMHS);
 
-            if (dataSet.contains("Waltham")) {
+            if (columns.has(PorField.CONTACT_DATE)) {
                 // waltham has contact info in the same sheet
-                String contactDate = cleanIdentifier(line[17]);
-                String contactUrgency = cleanIdentifier(line[18]);
-                String contactType = line[19];
-                String attendance = cleanIdentifier(line[20]);
-                String team = cleanIdentifier(line[21]);
-                String tier = cleanIdentifier(line[22]);
-                String ordinal = line[23];
+                String contactDate = columns.get(line, PorField.CONTACT_DATE);
+                String contactUrgency = columns.get(line, PorField.CONTACT_URGENCY);
+                String contactType = columns.get(line, PorField.CONTACT_TYPE);
+                String attendance = columns.get(line, PorField.ATTENDANCE);
+                String team = columns.get(line, PorField.TEAM);
+                String tier = columns.get(line, PorField.TIER);
+                String ordinal = columns.get(line, PorField.ORDINAL);
                 String contactId = null;
 
-                Item contact = createContact(patientId, referralId, contactId, ordinal,
+                String contact = createContact(patientId, referralId, contactId, ordinal,
                         contactDate, contactUrgency, contactType, attendance, outcome, team, tier);
             }
             lineCount++;
         }
-
-        if (dataSet.contains("Waltham")) {
-            // store after diagnostic
-            //storeContacts();
-            return;
-        }
-
-        storePatients();
-        storeReferrals();
     }
 
-    private void processContact(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processContact(File file) throws Exception {
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // Patient ID,Referral ID ,Appointment ID,Contact Number,Date of contact ,
@@ -353,71 +513,45 @@ public class PorConverter extends BioFileConverter {
         String[] header = (String[]) lineIter.next();
         LOG.info("PROC CON " + Arrays.toString(header));
 
-        // define headers
-        String patientId = null, referralId = null, contactId = null, contactDate = null,
-                ordinal = null, urgency = null,
-                contactType = null, attendance = null, outcome = null, team = null, tier = null;
-
+        ColumnMapping columns = getMapping("contact");
+        String outcome = null;
+        int lineCount = 0;
         while (lineIter.hasNext()) {
+            lineCount++;
             String[] line = (String[]) lineIter.next();
-            if (dataSet.contains("Worcester")) {
-                referralId = line[0];
-                contactId = line[2];
-                contactDate = line[3];
-                ordinal = line[4];
-                contactType = cleanValue(line[5]);
-                attendance = line[6];
-                team = line[7];
-
-            } else {
-                patientId = line[0];
-                referralId = line[1];
-
-                if (dataSet.contains("Nene")) {
-                    contactDate = cleanDate(line[3]);
-                    contactType = cleanValue(line[4]);
-                    team = line[5];
-                } else if (dataSet.contains("Stockport")) {
-                    contactId = cleanIdentifier(line[2]);
-                    contactDate = line[3];
-                    urgency = line[4];
-                    contactType = cleanValue(line[6]);
-                    attendance = line[5];
-                    team = line[7];
-                } else {
-                    try {
-                        contactId = line[2];
-                        ordinal = line[3];
-                        contactDate = line[4];
-                        urgency = line[5];
-                        contactType = cleanValue(line[6]);
-                        attendance = line[7];
-                        team = line[8];
-                        tier = line[9];
-                    } catch (ArrayIndexOutOfBoundsException exception) {
-                        // the sheets have different lenghts
-                        continue;
-                    }
-
-                }
+            siteMetrics.row();
+            if (!columns.fits(line)) {
+                // the sheets have different lenghts
+                siteMetrics.skipped();
+                quality.warn("rows too short for the column mapping", lineCount + ": " + line.length + " columns");
+                continue;
             }
+            String patientId = columns.get(line, PorField.PATIENT_ID);
+            String referralId = columns.get(line, PorField.REFERRAL_ID);
+            String contactId = columns.get(line, PorField.CONTACT_ID);
+            String ordinal = columns.get(line, PorField.ORDINAL);
+            String contactDate = columns.get(line, PorField.CONTACT_DATE);
+            String urgency = columns.get(line, PorField.CONTACT_URGENCY);
+            String contactType = columns.get(line, PorField.CONTACT_TYPE);
+            String attendance = columns.get(line, PorField.ATTENDANCE);
+            String team = columns.get(line, PorField.TEAM);
+            String tier = columns.get(line, PorField.TIER);
+
             // check if patient
-            if (patients.get(patientId) == null) {
-                LOG.warn(dataSet + ": no patient found with identifier: " + patientId);
+            if (!patients.contains(siteIds.findPatient(patientId))) {
+                orphan("rows with no patient found", patientId);
                 continue;
             }
 
-            Item contact = createContact(patientId, referralId, contactId, ordinal,
+            String contact = createContact(patientId, referralId, contactId, ordinal,
                     contactDate, urgency, contactType, attendance, outcome, team, tier);
         }
 
-        //storeReferrals();
-        storeContacts();
     }
 
-    private void processDiagnosis(Reader reader) throws Exception {
+    private void processDiagnosis(File file) throws Exception {
 
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // Period,Patient ID,Referral ID,ReferralTeamName,ICD10DiagnosisStartDate,DiagnosisEndDate,
@@ -451,6 +585,7 @@ public class PorConverter extends BioFileConverter {
         // used only by waltham for now (TODO: maybe lewisham too?)
         while (lineIter.hasNext()) {
             String[] line = (String[]) lineIter.next();
+            siteMetrics.row();
 
             String period = line[0];
             String patientId = cleanIdentifier(line[1]);
@@ -462,23 +597,24 @@ public class PorConverter extends BioFileConverter {
 //            String assessmentDate = line[7];
 
             // check if patient
-            if (patients.get(patientId) == null) {
-                LOG.warn(dataSet + ": no patient found with identifier: " + patientId);
+            if (!patients.contains(siteIds.findPatient(patientId))) {
+                orphan("rows with no patient found", patientId);
                 continue;
             }
             // add attributes to referral
-            String patRefId = patientId + "-" + referralId;  // to identify the referral
-            if (referrals.get(patRefId) != null) {
-                //LOG.info("Adding referral! " + patRefId);
-                Item thisReferral = referrals.get(patRefId);
-                thisReferral.setAttributeIfNotNull("referralTeam", team);
-//                thisReferral.setAttributeIfNotNull("diagnosisStartDate", startDate);
-//                thisReferral.setAttributeIfNotNull("diagnosisEndDate", endDate);
-//                thisReferral.setAttributeIfNotNull("ICD10diagnosis", ICD10diagnosis);
-//                thisReferral.setAttributeIfNotNull("assessmentDate", assessmentDate);
+            long referralKey = siteIds.findReferral(patientId, referralId);
+            if (referrals.contains(referralKey)) {
+                //LOG.info("Adding referral! " + referralId);
+                Item thisReferral = referrals.getItem(referralKey);
+                if (thisReferral != null) {
+                    thisReferral.setAttributeIfNotNull("referralTeam", team);
+//                    thisReferral.setAttributeIfNotNull("diagnosisStartDate", startDate);
+//                    thisReferral.setAttributeIfNotNull("diagnosisEndDate", endDate);
+//                    thisReferral.setAttributeIfNotNull("ICD10diagnosis", ICD10diagnosis);
+//                    thisReferral.setAttributeIfNotNull("assessmentDate", assessmentDate);
+                }
             } else {
-                LOG.warn(dataSet + ": please check your CONTACT data: no referral " + referralId + " for patient "
-                        + patientId + ".");
+                orphan("rows with no referral found (patient-referral)", patientId + "-" + referralId);
                 continue;
             }
 
@@ -490,20 +626,15 @@ public class PorConverter extends BioFileConverter {
             // 2018/2019,1038393RiO,16,1038393MHSRef11,T3-RB- Tier 3 CAMHS,NHS WALTHAM FOREST CCG,,,210332003323400,
             for (int i = 6; i < 9; i++) {
                 //LOG.info("DDIIAA: " + header[i]);
-                store(createDiagnostic(patientId, referralId, null, header[i], line[i + 1]));
+                itemBatch.add(createDiagnostic(patientId, referralId, null, header[i], line[i + 1]));
                 //}
             }
 
         }
-
-        storePatients();
-        storeReferrals();
-        storeContacts();
-
     }
 
-    private void processWarrington(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processWarrington(File file) throws Exception {
+        MappedCsvReader lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         //
@@ -519,12 +650,18 @@ public class PorConverter extends BioFileConverter {
         // parse header in case
         String[] header = (String[]) lineIter.next();
         LOG.info("PROC PAT " + Arrays.toString(header));
+        // the records have many empty columns after the ones used
+        if (getCurrentFile().getName().contains("Patient")) {
+            lineIter.setColumns(0, 1, 2, 3, 4, 5, 6, 7);
+        } else {
+            lineIter.setColumns(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14);
+        }
 
         while (lineIter.hasNext()) {
             String[] line = (String[]) lineIter.next();
             // check if empty
             // (issue with waltham) TODO? improve
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             // TODO: something better..
@@ -552,7 +689,7 @@ public class PorConverter extends BioFileConverter {
                 ethnicity = line[2];
                 gender = line[3];
 
-                Item patient = createPatient(patientId, ethnicity, gender, dataSet);
+                String patient = createPatient(patientId, ethnicity, gender, dataSet);
 
                 // create patient additional data
                 // Patient_DisabilityFlag,DiagnosisCode_Primary,
@@ -560,7 +697,7 @@ public class PorConverter extends BioFileConverter {
                 // e.g.
                 // No,N/A,5,N
                 for (int i = 4; i < 8; i++) {
-                    store(createAdditionalData(patientId, null, ADD_CLASS, header[i], line[i]));
+                    itemBatch.add(createAdditionalData(patientId, null, ADD_CLASS, header[i], line[i]));
                 }
             } else { // the contact file
                 patientId = line[1];
@@ -568,7 +705,7 @@ public class PorConverter extends BioFileConverter {
                 age = line[2];
                 outcome = line[4];
 
-                Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+                String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                         source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                         dischargeDate, dischargeReason, cumulativeCAMHS);
 
@@ -582,17 +719,14 @@ public class PorConverter extends BioFileConverter {
                 // 2015/16,7,16,1,Discharged treatment completed,N/A,N/A,N/A,N,0,0,0,0,0,Y
                 //
                 for (int i = 5; i < 15; i++) {
-                    store(createAdditionalData(patientId, referralId, CCD_CLASS, header[i], line[i]));
+                    itemBatch.add(createAdditionalData(patientId, referralId, CCD_CLASS, header[i], line[i]));
                 }
             }
         }
-        if (getCurrentFile().getName().contains("Patient"))
-            storePatients();
-        else storeReferrals();
     }
 
-    private void processManchester(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processManchester(File file) throws Exception {
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // patient file
@@ -621,7 +755,7 @@ public class PorConverter extends BioFileConverter {
             String[] line = (String[]) lineIter.next();
             // check if empty
             // (issue with waltham) TODO? improve
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             // TODO: something better..
@@ -657,7 +791,7 @@ public class PorConverter extends BioFileConverter {
                 gender = line[3];
                 patAge.put(patientId, roundAge(line));
 
-                Item patient = createPatient(patientId, ethnicity, gender, dataSet);
+                String patient = createPatient(patientId, ethnicity, gender, dataSet);
 
                 // create patient additional data
                 // Patient_DisabilityFlag,DiagnosisCode_Primary,
@@ -688,11 +822,11 @@ public class PorConverter extends BioFileConverter {
                     locality = line[2];
                 }
 
-                if (patients.get(patientId) == null) {
-                    LOG.warn(dataSet + ": REF Unknown patient! " + patientId);
+                if (!patients.contains(siteIds.findPatient(patientId))) {
+                    orphan("referrals for an unknown patient", patientId);
                 }
 
-                Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+                String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                         source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                         dischargeDate, dischargeReason, cumulativeCAMHS);
 
@@ -705,21 +839,18 @@ public class PorConverter extends BioFileConverter {
                 patientId = line[5];
                 contactId = line[6];
 
-                if (patients.get(patientId) == null) {
-                    LOG.warn(dataSet + ": CON Unknow patient! " + patientId);
+                if (!patients.contains(siteIds.findPatient(patientId))) {
+                    orphan("contacts for an unknown patient", patientId);
                 }
 
                 storeContact(patientId, contactId, contactId, null, contactDate, contactUrgency, contactType,
                         attendance, null, team, null);
             }
         }
-        if (getCurrentFile().getName().contains("Patient"))
-            storePatients();
-        else if (getCurrentFile().getName().contains("Referral")) storeReferrals();
     }
 
-    private void processHerts(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processHerts(File file) throws Exception {
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // referral file
@@ -756,7 +887,7 @@ public class PorConverter extends BioFileConverter {
             String[] line = (String[]) lineIter.next();
             // check if empty
             // (issue with waltham) TODO? improve
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             // TODO: something better..
@@ -823,9 +954,9 @@ public class PorConverter extends BioFileConverter {
 
                 ref2pat.put(referralId, patientId);
 
-                Item patient = createPatient(patientId, ethnicity, gender, dataSet);
+                String patient = createPatient(patientId, ethnicity, gender, dataSet);
 
-                Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+                String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                         source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                         dischargeDate, dischargeReason, cumulativeCAMHS);
 
@@ -846,7 +977,7 @@ public class PorConverter extends BioFileConverter {
                 assessmentDate = line[2];
                 int[] looper = {3, 4, 5};
                 for (int i = 0; i < looper.length; i++) {
-                    store(createDiagnostic(patientId, referralId, assessmentDate, header[looper[i]], line[looper[i]]));
+                    itemBatch.add(createDiagnostic(patientId, referralId, assessmentDate, header[looper[i]], line[looper[i]]));
                 }
             } else if (getCurrentFile().getName().contains("Outcome")) { // the last file
                 patientId = line[0];
@@ -870,14 +1001,10 @@ public class PorConverter extends BioFileConverter {
                 LOG.warn("UNKNOWN file name: " + getCurrentFile().getName());
             }
         }
-        if (getCurrentFile().getName().contains("Referral")) {
-            storePatients();
-            storeReferrals();
-        }
     }
 
-    private void processBradford(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processBradford(File file) throws Exception {
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // patient file
@@ -905,7 +1032,7 @@ public class PorConverter extends BioFileConverter {
             lineCount++;
             String[] line = (String[]) lineIter.next();
             // check if empty
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             if (getCurrentFile().getName().contains("Patient")) {
@@ -916,9 +1043,9 @@ public class PorConverter extends BioFileConverter {
                 ethnicity = line[4];
                 locality = line[5];
 
-                Item patient = createPatient(patientId, ethnicity, gender, dataSet);
+                String patient = createPatient(patientId, ethnicity, gender, dataSet);
 
-                Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+                String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                         source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                         dischargeDate, dischargeReason, cumulativeCAMHS);
 
@@ -941,8 +1068,8 @@ public class PorConverter extends BioFileConverter {
                 contactOutcome = line[13];
                 contactType = line[14];
 
-                if (patients.get(patientId) == null) {
-                    LOG.warn(dataSet + ": OUTCOME - Unknown patient! " + patientId);
+                if (!patients.contains(siteIds.findPatient(patientId))) {
+                    orphan("outcomes for an unknown patient", patientId);
                 }
 
                 // updates already created item (see patient) or creates a new one.
@@ -953,15 +1080,11 @@ public class PorConverter extends BioFileConverter {
                         null, contactOutcome,null,null);
             }
         }
-        if (getCurrentFile().getName().contains("Contact")) {
-            storePatients();
-            storeReferrals();
-        }
     }
 
 
-    private void processLewisham(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processLewisham(File file) throws Exception {
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // patient file
@@ -988,15 +1111,15 @@ public class PorConverter extends BioFileConverter {
             lineCount++;
             String[] line = (String[]) lineIter.next();
             // check if empty
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             if (getCurrentFile().getName().contains("Patient")) {
                 patientId = line[0];
                 referralId = line[1];
                 if (line.length < 17) {
-                    LOG.warn(dataSet + ": skipping record with missing data: [" + lineCount + "] "
-                            + patientId + "-" + referralId);
+                    quality.warn("rows with missing data skipped (line: patient-referral)",
+                            lineCount + ": " + patientId + "-" + referralId);
                     continue;
                 }
                 ethnicity = line[2];
@@ -1015,16 +1138,16 @@ public class PorConverter extends BioFileConverter {
                 attendance = line[20] + "-" + line[21];
                 contactType = line[22];
 
-                Item patient = createPatient(patientId, ethnicity, gender, dataSet);
+                String patient = createPatient(patientId, ethnicity, gender, dataSet);
 
-                Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+                String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                         source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                         dischargeDate, dischargeReason, cumulativeCAMHS);
 
                 // create patient additional data
                 int[] looper = {6, 7, 8, 9, 14, 16, 17};
                 for (int i = 0; i < looper.length; i++) {
-                    store(createAdditionalData(patientId, referralId, ADD_CLASS, header[looper[i]], line[looper[i]]));
+                    itemBatch.add(createAdditionalData(patientId, referralId, ADD_CLASS, header[looper[i]], line[looper[i]]));
                 }
                 storeContact(patientId, referralId, null, null,
                         contactDate, null, contactType, attendance, outcome, null, null);
@@ -1038,20 +1161,16 @@ public class PorConverter extends BioFileConverter {
                 ratingType = line[5];
                 cgasScore = line[4];
 
-                if (patients.get(patientId) == null) {
-                    LOG.warn(dataSet + ": OUTCOME - Unknown patient! " + patientId);
+                if (!patients.contains(siteIds.findPatient(patientId))) {
+                    orphan("outcomes for an unknown patient", patientId);
                 }
                 storeOutcome(patientId, referralId, episodeId, ratingDate, ratingType, cgasScore);
             }
         }
-        if (getCurrentFile().getName().contains("Outcome")) {
-            storePatients();
-            storeReferrals();
-        }
     }
 
-    private void processSunderland(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processSunderland(File file) throws Exception {
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // patient file
@@ -1078,7 +1197,7 @@ public class PorConverter extends BioFileConverter {
             lineCount++;
             String[] line = (String[]) lineIter.next();
             // check if empty
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             // outcome file
@@ -1107,9 +1226,9 @@ public class PorConverter extends BioFileConverter {
                 dischargeReason = line[14];
                 cumulativeCAMHS = cleanIdentifier(line[15]);
 
-                Item patient = createPatient(patientId, ethnicity, gender, dataSet);
+                String patient = createPatient(patientId, ethnicity, gender, dataSet);
 
-                Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+                String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                         source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                         dischargeDate, dischargeReason, cumulativeCAMHS);
 
@@ -1119,30 +1238,26 @@ public class PorConverter extends BioFileConverter {
                 referralId = line[1];
                 measure = line[4];
                 measureType = line[5];
-                if (patients.get(patientId) == null) {
-                    LOG.warn(dataSet + ": OUTCOME - Unknown patient! " + patientId);
+                if (!patients.contains(siteIds.findPatient(patientId))) {
+                    orphan("outcomes for an unknown patient", patientId);
                 }
 
                 // create score records, one for wach score, only if present
                 int[] looper = {6, 8, 10, 12, 14};
                 for (int i = 0; i < looper.length; i++) {
                     if (line[looper[i]].isEmpty() || line[looper[i]] == null) continue;
-                    LOG.info("LLL [" + looper[i] +"] " + header[looper[i]]);
+                    quality.info("scores read", header[looper[i]]);
                     scoreDate = line[looper[i]];
                     observation = header[looper[i]];
                     value = line[looper[i]+1];
-                    store(createDiagnostic(patientId, referralId, measure, measureType, scoreDate, observation, value));
+                    itemBatch.add(createDiagnostic(patientId, referralId, measure, measureType, scoreDate, observation, value));
                 }
             }
         }
-        if (getCurrentFile().getName().contains("Outcome")) {
-            storePatients();
-            storeReferrals();
-        }
     }
 
-    private void processBexley(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processBexley(File file) throws Exception {
+        MappedCsvReader lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // PASID,ReferralNumber,Ethnicity,Gender,ReferralUrgencyCode,ReferralUrgencyDescription,ReferralID,
@@ -1164,11 +1279,14 @@ public class PorConverter extends BioFileConverter {
         // parse header in case
         String[] header = (String[]) lineIter.next();
         LOG.info("PROC PAT " + Arrays.toString(header));
+        // ReferralNumber, ICD10CodingScheme and the ICD10 dates are not used
+        lineIter.setColumns(0, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 20, 21,
+                24, 25, 26, 27, 28, 29, 30, 31, 32, 33);
 
         while (lineIter.hasNext()) {
             String[] line = (String[]) lineIter.next();
             // check if empty
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             // only one file..
@@ -1190,36 +1308,34 @@ public class PorConverter extends BioFileConverter {
             String dischargeReason = null;
             String cumulativeCAMHS = null;
 
-            Item patient = createPatient(patientId, ethnicity, gender, dataSet);
+            String patient = createPatient(patientId, ethnicity, gender, dataSet);
 
-            Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+            String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                     source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                     dischargeDate, dischargeReason, cumulativeCAMHS);
 
             // create patient additional data
             int[] looper = {4, 7, 8, 29, 30, 31, 32, 33};
             for (int i = 0; i < looper.length; i++) {
-                store(createAdditionalData(patientId, referralId, ADD_CLASS, header[looper[i]], line[looper[i]]));
+                itemBatch.add(createAdditionalData(patientId, referralId, ADD_CLASS, header[looper[i]], line[looper[i]]));
             }
 
             // create cumulative contact data
             looper = new int[]{9, 13, 15, 16, 17, 18};
             for (int i = 0; i < looper.length; i++) {
-                store(createAdditionalData(patientId, referralId, CCD_CLASS, header[looper[i]], line[looper[i]]));
+                itemBatch.add(createAdditionalData(patientId, referralId, CCD_CLASS, header[looper[i]], line[looper[i]]));
             }
 
             // create diagnostics
             int[] looperD = {21, 24, 25, 26, 27, 28};
             for (int i = 0; i < looperD.length; i++) {
-                store(createDiagnostic(patientId, referralId, null, header[looperD[i]], line[looperD[i]]));
+                itemBatch.add(createDiagnostic(patientId, referralId, null, header[looperD[i]], line[looperD[i]]));
             }
         }
-        storePatients();
-        storeReferrals();
     }
 
-    private void processCamden(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processCamden(File file) throws Exception {
+        MappedCsvReader records = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // ReferralActivityID,PatientID,AgeAtReferral,Ethnicity,Gender,PrimaryDiagnosisList,ReferralPriority,
@@ -1263,14 +1379,19 @@ public class PorConverter extends BioFileConverter {
         //
 
         // parse header in case
-        String[] header = (String[]) lineIter.next();
+        String[] header = records.next();
         //LOG.info("PROC PAT " + Arrays.toString(header));
         LOG.info("HEADER SIZE " + header.length);
 
+        // the appointments (4 attributes each) are read up to the first empty one
+        RepeatingGroupReader row = new RepeatingGroupReader(24, 4, (header.length - 21) / 4, null);
+        Iterator<String[]> lineIter = new ParallelCsvReader(file, encoding, getFilePool(),
+                records.getPosition(), row::read);
+        records.close();
         while (lineIter.hasNext()) {
-            String[] line = (String[]) lineIter.next();
+            String[] line = row.reset(lineIter.next());
             // check if empty
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             // only one file..
@@ -1293,39 +1414,34 @@ public class PorConverter extends BioFileConverter {
             String cumulativeCAMHS = line[23];
             age = roundAge(line);
 
-            Item patient = createPatient(patientId, ethnicity, gender, dataSet);
+            String patient = createPatient(patientId, ethnicity, gender, dataSet);
 
-            Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+            String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                     source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                     dischargeDate, dischargeReason, cumulativeCAMHS);
 
             // create patient additional data
             int[] looper = {12, 13, 14, 15, 16, 17, 18, 22};
             for (int i = 0; i < looper.length; i++) {
-                store(createAdditionalData(patientId, referralId, ADD_CLASS, header[looper[i]], line[looper[i]]));
+                itemBatch.add(createAdditionalData(patientId, referralId, ADD_CLASS, header[looper[i]], line[looper[i]]));
             }
 
             // this should deal with the potential 615 contacts recorded on each line
             // (4 attributes for each contact)
-            for (int j = 24; j <= header.length -1 ; j += 4) {
-                //LOG.info("LOOP: " + j);
-                if (line[j].isEmpty()) break; //stop if you find no value
-                String contactDate = line[j];
-                String team = line[j + 1];
-                String contactType = line[j + 2];
-                String attendance = line[j + 3];
+            while (row.next()) {
+                String contactDate = row.get(0);
+                String team = row.get(1);
+                String contactType = row.get(2);
+                String attendance = row.get(3);
 
-                storeContact(patientId, referralId, null, null,
-                        contactDate, null, contactType, attendance, outcome, team, null);
+                emitContact(patient, referral, contactDate, null, contactType, attendance, outcome, team, null);
             }
 
         }
-        storePatients();
-        storeReferrals();
     }
 
-    private void processStoke(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processStoke(File file) throws Exception {
+        MappedCsvReader records = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // PatientID,ReferralID,AgeAtReferral,Locality,Ethnicity,Gender,Diagnosis,PriorityType,SourceOfReferral,
@@ -1354,13 +1470,18 @@ public class PorConverter extends BioFileConverter {
         //
 
         // parse header in case
-        String[] header = (String[]) lineIter.next();
+        records.nextRecord();
         LOG.info("PROC STOKE");
 
+        // the contacts (6 attributes each) are read up to the first empty or NULL one
+        RepeatingGroupReader row = new RepeatingGroupReader(17, 6, 50, "NULL");
+        Iterator<String[]> lineIter = new ParallelCsvReader(file, encoding, getFilePool(),
+                records.getPosition(), row::read);
+        records.close();
         while (lineIter.hasNext()) {
-            String[] line = (String[]) lineIter.next();
+            String[] line = row.reset(lineIter.next());
             // check if empty
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             // only one file..
@@ -1382,36 +1503,32 @@ public class PorConverter extends BioFileConverter {
             String dischargeReason = line[15];
             String cumulativeCAMHS = line[16];
 
-            Item patient = createPatient(patientId, ethnicity, gender, dataSet);
+            String patient = createPatient(patientId, ethnicity, gender, dataSet);
 
-            Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+            String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                     source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                     dischargeDate, dischargeReason, cumulativeCAMHS);
 
-            LOG.info("PAT " + patientId + "|" + referralId);
+            quality.info("patient rows (patient|referral)", patientId + "|" + referralId);
             // this should deal with the potential 50 contacts recorded on each line
             // (6 attributes for each contact) limit=18+6X50=318
-            for (int j = 17; j < 317; j += 6) {
-                if (line[j].isEmpty() || line[j].contains("NULL")) break; //stop if you find no value
-                //LOG.info("ooo" + j + "ooo " + line[j]);
-                String contactDate = line[j];
-                String contactUrgency = line[j + 1];
-                String contactType = line[j + 2];
-                String attendance = line[j + 3];
-                String team = line[j + 4];
-                String tier = line[j + 5];
+            while (row.next()) {
+                String contactDate = row.get(0);
+                String contactUrgency = row.get(1);
+                String contactType = row.get(2);
+                String attendance = row.get(3);
+                String team = row.get(4);
+                String tier = row.get(5);
 
                 // we store each of them
-                storeContact(patientId, referralId, null, null,
-                        contactDate, contactUrgency, contactType, attendance, null, team, tier);
+                emitContact(patient, referral, contactDate, contactUrgency, contactType, attendance, null,
+                        team, tier);
             }
         }
-        storePatients();
-        storeReferrals();
     }
 
-    private void processLuton(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processLuton(File file) throws Exception {
+        Iterator lineIter = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // ID,Referral_id,Ethnicity,Gender,Diagnosis,ReferralUrgency,Referral Source,Referral accepted/rejected,
@@ -1431,7 +1548,7 @@ public class PorConverter extends BioFileConverter {
         while (lineIter.hasNext()) {
             String[] line = (String[]) lineIter.next();
             // check if empty
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             // only one file..
@@ -1459,9 +1576,9 @@ public class PorConverter extends BioFileConverter {
             String tier = line[18];
             String site = getSite(patientId);
 
-            Item patient = createPatient(patientId, ethnicity, gender, site);
+            String patient = createPatient(patientId, ethnicity, gender, site);
 
-            Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+            String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                     source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                     dischargeDate, dischargeReason, cumulativeCAMHS);
 
@@ -1469,12 +1586,10 @@ public class PorConverter extends BioFileConverter {
                     contactDate, urgency, contactType, attendance, outcome, team, tier);
 
         }
-        storePatients();
-        storeReferrals();
     }
 
-    private void processNorfolk(Reader reader) throws Exception {
-        Iterator lineIter = FormattedTextParser.parseCsvDelimitedReader(reader);
+    private void processNorfolk(File file) throws Exception {
+        MappedCsvReader records = new MappedCsvReader(file, encoding);
 
         // format assumption:
         // PatientID,ReferralID,Ethnicity,Gender,Diagnosis,ClinicalOutcomeMeasure,AgeAtReferral,Locality,
@@ -1490,15 +1605,19 @@ public class PorConverter extends BioFileConverter {
         //
 
         // parse header in case
-        String[] header = (String[]) lineIter.next();
+        String[] header = records.next();
         LOG.info("PROC Norfolk " + Arrays.toString(header));
+        // one row per contact
+        Iterator<String[]> lineIter = new ParallelCsvReader(file, encoding, getFilePool(),
+                records.getPosition(), MappedCsvReader::toArray);
+        records.close();
         int lineCount = 1; // in excel line numbers start at 1 including header
         Set<String> outPats = new HashSet<String>();
         while (lineIter.hasNext()) {
             lineCount++; // line number in the original file
-            String[] line = (String[]) lineIter.next();
+            String[] line = lineIter.next();
             // check if empty
-            if (line[0].equals(null) || line[0].equals(""))
+            if (isEmptyRow(line))
                 continue;
 
             // only one file..
@@ -1533,12 +1652,12 @@ public class PorConverter extends BioFileConverter {
             if (locality == null || !(locality.equalsIgnoreCase(SUFFOLK) || locality.equalsIgnoreCase(NORFOLK))) {
                 if (!outPats.contains(patientId)) {
                     outPats.add(patientId);
-                    LOG.warn(dataSet + " - external or undeclared site for patient " + patientId + ": " + line[7]);
+                    quality.warn("patients of an external or undeclared site", patientId + ": " + line[7]);
                 }
             }
 
-            Item patient = createPatient(patientId, ethnicity, gender, locality);
-            Item referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
+            String patient = createPatient(patientId, ethnicity, gender, locality);
+            String referral = createReferral(patientId, referralId, age, locality, diagnosis, urgency,
                     source, outcome, referralDate, triageDate, assessmentDate, firstTreatmentDate,
                     dischargeDate, dischargeReason, cumulativeCAMHS);
 
@@ -1546,75 +1665,80 @@ public class PorConverter extends BioFileConverter {
                     contactDate, contactUrgency, contactType, attendance, outcome, team, tier);
 
         }
-        storePatients();
-        storeReferrals();
     }
 
-    private Item createPatient(String patientId, String ethnicity, String gender, String site)
+    private String createPatient(String patientId, String ethnicity, String gender, String site)
             throws ObjectStoreException {
-        Item item = patients.get(patientId);
-        if (item == null) {
-            item = createItem("Patient");
+        long key = siteIds.patientKey(patientId);
+        String ref = patients.getIdentifier(key);
+        if (ref == null) {
+            Item item = createItem("Patient");
             item.setAttribute("identifier", patientId);
-            item.setAttributeIfNotNull("ethnicity", ethnicity);
-            item.setAttributeIfNotNull("gender", gender);
+            setLookup(item, "ethnicity", "Ethnicity", ethnicity);
+            setLookup(item, "gender", "Gender", gender);
             item.setAttributeIfNotNull("site", site);
             item.setReference("dataSet", dataSetRef);
-            patients.put(patientId, item);
+            patients.put(key, item);
+            ref = item.getIdentifier();
         }
-        return item;
+        return ref;
     }
 
-    private Item createReferral(String patientId, String referralId, String age, String locality,
+    private String createReferral(String patientId, String referralId, String age, String locality,
                                 String diagnosis, String urgency, String source, String outcome, String referralDate,
                                 String triageDate, String assessmentDate, String firstTreatmentDate,
                                 String dischargeDate, String dischargeReason, String cumulativeCAMHS)
             throws ObjectStoreException {
 
-        String patRefId = patientId + "-" + referralId;  // to identify the referral
-        Item item = referrals.get(patRefId);
-        if (item == null) {
-            item = createItem("Referral");
+        long key = siteIds.referralKey(patientId, referralId);
+        String ref = referrals.getIdentifier(key);
+        if (ref == null) {
+            Item item = createItem("Referral");
             item.setAttribute("identifier", referralId);
             item.setAttributeIfNotNull("patientAge", age);
             item.setAttributeIfNotNull("locality", locality);
             item.setAttributeIfNotNull("ICD10diagnosis", diagnosis);
-            item.setAttributeIfNotNull("urgency", urgency);
-            item.setAttributeIfNotNull("source", source);
+            setLookup(item, "urgency", "Urgency", urgency);
+            setLookup(item, "source", "ReferralSource", source);
             item.setAttributeIfNotNull("outcome", outcome);
-            item.setAttributeIfNotNull("referralDate", referralDate);
-            item.setAttributeIfNotNull("triageDate", triageDate);
-            item.setAttributeIfNotNull("assessmentDate", assessmentDate);
-            item.setAttributeIfNotNull("firstTreatmentDate", firstTreatmentDate);
-            item.setAttributeIfNotNull("dischargeDate", dischargeDate);
+            setDateAttribute(item, "referralDate", referralDate);
+            setDateAttribute(item, "triageDate", triageDate);
+            setDateAttribute(item, "assessmentDate", assessmentDate);
+            setDateAttribute(item, "firstTreatmentDate", firstTreatmentDate);
+            setDateAttribute(item, "dischargeDate", dischargeDate);
             item.setAttributeIfNotNull("dischargeReason", dischargeReason);
             item.setAttributeIfNotNull("cumulativeCAMHS", cumulativeCAMHS);
 
-            Item patient = patients.get(patientId);
+            String patient = patients.getIdentifier(siteIds.findPatient(patientId));
             if (patient != null) {
                 item.setReference("patient", patient);
             }
-            referrals.put(patRefId, item);
+            referrals.put(key, item);
+            ref = item.getIdentifier();
         } else if (dataSet.equalsIgnoreCase("bradford")){
             // for bradford age and locality come from the patient file and the rest of referral attributes
             // from the contact file. referral items are created when parsing patient, and filled when parsing contacts
+            Item item = referrals.getItem(key);
+            if (item == null) {
+                return ref;
+            }
             item.setAttributeIfNotNull("ICD10diagnosis", diagnosis);
-            item.setAttributeIfNotNull("urgency", urgency);
-            item.setAttributeIfNotNull("source", source);
+            setLookup(item, "urgency", "Urgency", urgency);
+            setLookup(item, "source", "ReferralSource", source);
             item.setAttributeIfNotNull("outcome", outcome);
-            item.setAttributeIfNotNull("referralDate", referralDate);
-            item.setAttributeIfNotNull("triageDate", triageDate);
-            item.setAttributeIfNotNull("assessmentDate", assessmentDate);
-            item.setAttributeIfNotNull("firstTreatmentDate", firstTreatmentDate);
-            item.setAttributeIfNotNull("dischargeDate", dischargeDate);
+            setDateAttribute(item, "referralDate", referralDate);
+            setDateAttribute(item, "triageDate", triageDate);
+            setDateAttribute(item, "assessmentDate", assessmentDate);
+            setDateAttribute(item, "firstTreatmentDate", firstTreatmentDate);
+            setDateAttribute(item, "dischargeDate", dischargeDate);
             item.setAttributeIfNotNull("dischargeReason", dischargeReason);
             item.setAttributeIfNotNull("cumulativeCAMHS", cumulativeCAMHS);
 
         }
-        return item;
+        return ref;
     }
 
-    private Item createContact(String patientId, String referralId, String contactId,
+    private String createContact(String patientId, String referralId, String contactId,
                                String ordinal, String contactDate, String urgency,
                                String contactType, String attendance, String outcome, String team, String tier)
             throws ObjectStoreException {
@@ -1622,35 +1746,35 @@ public class PorConverter extends BioFileConverter {
         if (patientId == null) {
             patientId = ref2pat.get(referralId);
         }
-        String patRefId = patientId + "-" + referralId;  // to identify the referral/contact
-        //    LOG.info("PATREF CON " + patRefId);
+        long key = siteIds.referralKey(patientId, referralId);  // to identify the referral/contact
 
-        Item item = contacts.get(patRefId);
-        if (item == null) {
-            item = createItem("Contact");
+        String ref = contacts.getIdentifier(key);
+        if (ref == null) {
+            Item item = createItem("Contact");
             item.setAttributeIfNotNull("identifier", contactId);
             item.setAttributeIfNotNull("ordinal", ordinal);
-            item.setAttributeIfNotNull("contactDate", contactDate);
-            item.setAttributeIfNotNull("urgency", urgency);
+            setDateAttribute(item, "contactDate", contactDate);
+            setLookup(item, "urgency", "Urgency", urgency);
             item.setAttributeIfNotNull("contactType", contactType);
             item.setAttributeIfNotNull("attendance", attendance);
             item.setAttributeIfNotNull("contactOutcome", outcome);
-            item.setAttributeIfNotNull("team", team);
+            setLookup(item, "team", "Team", team);
             item.setAttributeIfNotNull("teamTier", tier);
-            Item patient = patients.get(patientId);
-            Item referral = referrals.get(patRefId);
+            String patient = patients.getIdentifier(siteIds.findPatient(patientId));
+            String referral = referrals.getIdentifier(key);
             if (patient != null) {
                 item.setReference("patient", patient);
             }
             if (referral != null) {
                 item.setReference("referral", referral);
             }
-            contacts.put(patRefId, item);
+            contacts.put(key, item);
+            ref = item.getIdentifier();
         }
-        return item;
+        return ref;
     }
 
-    private int storeContact(String patientId, String referralId, String contactId,
+    private void storeContact(String patientId, String referralId, String contactId,
                              String ordinal, String contactDate, String urgency,
                              String contactType, String attendance, String outcome, String team, String tier)
             throws ObjectStoreException {
@@ -1659,62 +1783,105 @@ public class PorConverter extends BioFileConverter {
             patientId = ref2pat.get(referralId);
 
         }
-        String patRefId = patientId + "-" + referralId;  // to identify the referral/contact
-
         Item item = createItem("Contact");
         item.setAttributeIfNotNull("identifier", contactId);
         item.setAttributeIfNotNull("ordinal", ordinal);
-        item.setAttributeIfNotNull("contactDate", contactDate);
-        item.setAttributeIfNotNull("urgency", urgency);
+        setDateAttribute(item, "contactDate", contactDate);
+        setLookup(item, "urgency", "Urgency", urgency);
         item.setAttributeIfNotNull("contactType", contactType);
         item.setAttributeIfNotNull("attendance", attendance);
         item.setAttributeIfNotNull("contactOutcome", outcome);
-        item.setAttributeIfNotNull("team", team);
+        setLookup(item, "team", "Team", team);
         item.setAttributeIfNotNull("teamTier", tier);
-        Item patient = patients.get(patientId);
-        Item referral = referrals.get(patRefId);
+        String patient = patients.getIdentifier(siteIds.findPatient(patientId));
+        String referral = referrals.getIdentifier(siteIds.findReferral(patientId, referralId));
         if (patient != null) {
             item.setReference("patient", patient);
         }
         if (referral != null) {
             item.setReference("referral", referral);
         }
-        return store(item);
+        // no id: the site converters store through a HandOffItemWriter
+        store(item);
+    }
+
+    /**
+     * the column mapping of the current site for a file type (patient or contact), compiled
+     * once from por_columns.properties. sites without a mapping use the default one.
+     */
+    private ColumnMapping getMapping(String file) throws IOException {
+        String site = dataSet.split(" ")[0];
+        String key = site + "." + file;
+        ColumnMapping mapping = columnMappings.get(key);
+        if (mapping == null) {
+            if (columnProperties == null) {
+                columnProperties = new Properties();
+                InputStream is = getClass().getClassLoader().getResourceAsStream(COLUMNS_FILE);
+                if (is == null) {
+                    throw new IllegalArgumentException("Cannot find " + COLUMNS_FILE + " in the classpath");
+                }
+                columnProperties.load(is);
+                is.close();
+            }
+            mapping = ColumnMapping.compile(columnProperties, site, file, CLEANERS);
+            if (mapping == null) {
+                mapping = ColumnMapping.compile(columnProperties, "default", file, CLEANERS);
+            }
+            LOG.info(dataSet + ": using column mapping " + mapping.getName() + " for " + file + " file");
+            columnMappings.put(key, mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * create a contact for a patient/referral already at hand and hand it to the contact batch
+     * (used for the sites with all the contacts of a referral in the same row)
+     */
+    private void emitContact(String patient, String referral, String contactDate, String urgency,
+                             String contactType, String attendance, String outcome, String team, String tier)
+            throws ObjectStoreException {
+        Item item = createItem("Contact");
+        setDateAttribute(item, "contactDate", contactDate);
+        setLookup(item, "urgency", "Urgency", urgency);
+        item.setAttributeIfNotNull("contactType", contactType);
+        item.setAttributeIfNotNull("attendance", attendance);
+        item.setAttributeIfNotNull("contactOutcome", outcome);
+        setLookup(item, "team", "Team", team);
+        item.setAttributeIfNotNull("teamTier", tier);
+        item.setReference("patient", patient);
+        item.setReference("referral", referral);
+        itemBatch.add(item);
     }
 
-    private int storeOutcome(String patientId, String referralId, String episodeId,
+    private void storeOutcome(String patientId, String referralId, String episodeId,
                              String ratingDate, String ratingType, String cgasScore)
             throws ObjectStoreException {
 
 //        if (patientId == null) {
 //            patientId = ref2pat.get(referralId);
 //        }
-        String patRefId = patientId + "-" + referralId;  // to identify the referral/contact
-
         Item item = createItem("ClinicalOutcome");
         item.setAttributeIfNotNull("episodeId", episodeId);
         item.setAttributeIfNotNull("ratingDate", ratingDate);
         item.setAttributeIfNotNull("ratingType", ratingType);
         item.setAttributeIfNotNull("cgasScore", cgasScore);
 
-        Item patient = createPatient(patientId, null, null, dataSet);
+        String patient = createPatient(patientId, null, null, dataSet);
         item.setReference("patient", patient);
 
-        Item referral = referrals.get(patRefId);
+        String referral = referrals.getIdentifier(siteIds.findReferral(patientId, referralId));
         if (referral != null) {
             item.setReference("referral", referral);
         }
 
-        return store(item);
+        itemBatch.add(item);
     }
 
-    private int storeOutcome(String patientId, String referralId, String ratingDate, String rawScore,
+    private void storeOutcome(String patientId, String referralId, String ratingDate, String rawScore,
                              String assName, String snomed, String scale, String ageAtAssessment, String grade,
                              String score, String note, String fiscalYear, String firstOrLast)
             throws ObjectStoreException {
 
-        String patRefId = patientId + "-" + referralId;  // to identify the referral/contact
-
         Item item = createItem("ClinicalOutcome");
         item.setAttributeIfNotNull("ratingDate", ratingDate);
         item.setAttributeIfNotNull("rawScore", rawScore);
@@ -1729,25 +1896,23 @@ public class PorConverter extends BioFileConverter {
         item.setAttributeIfNotNull("firstOrLast", firstOrLast);
 
 
-        Item patient = createPatient(patientId, null, null, dataSet);
+        String patient = createPatient(patientId, null, null, dataSet);
         item.setReference("patient", patient);
 
-        Item referral = referrals.get(patRefId);
+        String referral = referrals.getIdentifier(siteIds.findReferral(patientId, referralId));
         if (referral != null) {
             item.setReference("referral", referral);
         }
 
-        return store(item);
+        itemBatch.add(item);
     }
 
 
     private Item createDiagnostic(String patientId, String referralId, String assessmentDate, String observation,
                                   String value)
             throws ObjectStoreException {
-        String patRefId = patientId + "-" + referralId;
-
-        Item referral = referrals.get(patRefId);
-        Item patient = patients.get(patientId);
+        String referral = referrals.getIdentifier(siteIds.findReferral(patientId, referralId));
+        String patient = patients.getIdentifier(siteIds.findPatient(patientId));
         Item dia = createItem("Diagnostic");
         dia.setAttributeIfNotNull("assessmentDate", assessmentDate);
         dia.setAttributeIfNotNull("observation", observation);
@@ -1764,10 +1929,8 @@ public class PorConverter extends BioFileConverter {
     private Item createDiagnostic(String patientId, String referralId, String measure, String measureType,
                                   String assessmentDate, String observation, String value)
             throws ObjectStoreException {
-        String patRefId = patientId + "-" + referralId;
-
-        Item referral = referrals.get(patRefId);
-        Item patient = patients.get(patientId);
+        String referral = referrals.getIdentifier(siteIds.findReferral(patientId, referralId));
+        String patient = patients.getIdentifier(siteIds.findPatient(patientId));
         Item dia = createItem("Diagnostic");
         dia.setAttributeIfNotNull("measure", measure);
         dia.setAttributeIfNotNull("measureType", measureType);
@@ -1786,7 +1949,7 @@ public class PorConverter extends BioFileConverter {
     private Item createAdditionalData(String patientId, String referralId, String type, String name,
                                       String value)
             throws ObjectStoreException {
-        Item patient = patients.get(patientId);
+        String patient = patients.getIdentifier(siteIds.findPatient(patientId));
         Item ad = createItem(type);
         ad.setAttributeIfNotNull("name", name);
         ad.setAttributeIfNotNull("value", value);
@@ -1794,8 +1957,7 @@ public class PorConverter extends BioFileConverter {
             ad.setReference("patient", patient);
         }
         if (referralId != null) {
-            String patRefId = patientId + "-" + referralId;
-            Item referral = referrals.get(patRefId);
+            String referral = referrals.getIdentifier(siteIds.findReferral(patientId, referralId));
             if (referral != null) {
                 ad.setReference("referral", referral);
             }
@@ -1809,105 +1971,242 @@ public class PorConverter extends BioFileConverter {
      */
     private void createDataSet(String site, String type)
             throws ObjectStoreException {
-        Item dataSource = dataSets.get(site);
-        if (dataSource == null) {
-            dataSource = createItem("DataSource");
+        Item dataSet = dataSets.get(site);
+        if (dataSet == null) {
+            Item dataSource = createItem("DataSource");
             dataSource.setAttribute("name", DATA_SOURCE_NAME);
-            Item dataSet = createItem("DataSet");
+            dataSet = createItem("DataSet");
             dataSet.setAttribute("name", site);
             dataSet.setAttribute("type", type);
             store(dataSource);
             dataSet.setReference("dataSource", dataSource.getIdentifier());
             store(dataSet);
-            dataSetRef = dataSet.getIdentifier();
+            dataSets.put(site, dataSet);
         }
-        dataSets.put(site, dataSource);
+        dataSetRef = dataSet.getIdentifier();
     }
 
-    private void storePatients() throws ObjectStoreException {
-        for (Item item : patients.values()) {
-            Integer pid = store(item);
+    /**
+     * open the caches for a new site, storing and releasing the ones of the previous site.
+     * the files of a site are expected to be read one after the other.
+     */
+    private void openSite(String site) throws ObjectStoreException {
+        if (site.equals(cacheSite)) {
+            return;
         }
+        closeSite();
+        if (closedSites.contains(site)) {
+            LOG.warn(site + ": files not contiguous, identifiers from the previous files of this site "
+                    + "will not be resolved.");
+        }
+        cacheSite = site;
+        siteMetrics = metrics.getSite(site);
+        meteredWriter.setSite(siteMetrics);
     }
 
-    private void storeReferrals() throws ObjectStoreException {
-        for (Item item : referrals.values()) {
-            Integer pid = store(item);
+    /**
+     * store the items of the site caches and drop them
+     */
+    private void closeSite() throws ObjectStoreException {
+        if (cacheSite == null) {
+            return;
         }
+        storePatients();
+        storeReferrals();
+        storeContacts();
+        sampleCaches();
+        LOG.info(cacheSite + ": releasing " + patients.size() + " patients, " + referrals.size()
+                + " referrals, " + contacts.size() + " contacts.");
+        closedSites.add(cacheSite);
+        siteIds = new SiteIndex();
+        patients = new ItemIndex();
+        referrals = new ItemIndex();
+        contacts = new ItemIndex();
+        ref2pat = new HashMap<>();
+        patAge = new HashMap<>();
+        cacheSite = null;
+        siteMetrics = null;
+        meteredWriter.setSite(null);
+    }
+
+    /**
+     * the sizes of the site caches, for the metrics
+     */
+    private void sampleCaches() {
+        siteMetrics.cacheSize("patients", patients.size());
+        siteMetrics.cacheSize("referrals", referrals.size());
+        siteMetrics.cacheSize("contacts", contacts.size());
+    }
+
+    /**
+     * count a row for a patient or referral not found, reported at the end of the file
+     */
+    private void orphan(String kind, String id) {
+        siteMetrics.orphan();
+        quality.warn(kind, id);
+    }
+
+    /**
+     * count a row of the current file, true if it has no identifier and is skipped
+     */
+    private boolean isEmptyRow(String[] line) {
+        siteMetrics.row();
+        if (line[0] == null || line[0].isEmpty()) {
+            siteMetrics.skipped();
+            return true;
+        }
+        return false;
+    }
+
+    private void storePatients() throws ObjectStoreException {
+        store(patients.release());
+    }
+
+    private void storeReferrals() throws ObjectStoreException {
+        store(referrals.release());
     }
 
     private void storeContacts() throws ObjectStoreException {
-        for (Item item : contacts.values()) {
-            Integer pid = store(item);
+        store(contacts.release());
+    }
+
+    /**
+     * the items of the site caches are stored (released) once, when the site is closed: the
+     * later files of a site may still update them.
+     */
+    private void store(List<Item> items) throws ObjectStoreException {
+        for (Item item : items) {
+            store(item);
         }
+        releasedItems += items.size();
     }
 
-    private void storeAll() throws ObjectStoreException {
-        storePatients();
-        storeReferrals();
-        storeContacts();
+    /**
+     * @return the stores saved by storing the site caches once, when the site is closed, rather
+     * than at the end of each file
+     */
+    long getStoresAvoided() {
+        return Math.max(0, cachedStores - releasedItems);
     }
 
-    private String cleanIdentifier(String identifier) {
-        // stockport, e.g.:
-        // patientId = RT2550527
-        // referralId = 3_155204910
-        // contactId = 5_C_2480976  (activity Id)
-        //
-        // worcester:
-        // contactId = 1150471DA
-        //
-        // waltham:
-        // patientId = 1022464RiO
-        // referralId = 1022464MHRef1 (NB: we could be missing info in the last digit)
-        //
+    /**
+     * add the counts of a site converter, reported by the parent on close
+     */
+    private synchronized void addStores(long cached, long released) {
+        cachedStores += cached;
+        releasedItems += released;
+    }
 
-        if (identifier.contains("NULL")) {
-            return null;
+    /**
+     * the threads reading the single file sites, shared by the site converters. null with one
+     * thread: the files are then read by the thread converting them.
+     */
+    private ForkJoinPool getFilePool() {
+        if (parent != null) {
+            return parent.getFilePool();
         }
-        if (identifier.startsWith("RT")) {
-            return identifier.replace("RT", "");
+        synchronized (this) {
+            if (filePool == null && fileThreads > 1) {
+                filePool = new ForkJoinPool(fileThreads);
+            }
+            return filePool;
+        }
+    }
+
+    /**
+     * the lookup items, shared by the site converters. null without lookups.
+     */
+    private LookupDictionary getLookups() throws IOException {
+        if (parent != null) {
+            return parent.getLookups();
         }
-        if (identifier.endsWith("DA")) {
-            return identifier.replace("DA", "");
+        synchronized (this) {
+            if (lookups == null && useLookups) {
+                lookups = new LookupDictionary(this, getItemWriter());
+            }
+            return lookups;
         }
-        if (identifier.endsWith("CA")) {
-            return identifier.replace("CA", "");
+    }
+
+    /**
+     * set a low cardinality value: as a reference to its lookup item (attribute + "Term") with
+     * lookups, as an attribute otherwise
+     */
+    private void setLookup(Item item, String attribute, String className, String value)
+            throws ObjectStoreException {
+        LookupDictionary dictionary;
+        try {
+            dictionary = getLookups();
+        } catch (IOException e) {
+            throw new ObjectStoreException("Can't read " + LookupDictionary.SYNONYMS_FILE, e);
+        }
+        if (dictionary == null) {
+            item.setAttributeIfNotNull(attribute, value);
+            return;
         }
-        if (identifier.endsWith("GA")) {
-            return identifier.replace("GA", "");
+        String ref = dictionary.getIdentifier(className, value);
+        if (ref != null) {
+            item.setReference(attribute + "Term", ref);
         }
-        if (identifier.endsWith("RiO")) { // waltham patientid
-            return identifier.replace("RiO", "");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws Exception {
+        if (!siteFiles.isEmpty()) {
+            processSites(siteFiles);
+        }
+        if (lookups != null) {
+            LOG.info(lookups.size() + " lookup items.");
+        }
+        if (filePool != null) {
+            filePool.shutdown();
+        }
+        closeSite();
+        LOG.info("Stored " + closedSites.size() + " sites, " + dates.size() + " distinct dates parsed.");
+        if (parent != null) {
+            parent.addStores(cachedStores, releasedItems);
+        } else {
+            LOG.info("Stored " + releasedItems + " cached items, " + getStoresAvoided() + " re-stores avoided.");
+            metrics.close();
+            if (metricsFile != null) {
+                metrics.write(metricsFile);
+                LOG.info("Conversion metrics written to " + metricsFile);
+            } else {
+                LOG.info("Conversion metrics:\n" + metrics.toJson());
+            }
         }
-        if (identifier.contains("MH")) { // waltham referralid
-            return identifier.substring(0, identifier.indexOf('M'));
+        super.close();
+    }
+
+    /**
+     * set a date attribute, if the value is a date (see DateParser), the other values reported
+     */
+    private void setDateAttribute(Item item, String name, String value) {
+        String date = dates.toAttribute(value);
+        if (date == null && value != null && !value.trim().isEmpty() && !value.contains("NULL")) {
+            quality.warn("unparseable dates", value);
         }
+        item.setAttributeIfNotNull(name, date);
+    }
 
-        return identifier;
+    private String cleanIdentifier(String identifier) {
+        // e.g. RT2550527, 1150471DA, 1022464RiO, 1022464MHRef1, see FieldCleaner
+        return FieldCleaner.cleanIdentifier(identifier);
     }
 
     private String cleanDate(String s) {
         // basic method to clean date, to improve
         // used for portsmouth
-        if (s.contains(" ")) {
-            String[] tokens = s.split(" ");
-            return tokens[0];
-        }
-        if (s.contains("NULL"))  return null;
-        return s;
-    }
-
-    private String cleanValue(String s) {
-        if (s.contains("NULL")) {
-            return null;
-        }
-        if (s.equalsIgnoreCase("f2f")) return "F2F";
-        if (s.equalsIgnoreCase("nF2f")) return "NonF2F";
-        return s;
+        return FieldCleaner.cleanDate(s);
     }
 
-    private String roundAge(String[] line) {
+    /**
+     * the age of a patient (column 2), without decimals. package visible for the benchmarks
+     */
+    static String roundAge(String[] line) {
         String age;// they have ages like 4.2.
         // rounding to the integer.
         if (line[2].contains("."))
@@ -1917,7 +2216,10 @@ public class PorConverter extends BioFileConverter {
         return age;
     }
 
-    private String getSite(String s) {
+    /**
+     * the site of a patient identifier or locality, or the value itself. package visible for the benchmarks
+     */
+    static String getSite(String s) {
         if (s.startsWith("LT")) return LUTON;     // ds: Luton, s:patientId
         if (s.startsWith("TH")) return TOWER;
         if (s.toLowerCase().contains("suffolk")) return SUFFOLK;   // ds: Norfolk, s: locality
@@ -1928,81 +2230,50 @@ public class PorConverter extends BioFileConverter {
         return s;
     }
 
-    private void setDataset(String fileName) throws ObjectStoreException {
-        if (fileName.contains("Bexley")) {
-            dataSet = "Bexley";
-            siteType = SITE_ITHRIVE;
-        }
-        if (fileName.contains("Bradford")) {
-            dataSet = "Bradford";
-            siteType = SITE_CONTROL;
-        }
+    // file name tag, dataset name, site type. if a name has more than one tag the last one wins
+    private static final String[][] SITES = {
+            {"Bexley", "Bexley", SITE_ITHRIVE},
+            {"Bradford", "Bradford", SITE_CONTROL},
 // TODO: mv cambridge parser here
-//        if (fileName.contains("Cambridge")) {
-//            dataSet = "Cambridge and Peterborough";
-//            siteType = SITE_ITHRIVE;
-//        }
-        if (fileName.contains("Camden")) {
-            dataSet = "Camden";
-            siteType = SITE_ITHRIVE;
-        }
-        if (fileName.contains("Hertfordshire")) {
-            dataSet = "Hertfordshire";
-            siteType = SITE_ITHRIVE;
-        }
-        if (fileName.contains("Lewisham")) {
-            siteType = SITE_CONTROL;
-            dataSet = "Lewisham";
-        }
-        if (fileName.contains("Luton")) {
-            dataSet = "Luton and Tower Hamlet";
-            siteType = SITE_ITHRIVE;
-        }
-        if (fileName.contains("Manchester")) {
-            dataSet = "Manchester and Salford";
-            siteType = SITE_ITHRIVE;
-        }
-        if (fileName.contains("NeCor")) {
-            siteType = SITE_CONTROL;
-            dataSet = "Nene and Corby";
-        }
-        if (fileName.contains("Norfolk")) {
-            dataSet = "Norfolk";
-            siteType = SITE_CONTROL;
-        }
-        if (fileName.contains("Portsmouth")) {
-            dataSet = "Portsmouth";
-            siteType = SITE_CONTROL;
-        }
-        if (fileName.contains("Southampton")) {
-            dataSet = "Southampton";
-            siteType = SITE_CONTROL;
-        }
-        if (fileName.contains("Stockport")) {
-            dataSet = "Stockport";
-            siteType = SITE_ITHRIVE;
-        }
-        if (fileName.contains("Stoke")) {
-            dataSet = "Stoke on Trent";
-            siteType = SITE_CONTROL;
-        }
-        if (fileName.contains("Sunderland")) {
-            dataSet = "Sunderland";
-            siteType = SITE_CONTROL;
-        }
-        if (fileName.contains("Waltham")) {
-            dataSet = "Waltham Forest";
-            siteType = SITE_ITHRIVE;
-        }
-        if (fileName.contains("Warrington")) {
-            dataSet = "Warrington";
-            siteType = SITE_ITHRIVE;
+//            {"Cambridge", "Cambridge and Peterborough", SITE_ITHRIVE},
+            {"Camden", "Camden", SITE_ITHRIVE},
+            {"Hertfordshire", "Hertfordshire", SITE_ITHRIVE},
+            {"Lewisham", "Lewisham", SITE_CONTROL},
+            {"Luton", "Luton and Tower Hamlet", SITE_ITHRIVE},
+            {"Manchester", "Manchester and Salford", SITE_ITHRIVE},
+            {"NeCor", "Nene and Corby", SITE_CONTROL},
+            {"Norfolk", "Norfolk", SITE_CONTROL},
+            {"Portsmouth", "Portsmouth", SITE_CONTROL},
+            {"Southampton", "Southampton", SITE_CONTROL},
+            {"Stockport", "Stockport", SITE_ITHRIVE},
+            {"Stoke", "Stoke on Trent", SITE_CONTROL},
+            {"Sunderland", "Sunderland", SITE_CONTROL},
+            {"Waltham", "Waltham Forest", SITE_ITHRIVE},
+            {"Warrington", "Warrington", SITE_ITHRIVE},
+            {"Worcester", "Worcester", SITE_CONTROL},
+    };
+
+    /**
+     * @return the dataset name and site type for a site file, null if the site is unknown
+     */
+    private static String[] siteOf(String fileName) {
+        String[] site = null;
+        for (String[] s : SITES) {
+            if (fileName.contains(s[0])) {
+                site = new String[] {s[1], s[2]};
+            }
         }
-        if (fileName.contains("Worcester")) {
-            dataSet = "Worcester";
-            siteType = SITE_CONTROL;
+        return site;
+    }
+
+    private void setDataset(String fileName) throws ObjectStoreException {
+        String[] site = siteOf(fileName);
+        if (site != null) {
+            dataSet = site[0];
+            siteType = site[1];
         }
 
+        openSite(dataSet);
         createDataSet(dataSet, siteType);
     }
 
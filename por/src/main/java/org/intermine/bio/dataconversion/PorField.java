@@ -0,0 +1,58 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * The fields that can be read from a POR site file, with the names used in por_columns.properties.
+ *
+ * @author
+ */
+public enum PorField
+{
+    PATIENT_ID("patientId"),
+    REFERRAL_ID("referralId"),
+    AGE("age"),
+    LOCALITY("locality"),
+    ETHNICITY("ethnicity"),
+    GENDER("gender"),
+    DIAGNOSIS("diagnosis"),
+    URGENCY("urgency"),
+    SOURCE("source"),
+    OUTCOME("outcome"),
+    REFERRAL_DATE("referralDate"),
+    TRIAGE_DATE("triageDate"),
+    ASSESSMENT_DATE("assessmentDate"),
+    FIRST_TREATMENT_DATE("firstTreatmentDate"),
+    DISCHARGE_DATE("dischargeDate"),
+    DISCHARGE_REASON("dischargeReason"),
+    CUMULATIVE_CAMHS("cumulativeCAMHS"),
+    CONTACT_ID("contactId"),
+    ORDINAL("ordinal"),
+    CONTACT_DATE("contactDate"),
+    CONTACT_URGENCY("contactUrgency"),
+    CONTACT_TYPE("contactType"),
+    ATTENDANCE("attendance"),
+    TEAM("team"),
+    TIER("tier");
+
+    private final String key;
+
+    PorField(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return the name of the field in the mapping file
+     */
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,100 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Reads the repeating groups of columns at the end of a wide row (e.g. the appointments
+ * in camden and stoke, 4 or 6 columns each). A row is read with the fixed columns before the
+ * groups, and the groups up to the first one with an empty (or null marked) first field, so the
+ * trailing empty groups are never turned into Strings. read() doesn't change the reader, so it
+ * can be called from the threads of a ParallelCsvReader; the groups of a row are then iterated
+ * with reset() and next().
+ *
+ * @author
+ */
+public class RepeatingGroupReader
+{
+    private final int firstColumn;
+    private final int width;
+    private final int maxGroups;
+    private final String nullMarker;
+    private final String[] group;
+    private String[] row = null;
+    private int groups = 0;
+
+    /**
+     * @param firstColumn the column of the first group (i.e. the number of fixed columns)
+     * @param width the number of columns in each group
+     * @param maxGroups the maximum number of groups in a row
+     * @param nullMarker a group whose first field contains this is an empty one (can be null)
+     */
+    public RepeatingGroupReader(int firstColumn, int width, int maxGroups, String nullMarker) {
+        this.firstColumn = firstColumn;
+        this.width = width;
+        this.maxGroups = maxGroups;
+        this.nullMarker = nullMarker;
+        this.group = new String[width];
+    }
+
+    /**
+     * Read a row.
+     * @param record the reader, on the row
+     * @return the fixed columns of the row followed by its non empty groups
+     */
+    public String[] read(MappedCsvReader record) {
+        int groups = 0;
+        while (groups < maxGroups) {
+            int column = firstColumn + groups * width;
+            if (record.isEmpty(column) || (nullMarker != null && record.contains(column, nullMarker))) {
+                break;
+            }
+            groups++;
+        }
+        String[] values = new String[firstColumn + groups * width];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = record.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Start iterating the groups of a row.
+     * @param row a row given by read()
+     * @return the row, the fixed columns first
+     */
+    public String[] reset(String[] row) {
+        this.row = row;
+        groups = 0;
+        return row;
+    }
+
+    /**
+     * Move to the next group of the row.
+     * @return false if there are no more (non empty) groups
+     */
+    public boolean next() {
+        int column = firstColumn + groups * width;
+        if (column >= row.length) {
+            return false;
+        }
+        System.arraycopy(row, column, group, 0, width);
+        groups++;
+        return true;
+    }
+
+    /**
+     * @param i the column within the group
+     * @return the value of the column in the current group
+     */
+    public String get(int i) {
+        return group[i];
+    }
+}
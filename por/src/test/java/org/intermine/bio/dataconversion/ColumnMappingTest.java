@@ -0,0 +1,123 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+public class ColumnMappingTest extends TestCase
+{
+    private static final String[] SITES = {"Waltham Forest", "Worcester", "Portsmouth", "Nene and Corby",
+        "Sunderland", "Southampton"};
+    private static final PorField[] FIELDS = {PorField.PATIENT_ID, PorField.REFERRAL_ID, PorField.AGE,
+        PorField.LOCALITY, PorField.ETHNICITY, PorField.GENDER, PorField.DIAGNOSIS, PorField.URGENCY,
+        PorField.SOURCE, PorField.OUTCOME, PorField.REFERRAL_DATE, PorField.TRIAGE_DATE,
+        PorField.ASSESSMENT_DATE, PorField.FIRST_TREATMENT_DATE, PorField.DISCHARGE_DATE,
+        PorField.DISCHARGE_REASON, PorField.CUMULATIVE_CAMHS};
+
+    private Properties props;
+    private Map<String, ColumnMapping.Cleaner> cleaners;
+
+    public ColumnMappingTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        props = new Properties();
+        InputStream is = getClass().getClassLoader().getResourceAsStream("por_columns.properties");
+        props.load(is);
+        is.close();
+        cleaners = new HashMap<>();
+        cleaners.put("identifier", FieldCleaner::cleanIdentifier);
+        cleaners.put("date", FieldCleaner::cleanDate);
+        cleaners.put("value", FieldCleaner::cleanValue);
+    }
+
+    /**
+     * por_columns.properties gives the columns of the if/else of processPatient it replaced
+     */
+    public void testSameAsBefore() throws Exception {
+        String[][] lines = {
+            {"RT1001", "1001MHRef1", "12", "Locality", "A", "F", "NULL", "Routine", "GP", "Accepted",
+                "03/11/15 11:24", "04/11/15 10:00", "", "NULL", "06/06/16 11:51", "Discharged", "1",
+                "Malvern", "Completed", "", "", "", "", ""},
+            {"2002", "RT2002", "NULL", "", "Z", "M", "F32", "Urgent", "Self", "Rejected", "26/09/14",
+                "NULL", "27/09/14 09:00", "01/10/14", "", "Moved", "NULL", "Redditch", "DNA", "x", "", "",
+                "", ""}};
+        for (String site : SITES) {
+            ColumnMapping mapping = ColumnMapping.compile(props, site.split(" ")[0], "patient", cleaners);
+            if (mapping == null) {
+                mapping = ColumnMapping.compile(props, "default", "patient", cleaners);
+            }
+            for (String[] line : lines) {
+                String[] mapped = new String[FIELDS.length];
+                for (int i = 0; i < FIELDS.length; i++) {
+                    mapped[i] = mapping.get(line, FIELDS[i]);
+                }
+                assertEquals(site, Arrays.asList(handWritten(site, line)), Arrays.asList(mapped));
+            }
+        }
+    }
+
+    public void testUnknownCleaner() throws Exception {
+        Properties bad = new Properties();
+        bad.setProperty("Test.patient." + PorField.AGE.getKey(), "2, rounded");
+        try {
+            ColumnMapping.compile(bad, "Test", "patient", cleaners);
+            fail("expected an exception for an unknown cleaner");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("rounded"));
+        }
+        assertNull(ColumnMapping.compile(bad, "Other", "patient", cleaners));
+    }
+
+    // the column resolution of processPatient before por_columns.properties, in the order of FIELDS
+    private static String[] handWritten(String dataSet, String[] line) {
+        if (dataSet.contains("Waltham") || dataSet.contains("Stockport")) {
+            return new String[] {line[0], line[1], cleanIdentifier(line[2]), line[3], line[4], line[5],
+                cleanIdentifier(line[6]), line[7], line[8], line[9], line[10], cleanDate(line[11]),
+                cleanDate(line[12]), cleanDate(line[13]), cleanDate(line[14]), line[15],
+                cleanIdentifier(line[16])};
+        } else if (dataSet.contains("Worcester")) {
+            return new String[] {line[1], line[0], line[4], line[17], line[3], line[2], null, line[7], line[6],
+                null, line[5], null, null, line[8], line[15], line[18], null};
+        } else if (dataSet.contains("Portsmouth")) {
+            return new String[] {line[0], line[1], cleanIdentifier(line[2]), line[3], line[4], line[5], line[6],
+                line[7], line[8], line[9], cleanDate(line[10]), cleanDate(line[11]), cleanDate(line[12]),
+                cleanDate(line[13]), cleanDate(line[14]), line[15], line[16]};
+        } else if (dataSet.contains("Nene")) {
+            return new String[] {line[0], line[1], cleanIdentifier(line[2]), line[3], line[4], line[5], line[6],
+                line[7], line[8], line[9], cleanDate(line[11]), cleanDate(line[12]), line[12],
+                cleanDate(line[13]), cleanDate(line[15]), null, null};
+        } else if (dataSet.contains("Sunderland")) {
+            return new String[] {line[0], line[1], cleanIdentifier(line[2]), line[3], line[4], line[5], line[6],
+                line[7], line[8], line[9], null, null, line[12], cleanDate(line[13]), line[13], line[14],
+                line[15]};
+        } else {
+            return new String[] {line[0], line[1], cleanIdentifier(line[2]), line[3], line[4], line[5], line[6],
+                line[7], line[8], line[9], cleanDate(line[10]), line[11], line[12], cleanDate(line[13]),
+                cleanDate(line[14]), line[15], line[16]};
+        }
+    }
+
+    private static String cleanIdentifier(String identifier) {
+        return FieldCleaner.cleanIdentifier(identifier);
+    }
+
+    private static String cleanDate(String s) {
+        return FieldCleaner.cleanDate(s);
+    }
+}
@@ -0,0 +1,100 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class FieldCleanerTest extends TestCase
+{
+    public FieldCleanerTest(String arg) {
+        super(arg);
+    }
+
+    public void testCleanIdentifier() throws Exception {
+        assertNull(FieldCleaner.cleanIdentifier("NULL"));
+        assertNull(FieldCleaner.cleanIdentifier("12NULL"));
+        assertEquals("2550527", FieldCleaner.cleanIdentifier("RT2550527"));
+        assertEquals("25505", FieldCleaner.cleanIdentifier("RT25RT505"));
+        assertEquals("1150471", FieldCleaner.cleanIdentifier("1150471DA"));
+        assertEquals("1150471", FieldCleaner.cleanIdentifier("1150471CA"));
+        assertEquals("1150471", FieldCleaner.cleanIdentifier("1150471GA"));
+        assertEquals("1022464", FieldCleaner.cleanIdentifier("1022464RiO"));
+        assertEquals("1022464", FieldCleaner.cleanIdentifier("1022464MHRef1"));
+        assertEquals("3_155204910", FieldCleaner.cleanIdentifier("3_155204910"));
+        assertEquals("", FieldCleaner.cleanIdentifier(""));
+    }
+
+    public void testCleanDate() throws Exception {
+        assertEquals("03/11/15", FieldCleaner.cleanDate("03/11/15 11:24"));
+        assertEquals("26/09/14", FieldCleaner.cleanDate("26/09/14"));
+        assertNull(FieldCleaner.cleanDate("NULL"));
+        assertEquals("", FieldCleaner.cleanDate(""));
+    }
+
+    public void testCleanValue() throws Exception {
+        assertEquals("F2F", FieldCleaner.cleanValue("f2f"));
+        assertEquals("NonF2F", FieldCleaner.cleanValue("nF2F"));
+        assertEquals("Telephone", FieldCleaner.cleanValue("Telephone"));
+        assertNull(FieldCleaner.cleanValue("NULL"));
+    }
+
+    /**
+     * the single pass cleaners give what the String based ones of PorConverter gave
+     */
+    public void testSameAsBefore() throws Exception {
+        for (String id : new String[] {"RT2550527", "3_155204910", "1150471DA", "1150471CA", "1150471GA",
+            "1022464RiO", "1022464MHRef1", "26127609", "NULL", "5_C_2480976", "650000217082", ""}) {
+            assertEquals(id, oldCleanIdentifier(id), FieldCleaner.cleanIdentifier(id));
+        }
+        for (String date : new String[] {"03/11/15 11:24", "26/09/14", "NULL", "", "2015-04-01",
+            "21/04/16 00:00"}) {
+            assertEquals(date, oldCleanDate(date), FieldCleaner.cleanDate(date));
+        }
+    }
+
+    // PorConverter.cleanIdentifier before FieldCleaner
+    private static String oldCleanIdentifier(String identifier) {
+        if (identifier.contains("NULL")) {
+            return null;
+        }
+        if (identifier.startsWith("RT")) {
+            return identifier.replace("RT", "");
+        }
+        if (identifier.endsWith("DA")) {
+            return identifier.replace("DA", "");
+        }
+        if (identifier.endsWith("CA")) {
+            return identifier.replace("CA", "");
+        }
+        if (identifier.endsWith("GA")) {
+            return identifier.replace("GA", "");
+        }
+        if (identifier.endsWith("RiO")) {
+            return identifier.replace("RiO", "");
+        }
+        if (identifier.contains("MH")) {
+            return identifier.substring(0, identifier.indexOf('M'));
+        }
+        return identifier;
+    }
+
+    // PorConverter.cleanDate before FieldCleaner
+    private static String oldCleanDate(String s) {
+        if (s.contains(" ")) {
+            String[] tokens = s.split(" ");
+            return tokens[0];
+        }
+        if (s.contains("NULL")) {
+            return null;
+        }
+        return s;
+    }
+}
@@ -10,29 +10,177 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import org.apache.log4j.Logger;
 import org.intermine.dataconversion.ItemsTestCase;
 import org.intermine.dataconversion.MockItemWriter;
 import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Runs the files of each site layout (in test/resources/golden, written by SyntheticExtracts of
+ * the benchmarks, scale 0.005 and seed 1) through the converter in each of its modes, and
+ * compares the items with golden/expected.properties (see GoldenOutput). The expected items are
+ * the ones of the converter before the referral and contact dates became Date attributes, with
+ * those dates parsed by DateParser (and dropped where unparseable).
+ */
 public class PorConverterTest extends ItemsTestCase
 {
+    private static final Logger LOG = Logger.getLogger(PorConverterTest.class);
+
     Model model = Model.getInstanceByName("genomic");
     PorConverter converter;
     MockItemWriter itemWriter;
 
+    // the modes expected to give the same items, the first one writes golden/expected.properties
+    private static final Map<String, Consumer<PorConverter>> MODES = new LinkedHashMap<>();
+    static {
+        MODES.put("serial", c -> { });
+        MODES.put("4 file threads", c -> c.setFileThreads("4"));
+        MODES.put("batch size 1", c -> c.setBatchSize("1"));
+        MODES.put("4 site threads", c -> c.setSiteThreads("4"));
+    }
+
     public PorConverterTest(String arg) {
         super(arg);
     }
 
     public void setUp() throws Exception {
         super.setUp();
-        // if you need to do some preprocessing and set up, do that here
     }
 
     public void testProcess() throws Exception {
-        // read in a test file (place in test/resources so it's on the classpath)
-        // process using your converter
-        // compare results to expected results
-        // look at the other intermine unit tests for help!
+        GoldenOutput golden = new GoldenOutput("golden");
+        File[] sites = new File(getClass().getClassLoader().getResource("golden").toURI()).listFiles(File::isDirectory);
+        Arrays.sort(sites);
+        List<String> differences = new ArrayList<>();
+        for (File site : sites) {
+            for (Map.Entry<String, Consumer<PorConverter>> mode : MODES.entrySet()) {
+                differences.addAll(check(golden, site, mode.getKey(), mode.getValue()));
+            }
+            // the first build records the items, the second one stores them from the cache
+            File manifest = Files.createTempDirectory("manifest").toFile();
+            try {
+                Consumer<PorConverter> cached = c -> c.setManifestDir(manifest.getPath());
+                differences.addAll(check(golden, site, "item cache", cached));
+                differences.addAll(check(golden, site, "item cache replayed", cached));
+            } finally {
+                delete(manifest);
+            }
+        }
+        golden.close();
+        assertTrue(String.join("\n", differences), differences.isEmpty());
+    }
+
+    /**
+     * with site threads, only the files given to the converter are read, not the whole directory
+     */
+    public void testProcessSitesGivenFiles() throws Exception {
+        GoldenOutput golden = new GoldenOutput("golden");
+        File resources = new File(getClass().getClassLoader().getResource("golden").toURI());
+        File dir = Files.createTempDirectory("sites").toFile();
+        try {
+            for (String name : new String[] {"Stoke/Stoke.csv", "Norfolk/Norfolk.csv"}) {
+                File file = new File(resources, name);
+                Files.copy(file.toPath(), new File(dir, file.getName()).toPath());
+            }
+            File[] files = {new File(dir, "Stoke.csv")};
+            Collection<Item> items = convert(files, c -> c.setSiteThreads("4"));
+            List<String> differences = golden.check("Stoke", new ItemDigest(items));
+            assertTrue(String.join("\n", differences), differences.isEmpty());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * a later file of a site updates the referrals of the earlier ones: here a second Waltham
+     * outcome file, of the next financial year, with another team
+     */
+    public void testLaterFileUpdates() throws Exception {
+        File resources = new File(getClass().getClassLoader().getResource("golden").toURI());
+        File dir = Files.createTempDirectory("waltham").toFile();
+        try {
+            for (String name : new String[] {"Waltham_1_Patient.csv", "Waltham_2_Outcome.csv"}) {
+                Files.copy(new File(resources, "Waltham/" + name).toPath(), new File(dir, name).toPath());
+            }
+            List<String> lines = Files.readAllLines(new File(dir, "Waltham_2_Outcome.csv").toPath());
+            List<String> later = new ArrayList<>();
+            later.add(lines.get(0));
+            for (String line : lines.subList(1, lines.size())) {
+                String[] fields = line.split(",", -1);
+                fields[0] = "2019/2020";
+                fields[4] = "Later Team";
+                later.add(String.join(",", fields));
+            }
+            Files.write(new File(dir, "Waltham_3_Outcome.csv").toPath(), later);
+
+            int teams = 0;
+            for (Item item : convert(dir.listFiles(), c -> { })) {
+                for (Attribute attribute : item.getAttributes()) {
+                    if ("Referral".equals(item.getClassName()) && "referralTeam".equals(attribute.getName())) {
+                        assertEquals("Later Team", attribute.getValue());
+                        teams++;
+                    }
+                }
+            }
+            assertTrue(teams > 0);
+            // the patients and referrals would have been stored again after each outcome file
+            assertTrue(converter.getStoresAvoided() > 0);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private List<String> check(GoldenOutput golden, File site, String mode, Consumer<PorConverter> setUp)
+        throws Exception {
+        long start = System.nanoTime();
+        Collection<Item> items = convert(site.listFiles(), setUp);
+        long nanos = System.nanoTime() - start;
+        LOG.info(String.format("%-14s %-20s %,7d items %,8d ms %,10.0f items/s", site.getName(), mode,
+                items.size(), nanos / 1000000, items.size() * 1e9 / nanos));
+        List<String> differences = new ArrayList<>();
+        for (String difference : golden.check(site.getName(), new ItemDigest(items))) {
+            differences.add(mode + ", " + difference);
+        }
+        return differences;
+    }
+
+    private Collection<Item> convert(File[] files, Consumer<PorConverter> setUp) throws Exception {
+        itemWriter = new MockItemWriter(new HashMap<String, Item>());
+        converter = new PorConverter(itemWriter, model);
+        setUp.accept(converter);
+        Arrays.sort(files);
+        for (File file : files) {
+            converter.setCurrentFile(file);
+            try (Reader reader = new FileReader(file)) {
+                converter.process(reader);
+            }
+        }
+        converter.close();
+        return itemWriter.getItems();
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
     }
 }